@@ -345,6 +345,11 @@ public class AFLGuidance implements Guidance {
         return this::handleEvent;
     }
 
+    @Override
+    public int getTraceEventMask() {
+        return TraceEvent.BRANCH_EVENTS | TraceEvent.CALL_EVENTS;
+    }
+
     /**
      * Records branch coverage by snooping on branch events
      * and incrementing the branch-specific counter in
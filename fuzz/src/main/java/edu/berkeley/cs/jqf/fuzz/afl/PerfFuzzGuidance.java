@@ -174,8 +174,8 @@ public class PerfFuzzGuidance extends AFLGuidance {
             }
 
         } else if (e instanceof CallEvent) {
-            // Push to calling context
-            callingContext.push((CallEvent) e);
+            // Push a copy to calling context, as the tracer re-uses call events
+            callingContext.push(new CallEvent((CallEvent) e));
 
             // Map branch IID to first half of the tracebits map (excluding 0)
             int edgeId = 1 + Hashing.hash(e.getIid(), (COVERAGE_MAP_SIZE/2) - 1);
@@ -197,6 +197,18 @@ public class PerfFuzzGuidance extends AFLGuidance {
         }
     }
 
+    // Performance feedback also uses return events, and reads or allocations for some feedback types
+    @Override
+    public int getTraceEventMask() {
+        int mask = TraceEvent.BRANCH_EVENTS | TraceEvent.CALL_EVENTS | TraceEvent.RETURN_EVENTS;
+        if (perfFeedbackType == PerfFeedbackType.REDUNDANCY_SCORES) {
+            mask |= TraceEvent.READ_EVENTS;
+        } else if (perfFeedbackType == PerfFeedbackType.ALLOCATION_COUNTS) {
+            mask |= TraceEvent.ALLOC_EVENTS;
+        }
+        return mask;
+    }
+
     private void putTotalBranchCountIntoFeedback() {
         // Put the total count into the first slot of the perf map
         feedback.putInt(0, totalBranchCount);
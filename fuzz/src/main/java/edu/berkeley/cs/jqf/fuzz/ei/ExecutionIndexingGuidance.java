@@ -41,17 +41,17 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
-import java.util.Set;
 import java.util.function.Consumer;
 
 import edu.berkeley.cs.jqf.fuzz.ei.ExecutionIndex.Prefix;
 import edu.berkeley.cs.jqf.fuzz.ei.ExecutionIndex.Suffix;
 import edu.berkeley.cs.jqf.fuzz.guidance.GuidanceException;
 import edu.berkeley.cs.jqf.fuzz.guidance.Result;
-import edu.berkeley.cs.jqf.fuzz.util.Coverage;
 import edu.berkeley.cs.jqf.fuzz.util.IOUtils;
 import edu.berkeley.cs.jqf.fuzz.util.ProducerHashMap;
 import edu.berkeley.cs.jqf.instrument.tracing.SingleSnoop;
+import edu.berkeley.cs.jqf.instrument.tracing.TraceEventBatch;
+import edu.berkeley.cs.jqf.instrument.tracing.TraceLogger;
 import edu.berkeley.cs.jqf.instrument.tracing.events.CallEvent;
 import edu.berkeley.cs.jqf.instrument.tracing.events.TraceEvent;
 
@@ -83,8 +83,11 @@ public class ExecutionIndexingGuidance extends ZestGuidance {
     /** Whether the the entry point has been encountered in the current run. */
     protected boolean testEntered;
 
-    /** The last event handled by this guidance */
-    protected TraceEvent lastEvent;
+    /** Whether any event has been handled by this guidance. */
+    protected boolean eventHandled;
+
+    /** The instruction ID of the last event handled by this guidance. */
+    protected int lastEventIid;
 
     /** Maps a hash code of coverage bits to an index in savedInputs queue. */
     protected Map<Integer, Integer> coverageHashToSavedInputIdx = new HashMap<>();
@@ -188,8 +191,11 @@ public class ExecutionIndexingGuidance extends ZestGuidance {
             @Override
             public int read() throws IOException {
 
-                // lastEvent must not be null
-                if (lastEvent == null) {
+                // Deliver any buffered events, so that the execution indexing state is up to date
+                TraceLogger.get().flush();
+
+                // Some event must have been handled
+                if (!eventHandled) {
                     throw new GuidanceException("Could not compute execution index; no instrumentation?");
                 }
 
@@ -198,7 +204,7 @@ public class ExecutionIndexingGuidance extends ZestGuidance {
                 MappedInput mappedInput = (MappedInput) currentInput;
 
                 // Get the execution index of the last event
-                ExecutionIndex executionIndex = eiState.getExecutionIndex(lastEvent);
+                ExecutionIndex executionIndex = eiState.getExecutionIndex(lastEventIid);
 
                 // Attempt to get a value from the map, or else generate a random value
                 int value = mappedInput.getOrGenerateFresh(executionIndex, random);
@@ -260,19 +266,21 @@ public class ExecutionIndexingGuidance extends ZestGuidance {
                         savedInputs.set(otherIdx, currentInput);
 
                         // Second, update responsibilities
-                        for (Object b : otherInput.responsibilities) {
-                            // Subsume responsibility
-                            // infoLog("-- Stealing responsibility for %s from old input %d", b, otherIdx);
-                            // We are now responsible
-                            responsibleInputs.put(b, currentInput);
+                        for (int b = 0; b < responsibleInputs.length; b++) {
+                            if (responsibleInputs[b] == otherInput) {
+                                // Subsume responsibility
+                                // infoLog("-- Stealing responsibility for %s from old input %d", b, otherIdx);
+                                // We are now responsible
+                                responsibleInputs[b] = currentInput;
+                            }
                         }
-                        currentInput.responsibilities = otherInput.responsibilities;
+                        currentInput.responsibleFor = otherInput.responsibleFor;
 
 
                         // Third, store basic book-keeping data
                         currentInput.id = otherIdx;
                         currentInput.saveFile = otherInput.saveFile;
-                        currentInput.coverage = new Coverage(runCoverage);
+                        currentInput.coverage = runCoverage.snapshot();
                         currentInput.nonZeroCoverage = runCoverage.getNonZeroCount();
                         currentInput.offspring = 0;
                         savedInputs.get(currentParentInputIdx).offspring += 1;
@@ -296,7 +304,7 @@ public class ExecutionIndexingGuidance extends ZestGuidance {
 
     /** Saves an interesting input to the queue. */
     @Override
-    protected void saveCurrentInput(Set<Object> responsibilities, String why) throws IOException {
+    protected void saveCurrentInput(int[] responsibilities, String why) throws IOException {
         // First, do same as Zest
         super.saveCurrentInput(responsibilities, why);
 
@@ -343,15 +351,22 @@ public class ExecutionIndexingGuidance extends ZestGuidance {
         entryPoint = SingleSnoop.entryPoints.get(thread).replace('.', '/');
         assert entryPoint != null : ExecutionIndexingGuidance.class + " must be able to determine an entry point";
 
-        return this::handleEvent;
+        return new TraceEventHandler();
 
     }
 
+    // Every event contributes to the execution index
+    @Override
+    public int getTraceEventMask() {
+        return TraceEvent.ALL_EVENTS;
+    }
+
     /** Handles a trace event generated during test execution */
     @Override
     protected void handleEvent(TraceEvent e) {
         // Set last event to this event
-        lastEvent = e;
+        eventHandled = true;
+        lastEventIid = e.getIid();
 
         // Update execution indexing logic regardless of whether we are in generator or test method
         e.applyVisitor(eiState);
@@ -377,6 +392,40 @@ public class ExecutionIndexingGuidance extends ZestGuidance {
 
     }
 
+    /** Handles a batch of trace events generated during test execution */
+    @Override
+    protected void handleEventBatch(TraceEventBatch batch, int from) {
+        int size = batch.size();
+        if (from >= size) {
+            return;
+        }
+
+        // Set last event to the last event in the batch
+        eventHandled = true;
+        lastEventIid = batch.getIid(size - 1);
+
+        // Update execution indexing logic regardless of whether we are in generator or test method
+        eiState.handleBatch(batch);
+
+        // Do not handle code coverage unless test has been entered
+        if (!testEntered) {
+            // Find the event that enters the test method, if any
+            while (from < size && !(batch.getKind(from) == TraceEventBatch.CALL &&
+                    batch.getInvokedMethod(from).getQualifiedName().startsWith(entryPoint))) {
+                from++;
+            }
+
+            // If test method has not yet been entered, then ignore code coverage
+            if (from == size) {
+                return;
+            }
+            testEntered = true;
+        }
+
+        // Delegate to ZestGuidance for handling code coverage
+        super.handleEventBatch(batch, from);
+    }
+
 
     /**
      * A candidate test input represented as a map from execution indices
@@ -33,6 +33,7 @@ import java.util.Arrays;
 
 import edu.berkeley.cs.jqf.fuzz.util.Counter;
 import edu.berkeley.cs.jqf.fuzz.util.NonZeroCachingCounter;
+import edu.berkeley.cs.jqf.instrument.tracing.TraceEventBatch;
 import edu.berkeley.cs.jqf.instrument.tracing.events.CallEvent;
 import edu.berkeley.cs.jqf.instrument.tracing.events.ReturnEvent;
 import edu.berkeley.cs.jqf.instrument.tracing.events.TraceEvent;
@@ -60,11 +61,15 @@ public class ExecutionIndexingState implements TraceEventVisitor {
     }
 
     public void pushCall(CallEvent e) {
+        pushCall(e.getIid());
+    }
+
+    public void pushCall(int iid) {
         // Increment counter for call-site (note: this is subject to hash collisions)
-        int count = stackOfCounters.get(depth).increment(e.getIid());
+        int count = stackOfCounters.get(depth).increment(iid);
 
         // Add to rolling execution index
-        rollingIndex[2*depth] = e.getIid();
+        rollingIndex[2*depth] = iid;
         rollingIndex[2*depth + 1] = count;
 
         // Increment depth
@@ -83,6 +88,10 @@ public class ExecutionIndexingState implements TraceEventVisitor {
     }
 
     public void popReturn(ReturnEvent e) {
+        popReturn();
+    }
+
+    public void popReturn() {
         // Clear the top-of-stack
         stackOfCounters.get(depth).clear();
 
@@ -93,11 +102,15 @@ public class ExecutionIndexingState implements TraceEventVisitor {
     }
 
     public ExecutionIndex getExecutionIndex(TraceEvent e) {
+        return getExecutionIndex(e.getIid());
+    }
+
+    public ExecutionIndex getExecutionIndex(int iid) {
         // Increment counter for event (note: this is subject to hash collisions)
-        int count = stackOfCounters.get(depth).increment(e.getIid());
+        int count = stackOfCounters.get(depth).increment(iid);
 
         // Add to rolling execution index
-        rollingIndex[2*depth] = e.getIid();
+        rollingIndex[2*depth] = iid;
         rollingIndex[2*depth + 1] = count;
 
         // Snapshot the rolling index
@@ -108,6 +121,27 @@ public class ExecutionIndexingState implements TraceEventVisitor {
         return new ExecutionIndex(ei);
     }
 
+    /**
+     * Updates the call stack based on the calls and returns in a batch of events.
+     *
+     * @param batch the events to be processed
+     */
+    public void handleBatch(TraceEventBatch batch) {
+        int size = batch.size();
+        for (int i = 0; i < size; i++) {
+            switch (batch.getKind(i)) {
+                case TraceEventBatch.CALL:
+                    pushCall(batch.getIid(i));
+                    break;
+                case TraceEventBatch.RETURN:
+                    popReturn();
+                    break;
+                default:
+                    // Branches do not affect the call stack
+            }
+        }
+    }
+
     @Override
     public void visitCallEvent(CallEvent c) {
         this.pushCall(c);
@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2017-2018 The Regents of the University of California
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package edu.berkeley.cs.jqf.fuzz.ei;
+
+import edu.berkeley.cs.jqf.fuzz.util.Coverage;
+import edu.berkeley.cs.jqf.instrument.tracing.SwitchableProbes;
+
+/**
+ * Switches off branch probes that can no longer contribute new coverage.
+ *
+ * <p>A branch is <em>saturated</em> once all of its arms have been covered
+ * and, unless hit counts are ignored, the hit-count buckets of its arms have
+ * not changed since the previous pruning pass. The probes of saturated
+ * branches are disabled via {@link SwitchableProbes}, so that the JIT compiler
+ * can remove them from the instrumented code. Only probes that were linked as
+ * switchable probes (i.e., with {@code janala.switchableProbes=true}) can be
+ * pruned.</p>
+ *
+ * <p>A pruned arm never shows up in the coverage of later runs, so later inputs
+ * cannot be saved for hitting new counts of that arm, nor take over the
+ * responsibility for it from other inputs.</p>
+ */
+public class ProbePruner {
+
+    /** Whether to prune branches even if their hit-count buckets are still changing. */
+    protected final boolean ignoreCounts;
+
+    /** The hit-count buckets of each slot at the previous pruning pass. */
+    private int[] previousBuckets = new int[0];
+
+    /** The total number of probes pruned so far. */
+    private int numPruned = 0;
+
+    /**
+     * Creates a new probe pruner.
+     *
+     * @param ignoreCounts whether to prune branches as soon as all of their
+     *                     arms are covered, giving up sensitivity to hit counts
+     */
+    public ProbePruner(boolean ignoreCounts) {
+        this.ignoreCounts = ignoreCounts;
+    }
+
+    /**
+     * Disables the probes of all branches that are saturated.
+     *
+     * @param totalCoverage the cumulative coverage of all runs
+     * @param validCoverage the cumulative coverage of valid runs, or
+     *                      {@code null} if validity is not a fuzzing objective
+     * @return the number of probes disabled by this pass
+     */
+    public int prune(Coverage totalCoverage, Coverage validCoverage) {
+        int size = SwitchableProbes.size();
+        int[] buckets = new int[size];
+        for (int slot = 0; slot < size; slot++) {
+            buckets[slot] = totalCoverage.getAtIndex(slot);
+        }
+
+        int pruned = 0;
+        for (int slot = 0; slot < size; slot++) {
+            // Consider each branch once, via the probe of its first arm
+            if (!SwitchableProbes.isSwitchable(slot) || SwitchableProbes.getBranchStart(slot) != slot ||
+                    SwitchableProbes.isDisabled(slot)) {
+                continue;
+            }
+            int end = SwitchableProbes.getBranchEnd(slot);
+            if (isSaturated(slot, end, buckets, validCoverage)) {
+                for (int arm = slot; arm < end; arm++) {
+                    SwitchableProbes.disable(arm);
+                }
+                pruned += end - slot;
+            }
+        }
+
+        previousBuckets = buckets;
+        numPruned += pruned;
+        return pruned;
+    }
+
+    private boolean isSaturated(int start, int end, int[] buckets, Coverage validCoverage) {
+        if (end > buckets.length) {
+            // Some arm has never been linked, so it has never been covered
+            return false;
+        }
+        for (int slot = start; slot < end; slot++) {
+            if (buckets[slot] == 0) {
+                return false;
+            }
+            if (validCoverage != null && validCoverage.getAtIndex(slot) == 0) {
+                return false;
+            }
+            if (!ignoreCounts && (slot >= previousBuckets.length || previousBuckets[slot] != buckets[slot])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the total number of probes disabled so far.
+     *
+     * @return the number of pruned probes
+     */
+    public int getNumPruned() {
+        return numPruned;
+    }
+}
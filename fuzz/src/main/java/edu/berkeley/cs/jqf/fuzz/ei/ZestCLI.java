@@ -92,6 +92,10 @@ public class ZestCLI implements Runnable{
             description = "Blind fuzzing: do not use coverage feedback (default: false)")
     private boolean blindFuzzing;
 
+    @Option(names = { "--pre-instrument" },
+            description = "Instrument all classes in parallel before fuzzing, to reduce startup time (default: false)")
+    private boolean preInstrument;
+
     @Parameters(index = "0", paramLabel = "PACKAGE", description = "package containing the fuzz target and all dependencies")
     private String testPackageName;
 
@@ -142,9 +146,12 @@ public class ZestCLI implements Runnable{
 
 
         try {
-            ClassLoader loader = new InstrumentingClassLoader(
+            InstrumentingClassLoader loader = new InstrumentingClassLoader(
                     this.testPackageName.split(File.pathSeparator),
                     ZestCLI.class.getClassLoader());
+            if (this.preInstrument) {
+                loader.preInstrument();
+            }
 
             // Load the guidance
             String title = this.testClassName+"#"+this.testMethodName;
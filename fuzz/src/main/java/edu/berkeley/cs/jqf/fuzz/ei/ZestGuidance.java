@@ -44,16 +44,17 @@ import java.time.Duration;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collection;
 import java.util.Date;
 import java.util.Deque;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 
@@ -62,7 +63,10 @@ import edu.berkeley.cs.jqf.fuzz.guidance.GuidanceException;
 import edu.berkeley.cs.jqf.fuzz.guidance.Result;
 import edu.berkeley.cs.jqf.fuzz.guidance.TimeoutException;
 import edu.berkeley.cs.jqf.fuzz.util.Coverage;
+import edu.berkeley.cs.jqf.fuzz.util.CoverageSnapshot;
 import edu.berkeley.cs.jqf.fuzz.util.IOUtils;
+import edu.berkeley.cs.jqf.instrument.tracing.TraceEventBatch;
+import edu.berkeley.cs.jqf.instrument.tracing.TraceEventBatchConsumer;
 import edu.berkeley.cs.jqf.instrument.tracing.events.TraceEvent;
 
 import static java.lang.Math.ceil;
@@ -154,8 +158,11 @@ public class ZestGuidance implements Guidance {
     /** The maximum number of keys covered by any single input found so far. */
     protected int maxCoverage = 0;
 
-    /** A mapping of coverage keys to inputs that are responsible for them. */
-    protected Map<Object, Input> responsibleInputs = new HashMap<>(totalCoverage.size());
+    /**
+     * The input that is responsible for each coverage key, indexed by
+     * coverage slot, or null for keys that are not covered.
+     */
+    protected Input[] responsibleInputs = new Input[totalCoverage.size()];
 
     /** The set of unique failures found so far. */
     protected Set<List<StackTraceElement>> uniqueFailures = new HashSet<>();
@@ -213,7 +220,7 @@ public class ZestGuidance implements Guidance {
     protected long singleRunTimeoutMillis;
 
     /** Date when last run was started. */
-    protected Date runStart;
+    protected volatile Date runStart;
 
     /** Number of conditional jumps since last run was started. */
     protected long branchCount;
@@ -229,6 +236,9 @@ public class ZestGuidance implements Guidance {
     /** Whether the application has more than one thread running coverage-instrumented code */
     protected boolean multiThreaded = false;
 
+    /** The coverage recorded by threads other than the first, which is merged into runCoverage by handleResult(). */
+    protected final Map<Thread, CoverageShard> coverageShards = new ConcurrentHashMap<>();
+
     // ------------- FUZZING HEURISTICS ------------
 
     /** Whether to save only valid inputs **/
@@ -258,6 +268,18 @@ public class ZestGuidance implements Guidance {
     /** Whether to steal responsibility from old inputs (this increases computation cost). */
     protected final boolean STEAL_RESPONSIBILITY = Boolean.getBoolean("jqf.ei.STEAL_RESPONSIBILITY");
 
+    /** Whether to switch off branch probes that can no longer add coverage (needs janala.switchableProbes). */
+    protected final boolean PRUNE_PROBES = Boolean.getBoolean("jqf.ei.PRUNE_PROBES");
+
+    /** Number of trials between two probe-pruning passes. */
+    protected final int PRUNE_INTERVAL = Integer.getInteger("jqf.ei.PRUNE_INTERVAL", 10000);
+
+    /** Whether to prune probes without waiting for their hit-count buckets to stop changing. */
+    protected final boolean PRUNE_IGNORE_COUNTS = Boolean.getBoolean("jqf.ei.PRUNE_IGNORE_COUNTS");
+
+    /** Disables the probes of saturated branches, or {@code null} if pruning is disabled. */
+    protected final ProbePruner probePruner = PRUNE_PROBES ? new ProbePruner(PRUNE_IGNORE_COUNTS) : null;
+
     /**
      * Creates a new Zest guidance instance with optional duration,
      * optional trial limit, and possibly deterministic PRNG.
@@ -578,7 +600,7 @@ public class ZestGuidance implements Guidance {
         numFavoredLastCycle = 0;
         for (Input input : savedInputs) {
             if (input.isFavored()) {
-                int responsibleFor = input.responsibilities.size();
+                int responsibleFor = input.responsibleFor;
                 infoLog("Input %d is responsible for %d branches", input.id, responsibleFor);
                 sumResponsibilities += responsibleFor;
                 numFavoredLastCycle++;
@@ -631,6 +653,30 @@ public class ZestGuidance implements Guidance {
                 // infoLog("read(%d) = %d", bytesRead, ret);
                 return ret;
             }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                // Same as the default implementation, without a virtual call per byte
+                Objects.requireNonNull(b);
+                if (off < 0 || len < 0 || len > b.length - off) {
+                    throw new IndexOutOfBoundsException();
+                }
+                if (len == 0) {
+                    return 0;
+                }
+                assert currentInput instanceof LinearInput : "ZestGuidance should only mutate LinearInput(s)";
+                LinearInput linearInput = (LinearInput) currentInput;
+                for (int i = 0; i < len; i++) {
+                    int ret = linearInput.getOrGenerateFresh(bytesRead, random);
+                    if (ret < 0) {
+                        // Leave bytesRead at the end of the input, which is where it stays
+                        return i == 0 ? -1 : i;
+                    }
+                    bytesRead++;
+                    b[off + i] = (byte) ret;
+                }
+                return len;
+            }
         };
     }
 
@@ -639,6 +685,7 @@ public class ZestGuidance implements Guidance {
         conditionallySynchronize(multiThreaded, () -> {
             // Clear coverage stats for this run
             runCoverage.clear();
+            drainCoverageShards(null);
 
             // Choose an input to execute based on state of queues
             if (!seedInputs.isEmpty()) {
@@ -718,6 +765,9 @@ public class ZestGuidance implements Guidance {
             // Stop timeout handling
             this.runStart = null;
 
+            // Collect coverage from other threads
+            drainCoverageShards(runCoverage);
+
             // Increment run count
             this.numTrials++;
 
@@ -734,7 +784,7 @@ public class ZestGuidance implements Guidance {
                 // Newly covered branches are always included.
                 // Existing branches *may* be included, depending on the heuristics used.
                 // A valid input will steal responsibility from invalid inputs
-                Set<Object> responsibilities = computeResponsibilities(valid);
+                int[] responsibilities = computeResponsibilities(valid);
 
                 // Determine if this input should be saved
                 List<String> savingCriteriaSatisfied = checkSavingCriteriaSatisfied(result);
@@ -810,6 +860,14 @@ public class ZestGuidance implements Guidance {
                 }
             }
 
+            // Periodically switch off the probes of branches that can no longer add coverage
+            if (probePruner != null && numTrials % PRUNE_INTERVAL == 0) {
+                int pruned = probePruner.prune(totalCoverage, validityFuzzing ? validCoverage : null);
+                if (pruned > 0) {
+                    infoLog("Pruned %d saturated branch probes (at run %d)", pruned, numTrials);
+                }
+            }
+
             // displaying stats on every interval is only enabled for AFL-like stats screen
             if (!LIBFUZZER_COMPAT_OUTPUT) {
                 displayStats();
@@ -876,64 +934,126 @@ public class ZestGuidance implements Guidance {
     }
 
 
-    // Compute a set of branches for which the current input may assume responsibility
-    protected Set<Object> computeResponsibilities(boolean valid) {
-        Set<Object> result = new HashSet<>();
+    // Compute the coverage keys for which the current input may assume responsibility
+    protected int[] computeResponsibilities(boolean valid) {
+        // Every key is covered by this run, so the run coverage bounds the result
+        int[] result = new int[runCoverage.getNonZeroCount()];
+        int count = 0;
 
         // This input is responsible for all new coverage
-        Collection<?> newCoverage = runCoverage.computeNewCoverage(totalCoverage);
-        if (newCoverage.size() > 0) {
-            result.addAll(newCoverage);
+        for (int idx : runCoverage.computeNewCoverageIndices(totalCoverage)) {
+            result[count++] = idx;
         }
 
         // If valid, this input is responsible for all new valid coverage
         if (valid) {
-            Collection<?> newValidCoverage = runCoverage.computeNewCoverage(validCoverage);
-            if (newValidCoverage.size() > 0) {
-                result.addAll(newValidCoverage);
+            for (int idx : runCoverage.computeNewCoverageIndices(validCoverage)) {
+                // Keys that are new to the total coverage have already been added
+                if (totalCoverage.getAtIndex(idx) != 0) {
+                    result[count++] = idx;
+                }
             }
         }
 
         // Perhaps it can also steal responsibility from other inputs
         if (STEAL_RESPONSIBILITY) {
-            int currentNonZeroCoverage = runCoverage.getNonZeroCount();
-            int currentInputSize = currentInput.size();
-            Set<?> covered = new HashSet<>(runCoverage.getCovered());
-
-            // Search for a candidate to steal responsibility from
-            candidate_search:
-            for (Input candidate : savedInputs) {
-                Set<?> responsibilities = candidate.responsibilities;
-
-                // Candidates with no responsibility are not interesting
-                if (responsibilities.isEmpty()) {
-                    continue candidate_search;
-                }
+            count = stealResponsibilities(valid, result, count);
+        }
+
+        return Arrays.copyOf(result, count);
+    }
+
+    /**
+     * Finds the saved inputs whose responsibilities are all covered by the
+     * current run, and adds their keys to the responsibilities of the
+     * current input.
+     *
+     * <p>Only the owners of the keys covered by this run can be stolen
+     * from, so they are found via {@link #responsibleInputs} in time
+     * proportional to the run coverage, rather than by scanning the whole
+     * corpus. Each owner counts how many of its keys the run covers in
+     * {@link Input#stealCount}, which is valid for the trial stored in
+     * {@link Input#stealTrial}.</p>
+     *
+     * @param valid whether the current run was valid
+     * @param result the array to append the stolen keys to
+     * @param count the number of keys already in {@code result}
+     * @return the number of keys in {@code result} after stealing
+     */
+    protected int stealResponsibilities(boolean valid, int[] result, int count) {
+        int currentNonZeroCoverage = runCoverage.getNonZeroCount();
+        int currentInputSize = -1; // Computed at most once, when needed
+        int[] covered = runCoverage.getCoveredIndices();
+
+        // Count how many of each candidate's responsibilities this input covers
+        for (int idx : covered) {
+            Input candidate = getResponsibleInput(idx);
+            if (candidate == null) {
+                continue;
+            }
+            if (candidate.stealTrial != numTrials) {
+                candidate.stealTrial = numTrials;
+                candidate.stealCount = 0;
 
                 // To avoid thrashing, only consider candidates with either
                 // (1) strictly smaller total coverage or
                 // (2) same total coverage but strictly larger size
-                if (candidate.nonZeroCoverage < currentNonZeroCoverage ||
-                        (candidate.nonZeroCoverage == currentNonZeroCoverage &&
-                                currentInputSize < candidate.size())) {
-
-                    // Check if we can steal all responsibilities from candidate
-                    for (Object b : responsibilities) {
-                        if (covered.contains(b) == false) {
-                            // Cannot steal if this input does not cover something
-                            // that the candidate is responsible for
-                            continue candidate_search;
-                        }
+                if (candidate.nonZeroCoverage > currentNonZeroCoverage) {
+                    candidate.stealCount = -1;
+                } else if (candidate.nonZeroCoverage == currentNonZeroCoverage) {
+                    if (currentInputSize < 0) {
+                        currentInputSize = currentInput.size();
+                    }
+                    if (currentInputSize >= candidate.size()) {
+                        candidate.stealCount = -1;
                     }
-                    // If all of candidate's responsibilities are covered by the
-                    // current input, then it can completely subsume the candidate
-                    result.addAll(responsibilities);
                 }
+            }
+            if (candidate.stealCount >= 0) {
+                candidate.stealCount++;
+            }
+        }
 
+        // If all of a candidate's responsibilities are covered by the
+        // current input, then it can completely subsume the candidate
+        for (int idx : covered) {
+            Input candidate = getResponsibleInput(idx);
+            if (candidate == null || (valid && validCoverage.getAtIndex(idx) == 0)) {
+                // Either not stealable, or already added as new valid coverage
+                continue;
+            }
+            if (candidate.stealCount == candidate.responsibleFor) {
+                result[count++] = idx;
             }
         }
+        return count;
+    }
 
-        return result;
+    /** Returns the input that is responsible for a coverage key, or null if there is none. */
+    protected Input getResponsibleInput(int idx) {
+        return idx < responsibleInputs.length ? responsibleInputs[idx] : null;
+    }
+
+    /** Makes an input responsible for the given coverage keys, taking them over from their old owners. */
+    protected void assumeResponsibilities(Input input, int[] responsibilities) {
+        for (int idx : responsibilities) {
+            if (idx >= responsibleInputs.length) {
+                responsibleInputs = Arrays.copyOf(responsibleInputs,
+                        Math.max(idx + 1, totalCoverage.size()));
+            }
+            // If there is an old input that is responsible,
+            // subsume it
+            Input oldResponsible = responsibleInputs[idx];
+            if (oldResponsible != null) {
+                oldResponsible.responsibleFor--;
+                // infoLog("-- Stealing responsibility for %s from input %d", idx, oldResponsible.id);
+            } else {
+                // infoLog("-- Assuming new responsibility for %s", idx);
+            }
+            // We are now responsible
+            responsibleInputs[idx] = input;
+            input.responsibleFor++;
+        }
     }
 
     protected void writeCurrentInputToFile(File saveFile) throws IOException {
@@ -947,7 +1067,7 @@ public class ZestGuidance implements Guidance {
     }
 
     /* Saves an interesting input to the queue. */
-    protected void saveCurrentInput(Set<Object> responsibilities, String why) throws IOException {
+    protected void saveCurrentInput(int[] responsibilities, String why) throws IOException {
 
         // First, save to disk (note: we issue IDs to everyone, but only write to disk  if valid)
         int newInputIdx = numSavedInputs++;
@@ -968,57 +1088,212 @@ public class ZestGuidance implements Guidance {
         // Third, store basic book-keeping data
         currentInput.id = newInputIdx;
         currentInput.saveFile = saveFile;
-        currentInput.coverage = new Coverage(runCoverage);
+        currentInput.coverage = runCoverage.snapshot();
         currentInput.nonZeroCoverage = runCoverage.getNonZeroCount();
         currentInput.offspring = 0;
         savedInputs.get(currentParentInputIdx).offspring += 1;
 
         // Fourth, assume responsibility for branches
-        currentInput.responsibilities = responsibilities;
-        for (Object b : responsibilities) {
-            // If there is an old input that is responsible,
-            // subsume it
-            Input oldResponsible = responsibleInputs.get(b);
-            if (oldResponsible != null) {
-                oldResponsible.responsibilities.remove(b);
-                // infoLog("-- Stealing responsibility for %s from input %d", b, oldResponsible.id);
-            } else {
-                // infoLog("-- Assuming new responsibility for %s", b);
-            }
-            // We are now responsible
-            responsibleInputs.put(b, currentInput);
-        }
+        assumeResponsibilities(currentInput, responsibilities);
 
     }
 
+    /**
+     * Generates the callback for a thread.
+     *
+     * <p>Events of the first thread, which runs the test method, are
+     * handled by {@link #handleEvent} and {@link #handleEventBatch}. Other
+     * threads record coverage into their own {@link CoverageShard}, so that
+     * threads never contend for a lock while they are traced. A thread may
+     * get several callbacks, e.g. one per task that it runs, which then
+     * share its shard.</p>
+     *
+     * @param thread the thread whose events will be handled
+     * @return the callback for the thread
+     */
     @Override
     public Consumer<TraceEvent> generateCallBack(Thread thread) {
         if (firstThread == null) {
             firstThread = thread;
         } else if (firstThread != thread) {
             multiThreaded = true;
+            return coverageShards.computeIfAbsent(thread, CoverageShard::new);
         }
-        return this::handleEvent;
+        return new TraceEventHandler();
+    }
+
+    @Override
+    public int getTraceEventMask() {
+        return TraceEvent.BRANCH_EVENTS | TraceEvent.CALL_EVENTS;
+    }
+
+    @Override
+    public void handleInlineCoverage(int[] counts) {
+        conditionallySynchronize(multiThreaded, () -> runCoverage.addCounts(counts));
     }
 
     /**
-     * Handles a trace event generated during test execution.
+     * Handles a trace event generated by the first thread during test execution.
+     *
+     * <p>This does not need to synchronize, since the first thread also
+     * runs {@link #getInput()} and {@link #handleResult}, and other threads
+     * record their coverage separately.</p>
      *
      * @param e the trace event to be handled
      */
     protected void handleEvent(TraceEvent e) {
-        conditionallySynchronize(multiThreaded, () -> {
-            // Collect totalCoverage
-            runCoverage.handleEvent(e);
-            // Check for possible timeouts every so often
-            if (this.singleRunTimeoutMillis > 0 &&
-                    this.runStart != null && (++this.branchCount) % 10_000 == 0) {
-                long elapsed = new Date().getTime() - runStart.getTime();
-                if (elapsed > this.singleRunTimeoutMillis) {
-                    throw new TimeoutException(elapsed, this.singleRunTimeoutMillis);
+        // Collect totalCoverage
+        runCoverage.handleEvent(e);
+        // Check for possible timeouts every so often
+        if (this.singleRunTimeoutMillis > 0 &&
+                this.runStart != null && (++this.branchCount) % 10_000 == 0) {
+            checkForTimeout();
+        }
+    }
+
+    /**
+     * Handles a batch of trace events generated by the first thread during test execution.
+     *
+     * @param batch the events to handle
+     * @param from the index of the first event in the batch to handle
+     */
+    protected void handleEventBatch(TraceEventBatch batch, int from) {
+        // Collect totalCoverage
+        runCoverage.handleBatch(batch, from);
+        // Check for possible timeouts as often as for single events
+        if (this.singleRunTimeoutMillis > 0 && this.runStart != null) {
+            long before = this.branchCount;
+            this.branchCount += batch.size() - from;
+            if (this.branchCount / 10_000 != before / 10_000) {
+                checkForTimeout();
+            }
+        }
+    }
+
+    private void checkForTimeout() {
+        // Other threads may race with handleResult(), which unsets runStart
+        Date start = this.runStart;
+        if (start == null) {
+            return;
+        }
+        long elapsed = new Date().getTime() - start.getTime();
+        if (elapsed > this.singleRunTimeoutMillis) {
+            throw new TimeoutException(elapsed, this.singleRunTimeoutMillis);
+        }
+    }
+
+    /** The callback for each thread, which receives events singly or in batches. */
+    protected class TraceEventHandler implements TraceEventBatchConsumer {
+        @Override
+        public void accept(TraceEvent e) {
+            handleEvent(e);
+        }
+
+        @Override
+        public void acceptBatch(TraceEventBatch batch) {
+            handleEventBatch(batch, 0);
+        }
+    }
+
+    /**
+     * Adds the coverage recorded by other threads to a coverage map, and
+     * clears it for the next run.
+     *
+     * @param target the coverage map to add to, or {@code null} to discard the coverage
+     */
+    protected void drainCoverageShards(Coverage target) {
+        for (CoverageShard shard : coverageShards.values()) {
+            shard.drainInto(target);
+            if (!shard.thread.isAlive()) {
+                coverageShards.remove(shard.thread);
+            }
+        }
+    }
+
+    /**
+     * The callback for a thread other than the first, which records
+     * coverage into a map of its own.
+     *
+     * <p>Instead of a lock, the thread and {@link #drainInto} signal each
+     * other with a pair of volatile flags: each sets its own flag before
+     * checking the other's, so they never access the map at the same time.
+     * The thread only waits while the map is being drained.</p>
+     */
+    protected class CoverageShard implements TraceEventBatchConsumer {
+        private final Thread thread;
+        private final Coverage coverage = new Coverage();
+        private volatile boolean recording = false;
+        private volatile boolean draining = false;
+        private long eventCount = 0;
+
+        protected CoverageShard(Thread thread) {
+            this.thread = thread;
+        }
+
+        @Override
+        public void accept(TraceEvent e) {
+            startRecording();
+            try {
+                coverage.handleEvent(e);
+            } finally {
+                recording = false;
+            }
+            countEvents(1);
+        }
+
+        @Override
+        public void acceptBatch(TraceEventBatch batch) {
+            startRecording();
+            try {
+                coverage.handleBatch(batch);
+            } finally {
+                recording = false;
+            }
+            countEvents(batch.size());
+        }
+
+        private void startRecording() {
+            recording = true;
+            while (draining) {
+                // Let the drain finish
+                recording = false;
+                while (draining) {
+                    Thread.yield();
                 }
+                recording = true;
             }
-        });
+        }
+
+        private void countEvents(int count) {
+            // Check for possible timeouts as often as the first thread does
+            if (singleRunTimeoutMillis > 0) {
+                long before = eventCount;
+                eventCount += count;
+                if (eventCount / 10_000 != before / 10_000) {
+                    checkForTimeout();
+                }
+            }
+        }
+
+        /**
+         * Adds the recorded coverage to a coverage map, and clears it.
+         *
+         * @param target the coverage map to add to, or {@code null} to discard the coverage
+         */
+        protected void drainInto(Coverage target) {
+            draining = true;
+            try {
+                while (recording) {
+                    Thread.yield();
+                }
+                if (target != null) {
+                    target.add(coverage);
+                }
+                coverage.clear();
+            } finally {
+                draining = false;
+            }
+        }
     }
 
     /**
@@ -1072,11 +1347,11 @@ public class ZestGuidance implements Guidance {
         String desc;
 
         /**
-         * The run coverage for this input, if the input is saved.
+         * A sparse copy of the run coverage for this input, if the input is saved.
          *
          * <p>This field is null for inputs that are not saved.</p>
          */
-        Coverage coverage = null;
+        CoverageSnapshot coverage = null;
 
         /**
          * The number of non-zero elements in `coverage`.
@@ -1098,17 +1373,28 @@ public class ZestGuidance implements Guidance {
         int offspring = -1;
 
         /**
-         * The set of coverage keys for which this input is
+         * The number of coverage keys for which this input is
          * responsible.
          *
-         * <p>This field is null for inputs that are not saved.</p>
-         *
-         * <p>Each coverage key appears in the responsibility set
-         * of exactly one saved input, and all covered keys appear
-         * in at least some responsibility set. Hence, this list
-         * needs to be kept in-sync with {@link #responsibleInputs}.</p>
+         * <p>Each covered key is mapped to exactly one saved input
+         * by {@link #responsibleInputs}, and this field counts the
+         * keys that are mapped to this input. Hence, it needs to be
+         * kept in-sync with {@link #responsibleInputs}.</p>
+         */
+        int responsibleFor = 0;
+
+        /**
+         * The trial in which responsibility stealing last counted the
+         * keys of this input that were covered, or -1 if it never has.
+         */
+        long stealTrial = -1;
+
+        /**
+         * The number of keys of this input that were covered in
+         * {@link #stealTrial}, or -1 if this input could not be stolen
+         * from in that trial.
          */
-        Set<Object> responsibilities = null;
+        int stealCount;
 
         /**
          * Create an empty input.
@@ -1140,7 +1426,7 @@ public class ZestGuidance implements Guidance {
          * @return whether or not this input is favored
          */
         public boolean isFavored() {
-            return responsibilities.size() > 0;
+            return responsibleFor > 0;
         }
 
         /**
@@ -1161,30 +1447,80 @@ public class ZestGuidance implements Guidance {
 
     public class LinearInput extends Input<Integer> {
 
-        /** A list of byte values (0-255) ordered by their index. */
-        protected ArrayList<Integer> values;
+        /**
+         * The byte values ordered by their index, of which the first
+         * {@link #size} are valid.
+         *
+         * <p>A mutant shares this array with the input that it was
+         * mutated from, and keeps the bytes that it changed as patches.
+         * The array is copied only when the mutant grows, or is saved.</p>
+         */
+        protected byte[] values;
+
+        /** The number of bytes in this input. */
+        protected int size;
+
+        /** Whether {@link #values} may be shared with another input. */
+        protected boolean shared;
+
+        /** The offsets of the patched bytes, in increasing order. */
+        protected int[] patchOffsets;
+
+        /** The value of each patched byte. */
+        protected byte[] patchValues;
+
+        /** The number of patched bytes. */
+        protected int patchCount = 0;
+
+        /** The first patch at or after {@link #requested}, since bytes are requested in order. */
+        private int nextPatch = 0;
 
         /** The number of bytes requested so far */
         protected int requested = 0;
 
+        /** Beyond this many patched bytes, a mutant gets its own copy of the bytes instead. */
+        private static final int MAX_PATCHES = 64;
+
         public LinearInput() {
             super();
-            this.values = new ArrayList<>();
+            this.values = new byte[16];
         }
 
         public LinearInput(LinearInput other) {
             super(other);
-            this.values = new ArrayList<>(other.values);
+            this.values = other.values;
+            this.size = other.size;
+            if (other.patchCount > 0) {
+                this.patchOffsets = Arrays.copyOf(other.patchOffsets, other.patchCount);
+                this.patchValues = Arrays.copyOf(other.patchValues, other.patchCount);
+                this.patchCount = other.patchCount;
+            }
+            // Neither input may write to the array from now on
+            this.shared = true;
+            other.shared = true;
         }
 
-
         @Override
         public int getOrGenerateFresh(Integer key, Random random) {
+            return getOrGenerateFresh(key.intValue(), random);
+        }
+
+        /**
+         * Returns the byte at the given index, generating it if needed.
+         *
+         * <p>This is the same as {@link #getOrGenerateFresh(Integer, Random)},
+         * without boxing the index.</p>
+         *
+         * @param key the index of the byte, which must be the number of bytes requested so far
+         * @param random the source of randomness for fresh bytes
+         * @return the byte value (0-255), or -1 for end of stream
+         */
+        public int getOrGenerateFresh(int key, Random random) {
             // Otherwise, make sure we are requesting just beyond the end-of-list
             // assert (key == values.size());
             if (key != requested) {
                 throw new IllegalStateException(String.format("Bytes from linear input out of order. " +
-                        "Size = %d, Key = %d", values.size(), key));
+                        "Size = %d, Key = %d", size, key));
             }
 
             // Don't generate over the limit
@@ -1193,10 +1529,13 @@ public class ZestGuidance implements Guidance {
             }
 
             // If it exists in the list, return it
-            if (key < values.size()) {
+            if (key < size) {
                 requested++;
                 // infoLog("Returning old byte at key=%d, total requested=%d", key, requested);
-                return values.get(key);
+                if (nextPatch < patchCount && patchOffsets[nextPatch] == key) {
+                    return patchValues[nextPatch++] & 0xFF;
+                }
+                return values[key] & 0xFF;
             }
 
             // Handle end of stream
@@ -1205,16 +1544,67 @@ public class ZestGuidance implements Guidance {
             } else {
                 // Just generate a random input
                 int val = random.nextInt(256);
-                values.add(val);
+                append(val);
                 requested++;
                 // infoLog("Generating fresh byte at key=%d, total requested=%d", key, requested);
                 return val;
             }
         }
 
+        /** Adds a byte at the end of this input. */
+        protected void append(int value) {
+            if (shared || patchCount > 0 || size == values.length) {
+                unshare(Math.max(16, size * 2));
+            }
+            values[size++] = (byte) value;
+        }
+
+        /** Sets the byte at an index of this input. */
+        protected void set(int index, int value) {
+            if (!shared) {
+                values[index] = (byte) value;
+                return;
+            }
+            int pos = patchCount == 0 ? -1 : Arrays.binarySearch(patchOffsets, 0, patchCount, index);
+            if (pos >= 0) {
+                patchValues[pos] = (byte) value;
+            } else if (patchCount >= MAX_PATCHES) {
+                unshare(size);
+                values[index] = (byte) value;
+            } else {
+                if (patchCount == 0) {
+                    patchOffsets = new int[8];
+                    patchValues = new byte[8];
+                } else if (patchCount == patchOffsets.length) {
+                    patchOffsets = Arrays.copyOf(patchOffsets, patchCount * 2);
+                    patchValues = Arrays.copyOf(patchValues, patchCount * 2);
+                }
+                pos = -pos - 1;
+                System.arraycopy(patchOffsets, pos, patchOffsets, pos + 1, patchCount - pos);
+                System.arraycopy(patchValues, pos, patchValues, pos + 1, patchCount - pos);
+                patchOffsets[pos] = index;
+                patchValues[pos] = (byte) value;
+                patchCount++;
+            }
+        }
+
+        /** Copies the bytes of this input, with its patches applied, into an array of its own. */
+        private void unshare(int capacity) {
+            byte[] copy = Arrays.copyOf(values, capacity);
+            for (int i = 0; i < patchCount; i++) {
+                copy[patchOffsets[i]] = patchValues[i];
+            }
+            values = copy;
+            shared = false;
+            patchOffsets = null;
+            patchValues = null;
+            patchCount = 0;
+            nextPatch = 0;
+        }
+
         @Override
         public int size() {
-            return values.size();
+            return size;
         }
 
         /**
@@ -1223,17 +1613,28 @@ public class ZestGuidance implements Guidance {
          * <p>Although this operation mutates the underlying object, the effect should
          * not be externally visible (at least as long as the test executions are
          * deterministic).</p>
+         *
+         * <p>Inputs are trimmed before they are saved, and saved inputs are the
+         * parents of mutants, so this also gives the input a compact copy of its
+         * bytes that its mutants can share.</p>
          */
         @Override
         public void gc() {
             // Remove elements beyond "requested"
-            values = new ArrayList<>(values.subList(0, requested));
-            values.trimToSize();
+            size = requested;
 
             // Inputs should not be empty, otherwise mutations don't work
-            if (values.isEmpty()) {
+            if (size == 0) {
                 throw new IllegalArgumentException("Input is either empty or nothing was requested from the input generator.");
             }
+
+            if (shared || patchCount > 0 || values.length != size) {
+                // Patches beyond the end were never requested
+                while (patchCount > 0 && patchOffsets[patchCount - 1] >= size) {
+                    patchCount--;
+                }
+                unshare(size);
+            }
         }
 
         @Override
@@ -1250,7 +1651,7 @@ public class ZestGuidance implements Guidance {
             for (int mutation = 1; mutation <= numMutations; mutation++) {
 
                 // Select a random offset and size
-                int offset = random.nextInt(newInput.values.size());
+                int offset = random.nextInt(newInput.size);
                 int mutationSize = sampleGeometric(random, MEAN_MUTATION_SIZE);
 
                 // desc += String.format(":%d@%d", mutationSize, idx);
@@ -1258,13 +1659,13 @@ public class ZestGuidance implements Guidance {
                 // Mutate a contiguous set of bytes from offset
                 for (int i = offset; i < offset + mutationSize; i++) {
                     // Don't go past end of list
-                    if (i >= newInput.values.size()) {
+                    if (i >= newInput.size) {
                         break;
                     }
 
                     // Otherwise, apply a random mutation
                     int mutatedValue = setToZero ? 0 : random.nextInt(256);
-                    newInput.values.set(i, mutatedValue);
+                    newInput.set(i, mutatedValue);
                 }
             }
 
@@ -1273,7 +1674,30 @@ public class ZestGuidance implements Guidance {
 
         @Override
         public Iterator<Integer> iterator() {
-            return values.iterator();
+            return new Iterator<Integer>() {
+                int index = 0;
+                int patch = 0;
+
+                @Override
+                public boolean hasNext() {
+                    return index < size;
+                }
+
+                @Override
+                public Integer next() {
+                    if (index >= size) {
+                        throw new NoSuchElementException();
+                    }
+                    int value;
+                    if (patch < patchCount && patchOffsets[patch] == index) {
+                        value = patchValues[patch++];
+                    } else {
+                        value = values[index];
+                    }
+                    index++;
+                    return value & 0xFF;
+                }
+            };
         }
     }
 
@@ -1289,7 +1713,7 @@ public class ZestGuidance implements Guidance {
         }
 
         @Override
-        public int getOrGenerateFresh(Integer key, Random random) {
+        public int getOrGenerateFresh(int key, Random random) {
             int value;
             try {
                 value = in.read();
@@ -1299,14 +1723,14 @@ public class ZestGuidance implements Guidance {
             }
 
             // assert (key == values.size())
-            if (key != values.size() && value != -1) {
+            if (key != size && value != -1) {
                 throw new IllegalStateException(String.format("Bytes from seed out of order. " +
-                        "Size = %d, Key = %d", values.size(), key));
+                        "Size = %d, Key = %d", size, key));
             }
 
             if (value >= 0) {
                 requested++;
-                values.add(value);
+                append(value);
             }
 
             // If value is -1, then it is returned (as EOF) but not added to the list
@@ -168,6 +168,24 @@ public interface Guidance {
      */
     void handleResult(Result result, Throwable error) throws GuidanceException;
 
+    /**
+     * Handles the coverage recorded by inline probes during a trial.
+     *
+     * <p>When the application is instrumented with {@code janala.mode=inline},
+     * branches and call sites increment slots of a global array instead of
+     * emitting {@link TraceEvent}s. This method is invoked with that array
+     * once per trial, after the test method has been executed and before
+     * {@link #handleResult(Result, Throwable)}. The counts are reset before
+     * the next trial, so implementations must copy anything they need.</p>
+     *
+     * <p>The default implementation ignores inline coverage.</p>
+     *
+     * @param counts the hit count of each slot of the inline coverage map
+     */
+    default void handleInlineCoverage(int[] counts) {
+        // Do nothing
+    }
+
     /**
      * Returns a callback generator for a thread's event trace.
      *
@@ -183,12 +201,32 @@ public interface Guidance {
      * <p>This method is a supplier of event consumers. It is invoked
      * once per new application thread spawned during fuzzing.
      *
+     * <p>Events passed to the callback are re-used by the tracer once
+     * the callback returns, so callbacks must not retain references to them
+     * (see {@link TraceEvent}).
+     *
      * @param thread  the thread whose events to handle
      * @return            a callback that handles trace events generated by
      *                    that thread
      */
     Consumer<TraceEvent> generateCallBack(Thread thread);
 
+    /**
+     * Returns the kinds of trace events that this guidance handles.
+     *
+     * <p>The tracer does not generate events whose kind is not in
+     * the returned mask, which saves the cost of creating and
+     * dispatching events that the callback would ignore anyway.
+     * The mask is read once, before the fuzzing loop begins.
+     *
+     * <p>By default, all events are generated.
+     *
+     * @return a bitwise-or of the event kinds defined in {@link TraceEvent}
+     */
+    default int getTraceEventMask() {
+        return TraceEvent.ALL_EVENTS;
+    }
+
     // A utility method to create an input stream given a function that generates bytes when invoked
     static InputStream createInputStream(Supplier<Integer> inputByteSource) {
         return new InputStream() {
@@ -207,19 +245,42 @@ public interface Guidance {
      * Runs a test method with generated arguments as input.
      *
      * <p>By default, this method simply runs the test method using a JUnit
-     * {@link TrialRunner}. Guidances can override this method to customize
+     * {@link TrialRunner}.</p>
+     *
+     * @param testClass  the test class
+     * @param method     the test method within the test class
+     * @param args       the arguments to the test method (i.e., the test input)
+     *
+     * @throws Throwable any exception that may be thrown during test execution
+     * @deprecated Override {@link #run(TestClass, FrameworkMethod, TrialRunner, Object[])}
+     * instead, which reuses one runner for all trials. Guidances that still override
+     * this method are run through it, with a new runner for every trial.
+     */
+    @Deprecated
+    default void run(TestClass testClass, FrameworkMethod method, Object[] args) throws Throwable {
+        new TrialRunner(testClass.getJavaClass(), method, args).run();
+    }
+
+    /**
+     * Runs a test method with generated arguments as input.
+     *
+     * <p>By default, this method simply runs the test method using the given
+     * JUnit {@link TrialRunner}, which is created once per fuzzing session and
+     * reused for every input. Guidances can override this method to customize
      * how test execution should be performed once inputs are generated. For example,
      * a guidance that supports non-deterministic test code may wish to execute
      * multiple trials per generated input.</p>
      *
      * @param testClass  the test class
      * @param method     the test method within the test class
+     * @param runner     a runner for trials of the test method
      * @param args       the arguments to the test method (i.e., the test input)
      *
      * @throws Throwable any exception that may be thrown during test execution
      */
-    default void run(TestClass testClass, FrameworkMethod method, Object[] args) throws Throwable {
-        new TrialRunner(testClass.getJavaClass(), method, args).run();
+    default void run(TestClass testClass, FrameworkMethod method, TrialRunner runner,
+                     Object[] args) throws Throwable {
+        runner.run(args);
     }
 
 }
@@ -32,8 +32,6 @@ package edu.berkeley.cs.jqf.fuzz.guidance;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 import java.util.Random;
 
 
@@ -51,7 +49,7 @@ import java.util.Random;
  */
 public class StreamBackedRandom extends Random {
     private final InputStream inputStream;
-    private final ByteBuffer byteBuffer = ByteBuffer.allocate(4);
+    private final byte[] buffer = new byte[Long.BYTES];
     private int totalBytesRead = 0;
     private int leadingBytesToIgnore = 0;
 
@@ -67,9 +65,6 @@ public class StreamBackedRandom extends Random {
         super(0x5DEECE66DL);
         // Open the backing file source as a buffered input stream
         this.inputStream = source;
-        // Force encoding to little-endian so that we can read small ints
-        // by reading partially into the start of the buffer
-        byteBuffer.order(ByteOrder.LITTLE_ENDIAN);
     }
 
     /**
@@ -89,6 +84,63 @@ public class StreamBackedRandom extends Random {
         this.leadingBytesToIgnore = leadinBytesToIgnore;
     }
 
+    /**
+     * Reads up to 8 bytes from the backing source with a single bulk
+     * read, and returns them as a little-endian value.
+     *
+     * <p>Bytes that are still to be ignored count towards the requested
+     * bytes, but are not read, and so leave the high-order bytes zero.</p>
+     *
+     * @param bytes the number of bytes requested (0 to 8 inclusive)
+     * @return the bytes read, the first one in the lowest-order position
+     * @throws IllegalStateException  if EOF is reached before all bytes are read
+     */
+    private long read(int bytes) {
+        int maxBytesToRead = bytes;
+        if (this.leadingBytesToIgnore > 0) {
+            int bytesToIgnore = Math.min(maxBytesToRead, this.leadingBytesToIgnore);
+            this.leadingBytesToIgnore -= bytesToIgnore;
+            maxBytesToRead -= bytesToIgnore;
+        }
+        if (maxBytesToRead == 0) {
+            return 0;
+        }
+        readFully(buffer, 0, maxBytesToRead);
+
+        // Interpret the bytes read as a little-endian integer
+        long value = 0;
+        for (int i = 0; i < maxBytesToRead; i++) {
+            value |= (buffer[i] & 0xFFL) << (Byte.SIZE * i);
+        }
+        return value;
+    }
+
+    /**
+     * Reads bytes from the backing source into an array.
+     *
+     * <p>As the sources are generated inputs, a short read means that the
+     * input has run out, so it is not retried.</p>
+     *
+     * @throws IllegalStateException  if EOF is reached before all bytes are read
+     */
+    private void readFully(byte[] bytes, int offset, int length) {
+        int actualBytesRead;
+        try {
+            actualBytesRead = Math.max(inputStream.read(bytes, offset, length), 0);
+        } catch (IOException e) {
+            throw new GuidanceException(e);
+        }
+        totalBytesRead += actualBytesRead;
+
+        // If EOF was reached, throw an exception
+        if (actualBytesRead != length) {
+            String message = String.format("EOF reached; total bytes read = %d, " +
+                            "last read got %d of %d bytes",
+                    totalBytesRead, actualBytesRead, length);
+            throw new IllegalStateException(new EOFException(message));
+        }
+    }
+
     /**
      * Generates upto 32 bits of random data for internal use by the Random
      * class.
@@ -111,40 +163,8 @@ public class StreamBackedRandom extends Random {
             throw new IllegalArgumentException("Must read 1-32 bits at a time");
         }
 
-        // Zero out the byte buffer before reading from the source
-        byteBuffer.putInt(0, 0);
-
-        try {
-            // Read up to 4 bytes from the backing source
-            int maxBytesToRead = ((bits + 7) / 8);
-            assert(maxBytesToRead*8 >= bits && maxBytesToRead <= 4);
-
-            if (this.leadingBytesToIgnore > 0) {
-                int bytesToIgnore = Math.min(maxBytesToRead, this.leadingBytesToIgnore);
-                this.leadingBytesToIgnore -= bytesToIgnore;
-                maxBytesToRead -= bytesToIgnore;
-            }
-
-            // If fewer bytes are read (because EOF is reached), the buffer
-            // just keeps containing zeros
-            int actualBytesRead = inputStream.read(byteBuffer.array(), 0, maxBytesToRead);
-            totalBytesRead += actualBytesRead;
-
-            // If EOF was reached, throw an exception
-            if (actualBytesRead != maxBytesToRead) {
-                String message = String.format("EOF reached; total bytes read = %d, " +
-                                "last read got %d of %d bytes",
-                        totalBytesRead, actualBytesRead, maxBytesToRead);
-                throw new IllegalStateException(new EOFException(message));
-
-            }
-
-        } catch (IOException e) {
-            throw new GuidanceException(e);
-        }
-
-        // Interpret the bytes read as an integer
-        int value = byteBuffer.getInt(0);
+        // Read up to 4 bytes from the backing source
+        int value = (int) read((bits + 7) / 8);
 
         // Return only the lower order bits as requested
         int mask = bits < 32 ? (1 << bits) - 1 : -1;
@@ -152,6 +172,17 @@ public class StreamBackedRandom extends Random {
 
     }
 
+    /*
+     * The methods below return the same values, and consume the same bytes,
+     * as the implementations in Random that call next() once or twice, but
+     * read all their bytes at once.
+     */
+
+    @Override
+    public int nextInt() {
+        return (int) read(Integer.BYTES);
+    }
+
     @Override
     public int nextInt(int bound) {
         if (bound <= 0)
@@ -159,6 +190,56 @@ public class StreamBackedRandom extends Random {
         return next(31) % bound;
     }
 
+    @Override
+    public long nextLong() {
+        if (leadingBytesToIgnore > 0) {
+            return super.nextLong();
+        }
+        // Same as ((long) next(32) << 32) + next(32)
+        long bytes = read(Long.BYTES);
+        return ((long) (int) bytes << 32) + (int) (bytes >>> 32);
+    }
+
+    @Override
+    public boolean nextBoolean() {
+        return (read(1) & 1) != 0;
+    }
+
+    @Override
+    public float nextFloat() {
+        return (int) read(3) / ((float) (1 << 24));
+    }
+
+    @Override
+    public double nextDouble() {
+        if (leadingBytesToIgnore > 0) {
+            return super.nextDouble();
+        }
+        // Same as (((long) next(26) << 27) + next(27)) * 0x1.0p-53
+        long bytes = read(Long.BYTES);
+        long high = bytes & ((1 << 26) - 1);
+        long low = (bytes >>> 32) & ((1 << 27) - 1);
+        return ((high << 27) + low) * 0x1.0p-53;
+    }
+
+    @Override
+    public void nextBytes(byte[] bytes) {
+        if (leadingBytesToIgnore > 0) {
+            super.nextBytes(bytes);
+            return;
+        }
+        // Random fills each group of four bytes from one nextInt(), lowest-order
+        // byte first, so whole groups are just the bytes of the source
+        int whole = bytes.length - bytes.length % Integer.BYTES;
+        readFully(bytes, 0, whole);
+        if (whole < bytes.length) {
+            int rnd = nextInt();
+            for (int i = whole; i < bytes.length; i++, rnd >>= Byte.SIZE) {
+                bytes[i] = (byte) rnd;
+            }
+        }
+    }
+
     public byte nextByte() {
         return (byte) next(Byte.SIZE);
     }
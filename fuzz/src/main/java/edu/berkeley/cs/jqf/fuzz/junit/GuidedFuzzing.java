@@ -189,6 +189,7 @@ public class GuidedFuzzing {
 
             // Register callback
             SingleSnoop.setCallbackGenerator(guidance::generateCallBack);
+            SingleSnoop.setEventMask(guidance.getTraceEventMask());
 
             // Create a JUnit Request
             Request testRequest = Request.method(testClass, testMethod);
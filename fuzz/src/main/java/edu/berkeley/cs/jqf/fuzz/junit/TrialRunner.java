@@ -28,22 +28,99 @@
  */
 package edu.berkeley.cs.jqf.fuzz.junit;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 import java.util.List;
 
 import edu.berkeley.cs.jqf.fuzz.Fuzz;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
 import org.junit.runners.BlockJUnit4ClassRunner;
 import org.junit.runners.model.FrameworkMethod;
 import org.junit.runners.model.InitializationError;
 import org.junit.runners.model.Statement;
+import org.junit.runners.model.TestClass;
 
+/**
+ * Runs a single fuzz test method with given arguments.
+ *
+ * <p>A runner can be reused for many trials of the same method with
+ * {@link #run(Object[])}, so that the test class is validated, and its
+ * annotations scanned, only once. The test method is invoked through a
+ * method handle bound ahead of time. If the test class has no
+ * {@code @Before}, {@code @After} or {@code @Rule} members, a trial just
+ * creates the test object and invokes the method, without building the
+ * JUnit statement chain.</p>
+ */
 public class TrialRunner extends BlockJUnit4ClassRunner {
     private final FrameworkMethod method;
-    protected final Object[] args;
+    protected Object[] args;
+
+    /** Invokes the test method with a test object and an argument array, or null to use reflection. */
+    private final MethodHandle invoker;
+
+    /** Creates a test object, or null if trials need the JUnit statement chain. */
+    private final MethodHandle constructor;
 
     public TrialRunner(Class<?> testClass, FrameworkMethod method, Object[] args) throws InitializationError {
         super(testClass);
         this.method = method;
         this.args = args;
+        this.invoker = bindInvoker(method.getMethod());
+        this.constructor = bindConstructor();
+    }
+
+    /**
+     * Creates a runner for trials of a test method, whose arguments
+     * are passed to {@link #run(Object[])}.
+     *
+     * @param testClass the test class
+     * @param method the test method within the test class
+     * @throws InitializationError if the test class is malformed
+     */
+    public TrialRunner(TestClass testClass, FrameworkMethod method) throws InitializationError {
+        super(testClass);
+        this.method = method;
+        this.invoker = bindInvoker(method.getMethod());
+        this.constructor = bindConstructor();
+    }
+
+    private static MethodHandle bindInvoker(Method method) {
+        if (Modifier.isStatic(method.getModifiers())) {
+            return null;
+        }
+        try {
+            return MethodHandles.publicLookup().unreflect(method)
+                    .asSpreader(Object[].class, method.getParameterCount())
+                    .asType(MethodType.methodType(void.class, Object.class, Object[].class));
+        } catch (IllegalAccessException e) {
+            return null;
+        }
+    }
+
+    private MethodHandle bindConstructor() {
+        TestClass testClass = getTestClass();
+        if (!testClass.getAnnotatedMethods(Before.class).isEmpty() ||
+                !testClass.getAnnotatedMethods(After.class).isEmpty() ||
+                !testClass.getAnnotatedMethods(Rule.class).isEmpty() ||
+                !testClass.getAnnotatedFields(Rule.class).isEmpty()) {
+            return null;
+        }
+        Constructor<?> ctor = testClass.getOnlyConstructor();
+        if (ctor.getParameterCount() != 0) {
+            return null;
+        }
+        try {
+            return MethodHandles.publicLookup().unreflectConstructor(ctor)
+                    .asType(MethodType.methodType(Object.class));
+        } catch (IllegalAccessException e) {
+            return null;
+        }
     }
 
     @Override protected List<FrameworkMethod> computeTestMethods() {
@@ -56,15 +133,41 @@ public class TrialRunner extends BlockJUnit4ClassRunner {
         assert(this.method == frameworkMethod);
         return new Statement() {
             @Override public void evaluate() throws Throwable {
-                frameworkMethod.invokeExplosively(test, args);
+                invoke(test);
             }
         };
     }
 
-    public void run() throws Throwable {
-        this.methodBlock(method).evaluate();
+    private void invoke(Object test) throws Throwable {
+        if (invoker != null) {
+            invoker.invokeExact(test, args);
+        } else {
+            method.invokeExplosively(test, args);
+        }
     }
 
+    public void run() throws Throwable {
+        if (constructor != null) {
+            Object test = (Object) constructor.invokeExact();
+            invoke(test);
+        } else {
+            this.methodBlock(method).evaluate();
+        }
+    }
 
+    /**
+     * Runs the test method with the given arguments.
+     *
+     * @param args the arguments to the test method
+     * @throws Throwable any exception thrown by the test
+     */
+    public void run(Object[] args) throws Throwable {
+        this.args = args;
+        try {
+            run();
+        } finally {
+            this.args = null;
+        }
+    }
 
 }
@@ -28,7 +28,11 @@
  */
 package edu.berkeley.cs.jqf.fuzz.junit.quickcheck;
 
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Random;
+import java.util.RandomAccess;
 
 import com.pholser.junit.quickcheck.internal.Ranges;
 import com.pholser.junit.quickcheck.internal.Ranges.Type;
@@ -46,6 +50,18 @@ import edu.berkeley.cs.jqf.fuzz.guidance.StreamBackedRandom;
  * and therefore is amenable to several optimizations, which are
  * implemented in this class.
  *
+ * <p>Each method reads a fixed number of bytes from the delegate for a
+ * given range, and avoids the boxing and {@link java.math.BigInteger}
+ * arithmetic of the generic implementations. Rejection sampling would
+ * read a variable number of bytes, so long ranges and int ranges wider
+ * than {@code Integer.MAX_VALUE} instead scale a draw that is at least
+ * 32 bits wider than the range: a 64-bit draw for up to 2<sup>32</sup>
+ * values and a 128-bit draw otherwise. The probability of each value
+ * then differs from uniform by a factor of at most 2<sup>-32</sup>.
+ * Narrower int, short, char and byte ranges are still reduced by
+ * remainder, so that saved inputs keep producing the same values;
+ * their bias grows with the size of the range.</p>
+ *
  * @author Rohan Padhye
  */
 public class FastSourceOfRandomness extends SourceOfRandomness {
@@ -100,13 +116,51 @@ public class FastSourceOfRandomness extends SourceOfRandomness {
 
     @Override
     public long nextLong(long min, long max) {
-        int comparison = Ranges.checkRange(Type.INTEGRAL, min, max);
+        if (min > max) {
+            Ranges.checkRange(Type.INTEGRAL, min, max); // Throws
+        }
 
         if (min == Long.MIN_VALUE && max == Long.MAX_VALUE) {
             return delegate.nextLong();
         }
 
-        return comparison == 0 ? min : Ranges.choose(this, min, max);
+        return min == max ? min : fastChooseLongInRange(min, max);
+    }
+
+    @Override
+    public double nextDouble(double min, double max) {
+        int comparison = Double.compare(min, max);
+        if (comparison > 0) {
+            Ranges.checkRange(Type.FLOAT, min, max); // Throws
+        }
+        return comparison == 0 ? min : min + (max - min) * delegate.nextDouble();
+    }
+
+    @Override
+    public float nextFloat(float min, float max) {
+        int comparison = Float.compare(min, max);
+        if (comparison > 0) {
+            Ranges.checkRange(Type.FLOAT, min, max); // Throws
+        }
+        return comparison == 0 ? min : min + (max - min) * delegate.nextFloat();
+    }
+
+    @Override
+    public <T> T choose(Collection<T> items) {
+        int size = items.size();
+        if (size == 0) {
+            throw new IllegalArgumentException("Collection is empty, can't pick an element from it");
+        }
+        if (items instanceof RandomAccess && items instanceof List) {
+            List<T> list = (List<T>) items;
+            return size == 1 ? list.get(0) : list.get(delegate.nextInt(size));
+        }
+        // Same choice as the generic implementation, without copying the items
+        Iterator<T> it = items.iterator();
+        for (int index = size == 1 ? 0 : delegate.nextInt(size); index > 0; index--) {
+            it.next();
+        }
+        return it.next();
     }
 
     private int fastChooseIntInRange(int min, int max) {
@@ -119,11 +173,38 @@ public class FastSourceOfRandomness extends SourceOfRandomness {
                 random += range;
             }
             return min + random;
-        } else {
+        } else if (min >= max) {
+            // A single value, or a bad range
             return (int) Ranges.choose(this, min, max);
+        } else {
+            // The range is wider than an int, but not than a long
+            long wideRange = (long) max - min + 1;
+            return (int) (min + scale(delegate.nextLong(), wideRange));
         }
     }
 
+    private long fastChooseLongInRange(long min, long max) {
+        // The number of values in the range, as an unsigned long (it is 0 only for the full range)
+        long range = max - min + 1;
+        if (Long.compareUnsigned(range, 1L << 32) <= 0) {
+            return min + scale(delegate.nextLong(), range);
+        }
+        // Scale a 128-bit draw, whose high half is read first
+        long high = delegate.nextLong();
+        long low = delegate.nextLong();
+        long middle = high * range;
+        long carry = Long.compareUnsigned(middle + scale(low, range), middle) < 0 ? 1 : 0;
+        return min + scale(high, range) + carry;
+    }
+
+    /**
+     * Maps a uniform 64-bit draw to {@code [0, range)}, by taking the high
+     * half of their unsigned 128-bit product.
+     */
+    private static long scale(long draw, long range) {
+        return Math.multiplyHigh(draw, range) + ((draw >> 63) & range) + ((range >> 63) & draw);
+    }
+
     private byte fastChooseByteInRange(byte min, byte max) {
         int range = max - min;
 
@@ -48,6 +48,7 @@ import edu.berkeley.cs.jqf.fuzz.guidance.Result;
 import edu.berkeley.cs.jqf.fuzz.guidance.StreamBackedRandom;
 import edu.berkeley.cs.jqf.fuzz.junit.TrialRunner;
 import edu.berkeley.cs.jqf.instrument.InstrumentationException;
+import edu.berkeley.cs.jqf.instrument.tracing.InlineCoverage;
 import org.junit.AssumptionViolatedException;
 import org.junit.runners.model.FrameworkMethod;
 import org.junit.runners.model.MultipleFailureException;
@@ -85,12 +86,27 @@ public class FuzzStatement extends Statement {
         this.guidance = fuzzGuidance;
     }
 
+    /**
+     * Returns whether a guidance still overrides the deprecated
+     * {@link Guidance#run(TestClass, FrameworkMethod, Object[])}, in which
+     * case trials must go through it.
+     */
+    private static boolean overridesLegacyRun(Guidance guidance) {
+        try {
+            return guidance.getClass().getMethod("run", TestClass.class, FrameworkMethod.class, Object[].class)
+                    .getDeclaringClass() != Guidance.class;
+        } catch (NoSuchMethodException e) {
+            throw new AssertionError("Guidance declares run()", e);
+        }
+    }
+
     /**
      * Run the test.
      *
      * @throws Throwable if the test fails
      */
     @Override
+    @SuppressWarnings("deprecation") // Guidances may still override the old run()
     public void evaluate() throws Throwable {
         // Construct generators for each parameter
         List<Generator<?>> generators = Arrays.stream(method.getMethod().getParameters())
@@ -98,6 +114,10 @@ public class FuzzStatement extends Statement {
                 .map(this::produceGenerator)
                 .collect(Collectors.toList());
 
+        // Validate the test class once, and reuse its runner for every trial
+        TrialRunner runner = new TrialRunner(testClass, method);
+        boolean legacyRun = overridesLegacyRun(guidance);
+
         // Keep fuzzing until no more input or I/O error with guidance
         try {
 
@@ -106,6 +126,11 @@ public class FuzzStatement extends Statement {
                 Result result = INVALID;
                 Throwable error = null;
 
+                // Discard coverage recorded by inline probes outside of this trial
+                if (InlineCoverage.isEnabled()) {
+                    InlineCoverage.reset();
+                }
+
                 // Initialize guided fuzzing using a file-backed random number source
                 try {
                     Object[] args;
@@ -141,7 +166,11 @@ public class FuzzStatement extends Statement {
                     }
 
                     // Attempt to run the trial
-                    guidance.run(testClass, method, args);
+                    if (legacyRun) {
+                        guidance.run(testClass, method, args);
+                    } else {
+                        guidance.run(testClass, method, runner, args);
+                    }
 
                     // If we reached here, then the trial must be a success
                     result = SUCCESS;
@@ -171,6 +200,9 @@ public class FuzzStatement extends Statement {
 
                 // Inform guidance about the outcome of this trial
                 try {
+                    if (InlineCoverage.isEnabled()) {
+                        guidance.handleInlineCoverage(InlineCoverage.getCounts());
+                    }
                     guidance.handleResult(result, error);
                 } catch (GuidanceException e) {
                     throw e; // Propagate
@@ -141,6 +141,21 @@ public class NoGuidance implements Guidance {
         return getCoverage()::handleEvent;
     }
 
+    @Override
+    public int getTraceEventMask() {
+        return TraceEvent.BRANCH_EVENTS | TraceEvent.CALL_EVENTS;
+    }
+
+    /**
+     * Updates coverage statistics with the counts of inline probes.
+     *
+     * @param counts the hit count of each slot of the inline coverage map
+     */
+    @Override
+    public void handleInlineCoverage(int[] counts) {
+        getCoverage().addCounts(counts);
+    }
+
     /**
      * Returns a reference to the coverage statistics.
      * @return a reference to the coverage statistics
@@ -340,6 +340,30 @@ public class ReproGuidance implements Guidance {
 
     }
 
+    // Logged traces need all events; coverage alone needs only branches and calls
+    @Override
+    public int getTraceEventMask() {
+        if (traceDir != null) {
+            return TraceEvent.ALL_EVENTS;
+        } else {
+            return TraceEvent.BRANCH_EVENTS | TraceEvent.CALL_EVENTS;
+        }
+    }
+
+    /**
+     * Updates the total coverage map with the counts of inline probes.
+     *
+     * <p>Each branch arm has a slot of its own, but the slots do not record
+     * the method and line of the branch, so inline coverage is not
+     * reflected in {@link #getBranchesCovered()}.</p>
+     *
+     * @param counts the hit count of each slot of the inline coverage map
+     */
+    @Override
+    public void handleInlineCoverage(int[] counts) {
+        coverage.addCounts(counts);
+    }
+
     /**
      * Returns a reference to the coverage statistics.
      * @return a reference to the coverage statistics
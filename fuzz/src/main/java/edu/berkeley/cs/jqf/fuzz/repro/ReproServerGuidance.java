@@ -118,4 +118,14 @@ public class ReproServerGuidance implements Guidance {
     public Consumer<TraceEvent> generateCallBack(Thread thread) {
         return coverage::handleEvent;
     }
+
+    @Override
+    public int getTraceEventMask() {
+        return TraceEvent.BRANCH_EVENTS | TraceEvent.CALL_EVENTS;
+    }
+
+    @Override
+    public void handleInlineCoverage(int[] counts) {
+        coverage.addCounts(counts);
+    }
 }
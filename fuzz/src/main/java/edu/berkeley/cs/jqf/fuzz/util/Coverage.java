@@ -28,39 +28,60 @@
  */
 package edu.berkeley.cs.jqf.fuzz.util;
 
-import java.io.IOException;
-import java.io.PrintWriter;
-
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.TreeSet;
 import java.util.Set;
-import java.util.stream.Collectors;
-
 
+import edu.berkeley.cs.jqf.instrument.tracing.TraceEventBatch;
 import edu.berkeley.cs.jqf.instrument.tracing.events.BranchEvent;
 import edu.berkeley.cs.jqf.instrument.tracing.events.CallEvent;
 import edu.berkeley.cs.jqf.instrument.tracing.events.TraceEvent;
 import edu.berkeley.cs.jqf.instrument.tracing.events.TraceEventVisitor;
+import janala.instrument.ProbeRegistry;
 
 /**
  * Utility class to collect branch and function coverage
  *
+ * <p>Coverage is indexed directly by probe ID, as allocated by the
+ * {@link ProbeRegistry}, so distinct probes never share a slot. The map
+ * grows as more classes are instrumented.</p>
+ *
+ * <p>Hit counts are 8-bit and saturate at 255. The map keeps a list of the
+ * slots with non-zero counts, so that merging, comparing and clearing maps
+ * only touch the slots that were hit, rather than the whole map.</p>
+ *
  * @author Rohan Padhye
  */
 public class Coverage implements TraceEventVisitor {
 
-    /** The size of the coverage map. */
-    private final int COVERAGE_MAP_SIZE = (1 << 16) - 1; // Minus one to reduce collisions
+    /** The largest count that a slot can hold. */
+    private static final int MAX_COUNT = 0xFF;
+
+    /** Reads eight counts at a time, to skip runs of empty slots. */
+    private static final VarHandle LANES =
+            MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    /** The unsigned, saturating coverage count of each edge, indexed by probe ID. */
+    private byte[] counts;
+
+    /** The slots with non-zero counts, in the order in which they were first hit. */
+    private int[] nonZeroIndices;
 
-    /** The coverage counts for each edge. */
-    private final Counter counter = new NonZeroCachingCounter(COVERAGE_MAP_SIZE);
+    /** The number of valid entries in {@link #nonZeroIndices}. */
+    private int nonZeroCount;
 
     private Set<String> coveredMethods = new TreeSet<String>();
 
     /** Creates a new coverage map. */
-    public Coverage() {}
+    public Coverage() {
+        this.counts = new byte[ProbeRegistry.size()];
+        this.nonZeroIndices = new int[64];
+    }
 
     /**
      * Creates a copy of an existing coverage map.
@@ -68,9 +89,37 @@ public class Coverage implements TraceEventVisitor {
      * @param that the coverage map to copy
      */
     public Coverage(Coverage that) {
-        for (int idx = 0; idx < COVERAGE_MAP_SIZE; idx++) {
-            this.counter.setAtIndex(idx, that.counter.getAtIndex(idx));
+        this.counts = that.counts.clone();
+        this.nonZeroIndices = Arrays.copyOf(that.nonZeroIndices, Math.max(that.nonZeroCount, 1));
+        this.nonZeroCount = that.nonZeroCount;
+    }
+
+    /** Creates a coverage map with the counts of a {@link CoverageSnapshot}. */
+    Coverage(int size, int[] indices, byte[] counts) {
+        this.counts = new byte[size];
+        this.nonZeroIndices = Arrays.copyOf(indices, Math.max(indices.length, 1));
+        this.nonZeroCount = indices.length;
+        for (int i = 0; i < indices.length; i++) {
+            this.counts[indices[i]] = counts[i];
+        }
+    }
+
+    /**
+     * Returns a sparse, immutable copy of the edge counts of this map.
+     *
+     * <p>Unlike {@link #Coverage(Coverage)}, the copy only takes space
+     * for the edges that are covered.</p>
+     *
+     * @return a snapshot of this map
+     */
+    public CoverageSnapshot snapshot() {
+        int[] indices = getCoveredIndices();
+        Arrays.sort(indices);
+        byte[] snapshotCounts = new byte[indices.length];
+        for (int i = 0; i < indices.length; i++) {
+            snapshotCounts[i] = counts[indices[i]];
         }
+        return new CoverageSnapshot(counts.length, indices, snapshotCounts);
     }
 
     /**
@@ -79,7 +128,57 @@ public class Coverage implements TraceEventVisitor {
      * @return the size of the coverage map
      */
     public int size() {
-        return COVERAGE_MAP_SIZE;
+        return counts.length;
+    }
+
+    /**
+     * Returns the count at a given index of the coverage map. For a map that
+     * accumulates coverage via {@link #updateBits(Coverage)}, this is the set
+     * of hit-count buckets that have been seen for that index.
+     *
+     * @param idx the index of the coverage map
+     * @return the count at that index, or 0 if the map does not hold it
+     */
+    public int getAtIndex(int idx) {
+        return idx < counts.length ? counts[idx] & MAX_COUNT : 0;
+    }
+
+    /**
+     * Returns the slot of a probe, growing the map if needed.
+     *
+     * <p>Negative IDs are used by events that do not correspond to an
+     * instrumented instruction; these share the reserved slot 0.</p>
+     */
+    private int slot(int probeId) {
+        if (probeId < 0) {
+            return 0;
+        }
+        if (probeId >= counts.length) {
+            grow(Math.max(probeId + 1, ProbeRegistry.size()));
+        }
+        return probeId;
+    }
+
+    private void grow(int size) {
+        if (size > counts.length) {
+            counts = Arrays.copyOf(counts, size);
+        }
+    }
+
+    /** Adds a positive delta to the count of a slot, saturating at {@link #MAX_COUNT}. */
+    private void increment(int slot, int delta) {
+        int before = counts[slot] & MAX_COUNT;
+        if (before == 0) {
+            addNonZero(slot);
+        }
+        counts[slot] = (byte) (delta >= MAX_COUNT - before ? MAX_COUNT : before + delta);
+    }
+
+    private void addNonZero(int slot) {
+        if (nonZeroCount == nonZeroIndices.length) {
+            nonZeroIndices = Arrays.copyOf(nonZeroIndices, nonZeroCount * 2);
+        }
+        nonZeroIndices[nonZeroCount++] = slot;
     }
 
     /**
@@ -96,24 +195,97 @@ public class Coverage implements TraceEventVisitor {
 
     @Override
     public void visitBranchEvent(BranchEvent b) {
-        counter.increment1(b.getIid(), b.getArm());
+        // Each arm of a branch has its own probe ID
+        increment(slot(b.getIid() + b.getArm()), 1);
     }
 
     @Override
     public void visitCallEvent(CallEvent e) {
-        counter.increment(e.getIid());
-        String methodName = e.getInvokedMethodName();
+        recordCall(e.getIid(), e.getInvokedMethodName());
+    }
+
+    private void recordCall(int iid, String methodName) {
+        increment(slot(iid), 1);
 
         if (methodName.startsWith("com/google/gson/")) coveredMethods.add(methodName);
     }
 
+    /**
+     * Updates coverage information based on a batch of events.
+     *
+     * <p>This is equivalent to calling {@link #handleEvent(TraceEvent)}
+     * for each event in the batch.</p>
+     *
+     * @param batch the events to be processed
+     */
+    public void handleBatch(TraceEventBatch batch) {
+        handleBatch(batch, 0);
+    }
+
+    /**
+     * Updates coverage information based on the events in a batch,
+     * starting at a given index.
+     *
+     * @param batch the events to be processed
+     * @param from the index of the first event to process
+     */
+    public void handleBatch(TraceEventBatch batch, int from) {
+        int size = batch.size();
+        for (int i = from; i < size; i++) {
+            switch (batch.getKind(i)) {
+                case TraceEventBatch.BRANCH:
+                    increment(slot(batch.getIid(i) + batch.getArm(i)), 1);
+                    break;
+                case TraceEventBatch.CALL:
+                    recordCall(batch.getIid(i), batch.getInvokedMethod(i).getQualifiedName());
+                    break;
+                default:
+                    // Returns do not contribute to coverage
+            }
+        }
+    }
+
+    /**
+     * Adds hit counts recorded by inline probes to this coverage map.
+     *
+     * <p>The inline coverage map is also indexed by probe ID, so
+     * counts are added index by index.</p>
+     *
+     * @param counts the hit count of each slot
+     */
+    public void addCounts(int[] counts) {
+        for (int idx = 0; idx < counts.length; idx++) {
+            if (counts[idx] != 0) {
+                increment(slot(idx), counts[idx]);
+            }
+        }
+    }
+
+    /**
+     * Adds the hit counts and covered methods of another coverage map to this one.
+     *
+     * <p>The hit counts are summed, so the result is the same as if all the
+     * events recorded in both maps had been recorded in this one, up to
+     * saturation.</p>
+     *
+     * @param that the coverage map to add
+     */
+    public void add(Coverage that) {
+        grow(that.counts.length);
+        for (int i = 0; i < that.nonZeroCount; i++) {
+            int idx = that.nonZeroIndices[i];
+            increment(idx, that.counts[idx] & MAX_COUNT);
+        }
+        coveredMethods.addAll(that.coveredMethods);
+    }
+
     /**
      * Returns the number of edges covered.
      *
      * @return the number of edges with non-zero counts
      */
     public int getNonZeroCount() {
-        return counter.getNonZeroSize();
+        return nonZeroCount;
     }
 
     /**
@@ -122,7 +294,21 @@ public class Coverage implements TraceEventVisitor {
      * @return a collection of keys that are covered
      */
     public Collection<Integer> getCovered() {
-        return counter.getNonZeroIndices();
+        Collection<Integer> covered = new ArrayList<>(nonZeroCount);
+        for (int i = 0; i < nonZeroCount; i++) {
+            covered.add(nonZeroIndices[i]);
+        }
+        return covered;
+    }
+
+    /**
+     * Returns the branches that are covered, in the order in which
+     * they were first hit.
+     *
+     * @return the indices with non-zero counts
+     */
+    public int[] getCoveredIndices() {
+        return Arrays.copyOf(nonZeroIndices, nonZeroCount);
     }
 
     public Set<String> getCoveredMethods() { return coveredMethods; }
@@ -135,59 +321,63 @@ public class Coverage implements TraceEventVisitor {
      */
     public Collection<?> computeNewCoverage(Coverage baseline) {
         Collection<Integer> newCoverage = new ArrayList<>();
-        for (int idx : this.counter.getNonZeroIndices()) {
-            if (baseline.counter.getAtIndex(idx) == 0) {
-                newCoverage.add(idx);
-            }
+        for (int idx : computeNewCoverageIndices(baseline)) {
+            newCoverage.add(idx);
         }
         return newCoverage;
+    }
 
+    /**
+     * Returns the edges in this coverage that don't exist in baseline.
+     *
+     * @param baseline the baseline coverage
+     * @return the indices that are covered here but not in {@code baseline}
+     */
+    public int[] computeNewCoverageIndices(Coverage baseline) {
+        int[] newCoverage = new int[nonZeroCount];
+        int newCount = 0;
+        for (int i = 0; i < nonZeroCount; i++) {
+            int idx = nonZeroIndices[i];
+            // The baseline may not have grown to hold probes that it has never seen
+            if (baseline.getAtIndex(idx) == 0) {
+                newCoverage[newCount++] = idx;
+            }
+        }
+        return newCount == newCoverage.length ? newCoverage : Arrays.copyOf(newCoverage, newCount);
     }
 
     /**
      * Clears the coverage map.
      */
     public void clear() {
-        this.counter.clear();
+        if (nonZeroCount > counts.length / Long.BYTES) {
+            Arrays.fill(counts, (byte) 0);
+        } else {
+            for (int i = 0; i < nonZeroCount; i++) {
+                counts[nonZeroIndices[i]] = 0;
+            }
+        }
+        this.nonZeroCount = 0;
         this.coveredMethods = new TreeSet<String>();
     }
 
-    private static int[] HOB_CACHE = new int[1024];
-
-    /* Computes the highest order bit */
-    private static int computeHob(int num)
-    {
-        if (num == 0)
-            return 0;
-
-        int ret = 1;
-
-        while ((num >>= 1) != 0)
-            ret <<= 1;
-
-        return ret;
-    }
+    /**
+     * The hit-count bucket of each count: its highest order bit. Counts
+     * of 128 or more share a bucket, as they do in AFL.
+     */
+    private static final byte[] BUCKETS = new byte[MAX_COUNT + 1];
 
-    /** Populates the HOB cache. */
     static {
-        for (int i = 0; i < HOB_CACHE.length; i++) {
-            HOB_CACHE[i] = computeHob(i);
-        }
-    }
-
-    /** Returns the highest order bit (perhaps using the cache) */
-    private static int hob(int num) {
-        if (num < HOB_CACHE.length) {
-            return HOB_CACHE[num];
-        } else {
-            return computeHob(num);
+        for (int count = 1; count <= MAX_COUNT; count++) {
+            BUCKETS[count] = (byte) Integer.highestOneBit(count);
         }
     }
 
-
     /**
      * Updates this coverage with bits from the parameter.
      *
+     * <p>Only the slots that {@code that} has hit are visited.</p>
+     *
      * @param that the run coverage whose bits to OR
      *
      * @return <code>true</code> iff <code>that</code> is not a subset
@@ -195,14 +385,18 @@ public class Coverage implements TraceEventVisitor {
      */
     public boolean updateBits(Coverage that) {
         boolean changed = false;
-        if (that.counter.hasNonZeros()) {
-            for (int idx = 0; idx < COVERAGE_MAP_SIZE; idx++) {
-                int before = this.counter.getAtIndex(idx);
-                int after = before | hob(that.counter.getAtIndex(idx));
-                if (after != before) {
-                    this.counter.setAtIndex(idx, after);
-                    changed = true;
+        grow(that.counts.length);
+        byte[] thatCounts = that.counts;
+        for (int i = 0; i < that.nonZeroCount; i++) {
+            int idx = that.nonZeroIndices[i];
+            int before = counts[idx] & MAX_COUNT;
+            int bucket = BUCKETS[thatCounts[idx] & MAX_COUNT] & MAX_COUNT;
+            if ((bucket & ~before) != 0) {
+                if (before == 0) {
+                    addNonZero(idx);
                 }
+                counts[idx] = (byte) (before | bucket);
+                changed = true;
             }
         }
         return changed;
@@ -215,7 +409,39 @@ public class Coverage implements TraceEventVisitor {
     /** Returns a hash code of the edge counts in the coverage map. */
     @Override
     public int hashCode() {
-        return Arrays.hashCode(counter.counts);
+        // Skip zero counts, so that the hash does not depend on how far the map has grown
+        int hash = 1;
+        for (int idx = nextNonZero(0); idx < counts.length; idx = nextNonZero(idx + 1)) {
+            hash = 31 * (31 * hash + idx) + (counts[idx] & MAX_COUNT);
+        }
+        return hash;
+    }
+
+    /**
+     * Returns the first index at or after {@code from} with a non-zero count,
+     * or the size of the map if there is none. Empty slots are skipped eight
+     * at a time.
+     */
+    private int nextNonZero(int from) {
+        int idx = from;
+        while (idx < counts.length && (idx & (Long.BYTES - 1)) != 0) {
+            if (counts[idx] != 0) {
+                return idx;
+            }
+            idx++;
+        }
+        int lastLane = counts.length - Long.BYTES;
+        while (idx <= lastLane) {
+            long lane = (long) LANES.get(counts, idx);
+            if (lane != 0) {
+                return idx + Long.numberOfTrailingZeros(lane) / Byte.SIZE;
+            }
+            idx += Long.BYTES;
+        }
+        while (idx < counts.length && counts[idx] == 0) {
+            idx++;
+        }
+        return idx;
     }
 
     /**
@@ -224,7 +450,12 @@ public class Coverage implements TraceEventVisitor {
      * @return a hash of non-zero entries
      */
     public int nonZeroHashCode() {
-        return counter.getNonZeroIndices().hashCode();
+        // The same as the hash code of a list of the indices
+        int hash = 1;
+        for (int i = 0; i < nonZeroCount; i++) {
+            hash = 31 * hash + nonZeroIndices[i];
+        }
+        return hash;
     }
 
     /**
@@ -234,13 +465,10 @@ public class Coverage implements TraceEventVisitor {
     public String toString() {
         StringBuffer sb = new StringBuffer();
         sb.append("Coverage counts: \n");
-        for (int i = 0; i < counter.counts.length; i++) {
-            if (counter.counts[i] == 0) {
-                continue;
-            }
+        for (int i = nextNonZero(0); i < counts.length; i = nextNonZero(i + 1)) {
             sb.append(i);
             sb.append("->");
-            sb.append(counter.counts[i]);
+            sb.append(counts[i] & MAX_COUNT);
             sb.append('\n');
         }
         return sb.toString();
@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2017-2018 The Regents of the University of California
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.cs.jqf.fuzz.util;
+
+import java.util.Arrays;
+
+/**
+ * An immutable, sparse copy of the edge counts of a {@link Coverage} map.
+ *
+ * <p>Only the covered indices are stored, in ascending order, along with
+ * their counts, so the memory used by a snapshot grows with the coverage
+ * that it records rather than with the size of the map. Covered methods
+ * are not part of a snapshot.</p>
+ */
+public final class CoverageSnapshot {
+
+    /** The size of the map that was copied. */
+    private final int size;
+
+    /** The covered indices, in ascending order. */
+    private final int[] indices;
+
+    /** The count of each covered index. */
+    private final byte[] counts;
+
+    CoverageSnapshot(int size, int[] indices, byte[] counts) {
+        this.size = size;
+        this.indices = indices;
+        this.counts = counts;
+    }
+
+    /**
+     * Returns the number of edges covered.
+     *
+     * @return the number of edges with non-zero counts
+     */
+    public int getNonZeroCount() {
+        return indices.length;
+    }
+
+    /**
+     * Returns the count at a given index of the coverage map.
+     *
+     * @param idx the index of the coverage map
+     * @return the count at that index, or 0 if it was not covered
+     */
+    public int getAtIndex(int idx) {
+        int pos = Arrays.binarySearch(indices, idx);
+        return pos >= 0 ? counts[pos] & 0xFF : 0;
+    }
+
+    /**
+     * Returns the covered indices.
+     *
+     * @return the indices with non-zero counts, in ascending order
+     */
+    public int[] getCoveredIndices() {
+        return indices.clone();
+    }
+
+    /**
+     * Expands this snapshot into a dense coverage map.
+     *
+     * @return a new coverage map with the counts of this snapshot
+     */
+    public Coverage toCoverage() {
+        return new Coverage(size, indices, counts);
+    }
+
+    /**
+     * Returns a hash code of the edge counts, which is the same as the
+     * hash code of the coverage map that was copied.
+     */
+    @Override
+    public int hashCode() {
+        int hash = 1;
+        for (int i = 0; i < indices.length; i++) {
+            hash = 31 * (31 * hash + indices[i]) + (counts[i] & 0xFF);
+        }
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof CoverageSnapshot)) {
+            return false;
+        }
+        CoverageSnapshot that = (CoverageSnapshot) obj;
+        return Arrays.equals(indices, that.indices) && Arrays.equals(counts, that.counts);
+    }
+}
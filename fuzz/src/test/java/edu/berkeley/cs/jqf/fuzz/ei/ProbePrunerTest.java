@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2017-2018 The Regents of the University of California
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.cs.jqf.fuzz.ei;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+import edu.berkeley.cs.jqf.fuzz.util.Coverage;
+import edu.berkeley.cs.jqf.instrument.tracing.SwitchableProbes;
+import janala.instrument.ProbeRegistry;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class ProbePrunerTest {
+
+    public static void probe(int iid, int lineNumber, int arm) {
+        // Do nothing
+    }
+
+    /** Links all arms of a branch, as if each of them had been executed. */
+    private static void linkBranch(int iid, int minArm, int maxArm) throws ReflectiveOperationException {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        MethodType probeType = MethodType.methodType(void.class, int.class, int.class, int.class);
+        MethodHandle probe = lookup.findStatic(ProbePrunerTest.class, "probe", probeType);
+        for (int arm = minArm; arm <= maxArm; arm++) {
+            SwitchableProbes.bootstrap(lookup, "BRANCH", MethodType.methodType(void.class),
+                    probe, iid, 1, arm, minArm, maxArm);
+        }
+    }
+
+    private static Coverage coverageOf(int... slots) {
+        int[] counts = new int[slots[slots.length - 1] + 1];
+        for (int slot : slots) {
+            counts[slot]++;
+        }
+        Coverage run = new Coverage();
+        run.addCounts(counts);
+        Coverage total = new Coverage();
+        total.updateBits(run);
+        return total;
+    }
+
+    @Test
+    public void saturatedBranchesArePruned() throws ReflectiveOperationException {
+        int branch = ProbeRegistry.allocate(2);
+        // A switch owns the slot below its ID, for the default arm
+        int tableSwitch = ProbeRegistry.allocate(3) + 1;
+        linkBranch(branch, 0, 1);
+        linkBranch(tableSwitch, -1, 1);
+
+        // Both arms of the branch are covered, but one arm of the switch is not
+        Coverage total = coverageOf(branch, branch + 1, tableSwitch - 1, tableSwitch);
+        ProbePruner pruner = new ProbePruner(false);
+
+        // Hit counts must be stable across two passes
+        Assert.assertEquals(0, pruner.prune(total, null));
+        Assert.assertEquals(2, pruner.prune(total, null));
+        Assert.assertTrue(SwitchableProbes.isDisabled(branch));
+        Assert.assertTrue(SwitchableProbes.isDisabled(branch + 1));
+        Assert.assertFalse(SwitchableProbes.isDisabled(tableSwitch - 1));
+        Assert.assertFalse(SwitchableProbes.isDisabled(tableSwitch));
+        Assert.assertEquals(2, pruner.getNumPruned());
+    }
+
+    @Test
+    public void branchesMustBeCoveredByValidInputs() throws ReflectiveOperationException {
+        int branch = ProbeRegistry.allocate(2);
+        linkBranch(branch, 0, 1);
+
+        Coverage total = coverageOf(branch, branch + 1);
+        Coverage valid = coverageOf(branch);
+        ProbePruner pruner = new ProbePruner(true);
+
+        Assert.assertEquals(0, pruner.prune(total, valid));
+        Assert.assertFalse(SwitchableProbes.isDisabled(branch));
+        Assert.assertEquals(2, pruner.prune(total, total));
+        Assert.assertTrue(SwitchableProbes.isDisabled(branch + 1));
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2017-2018 The Regents of the University of California
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.cs.jqf.fuzz.ei;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.function.Consumer;
+
+import edu.berkeley.cs.jqf.fuzz.guidance.Result;
+import edu.berkeley.cs.jqf.fuzz.guidance.StreamBackedRandom;
+import edu.berkeley.cs.jqf.instrument.tracing.events.BranchEvent;
+import edu.berkeley.cs.jqf.instrument.tracing.events.TraceEvent;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import static org.junit.Assert.*;
+
+@RunWith(JUnit4.class)
+public class ZestGuidanceTest {
+
+    private ZestGuidance g;
+    private Consumer<TraceEvent> callback;
+
+    @Before
+    public void createGuidanceInstance() throws IOException {
+        System.setProperty("jqf.ei.STEAL_RESPONSIBILITY", "true");
+        g = new ZestGuidance("test", null, null, Files.createTempDirectory("fuzz-out").toFile(), new Random(42));
+        callback = g.generateCallBack(Thread.currentThread());
+    }
+
+    @After
+    public void clearProperties() {
+        System.clearProperty("jqf.ei.STEAL_RESPONSIBILITY");
+        System.clearProperty("jqf.ei.MAX_INPUT_SIZE");
+    }
+
+    private void run(int... branches) throws IOException {
+        InputStream in = g.getInput();
+        in.read();
+        for (int iid : branches) {
+            callback.accept(new BranchEvent(iid, null, 0, 0));
+        }
+        g.handleResult(Result.SUCCESS, null);
+    }
+
+    @Test
+    public void stealsFromInputsWhoseKeysAreAllCovered() throws IOException {
+        run(10, 30);
+        run(10, 20);
+        assertEquals(2, g.savedInputs.size());
+        ZestGuidance.Input first = g.savedInputs.get(0);
+        ZestGuidance.Input second = g.savedInputs.get(1);
+        // The second input covers only one of the keys of the first
+        assertEquals(2, first.responsibleFor);
+        assertEquals(1, second.responsibleFor);
+
+        // Only inputs with new coverage are saved
+        run(10, 20, 30, 40);
+        ZestGuidance.Input third = g.savedInputs.get(2);
+        assertFalse(first.isFavored());
+        assertFalse(second.isFavored());
+        assertEquals(4, third.responsibleFor);
+        assertSame(third, g.getResponsibleInput(10));
+        assertSame(third, g.getResponsibleInput(30));
+    }
+
+    private static int[] bytesOf(ZestGuidance.Input<?> input) {
+        int[] bytes = new int[input.size()];
+        int i = 0;
+        for (int b : input) {
+            bytes[i++] = b;
+        }
+        return bytes;
+    }
+
+    @Test
+    public void mutantsShareTheBytesOfTheirParent() {
+        Random random = new Random(42);
+        ZestGuidance.LinearInput parent = g.new LinearInput();
+        for (int i = 0; i < 100; i++) {
+            parent.getOrGenerateFresh(i, random);
+        }
+        parent.gc();
+        int[] parentBytes = bytesOf(parent);
+
+        ZestGuidance.LinearInput child = (ZestGuidance.LinearInput) parent.fuzz(random);
+        assertSame(parent.values, child.values);
+        assertEquals(parent.size(), child.size());
+        assertArrayEquals(parentBytes, bytesOf(parent));
+
+        // Reads see the mutated bytes
+        int[] childBytes = bytesOf(child);
+        assertFalse(Arrays.equals(parentBytes, childBytes));
+        for (int i = 0; i < child.size(); i++) {
+            assertEquals(childBytes[i], child.getOrGenerateFresh(i, random));
+        }
+
+        // Growing the child does not affect the parent
+        int fresh = child.getOrGenerateFresh(child.size(), random);
+        assertEquals(101, child.size());
+        assertEquals(fresh, bytesOf(child)[100]);
+        assertArrayEquals(parentBytes, bytesOf(parent));
+
+        // Trimming keeps the requested bytes
+        child.gc();
+        assertEquals(101, child.size());
+        assertArrayEquals(Arrays.copyOf(childBytes, 100), Arrays.copyOf(bytesOf(child), 100));
+    }
+
+    private static void assertEndOfInput(StreamBackedRandom random) {
+        try {
+            random.nextInt();
+            fail("Expected the input to run out");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getCause() instanceof EOFException);
+        }
+    }
+
+    @Test
+    public void valuesStraddlingTheSizeLimitReachEndOfInput() throws IOException {
+        System.setProperty("jqf.ei.MAX_INPUT_SIZE", "6");
+        g = new ZestGuidance("test", null, null, Files.createTempDirectory("fuzz-out").toFile(), new Random(42));
+        StreamBackedRandom random = new StreamBackedRandom(g.getInput());
+        random.nextInt();
+
+        // Only two of the four bytes of the second int are left
+        assertEndOfInput(random);
+        // Reading again still reports the end of the input
+        assertEndOfInput(random);
+        assertEquals(6, g.currentInput.size());
+    }
+}
@@ -28,6 +28,8 @@
  */
 package edu.berkeley.cs.jqf.fuzz.guidance;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.function.Consumer;
 
 import edu.berkeley.cs.jqf.fuzz.random.NoGuidance;
@@ -40,6 +42,8 @@ import org.junit.Assume;
 import org.junit.AssumptionViolatedException;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.junit.runners.model.FrameworkMethod;
+import org.junit.runners.model.TestClass;
 import org.mockito.ArgumentMatchers;
 import org.mockito.Mock;
 import org.mockito.Mockito;
@@ -134,4 +138,18 @@ public class GuidanceTest {
                 ArgumentMatchers.isA(RuntimeException.class));
     }
 
+    @Test
+    public void testLegacyRunOverride() {
+        List<Object[]> trials = new ArrayList<>();
+        Guidance legacy = new NoGuidance(2, null) {
+            @SuppressWarnings("deprecation")
+            public void run(TestClass testClass, FrameworkMethod method, Object[] args) throws Throwable {
+                trials.add(args);
+                super.run(testClass, method, args);
+            }
+        };
+        GuidedFuzzing.run(GuidanceTestFuzzer.class, "success", legacy, null);
+        Assert.assertEquals(2, trials.size());
+    }
+
 }
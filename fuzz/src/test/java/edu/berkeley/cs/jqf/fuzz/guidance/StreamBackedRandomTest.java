@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2017-2018 The Regents of the University of California
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.cs.jqf.fuzz.guidance;
+
+import java.io.ByteArrayInputStream;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class StreamBackedRandomTest {
+
+    private static final int SIZE = 4096;
+
+    private static byte[] randomBytes() {
+        byte[] bytes = new byte[SIZE];
+        new Random(42).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static StreamBackedRandom random(byte[] bytes, int ignore) {
+        return new StreamBackedRandom(new ByteArrayInputStream(bytes), ignore);
+    }
+
+    @Test
+    public void fastPathsMatchRandom() {
+        for (int ignore : new int[] { 0, 3, 8 }) {
+            byte[] bytes = randomBytes();
+            StreamBackedRandom fast = random(bytes, ignore);
+            StreamBackedRandom reference = random(bytes, ignore);
+            for (int i = 0; i < SIZE / 64; i++) {
+                // The same definitions as in java.util.Random, in terms of next()
+                Assert.assertEquals(reference.next(32), fast.nextInt());
+                Assert.assertEquals(((long) reference.next(32) << 32) + reference.next(32), fast.nextLong());
+                Assert.assertEquals(reference.next(1) != 0, fast.nextBoolean());
+                Assert.assertEquals(reference.next(24) / ((float) (1 << 24)), fast.nextFloat(), 0);
+                Assert.assertEquals((((long) reference.next(26) << 27) + reference.next(27)) * 0x1.0p-53,
+                        fast.nextDouble(), 0);
+                Assert.assertEquals(reference.getTotalBytesRead(), fast.getTotalBytesRead());
+            }
+        }
+    }
+
+    @Test
+    public void readsLittleEndianBytes() {
+        StreamBackedRandom random = random(new byte[] { 1, 2, 3, 4, 5 }, 0);
+        Assert.assertEquals(0x04030201, random.nextInt());
+        Assert.assertEquals(5, random.nextByte());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void throwsAtEndOfStream() {
+        StreamBackedRandom random = random(new byte[] { 1, 2, 3, 4, 5 }, 0);
+        random.nextLong();
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2017-2018 The Regents of the University of California
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.cs.jqf.fuzz.junit;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import edu.berkeley.cs.jqf.fuzz.Fuzz;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.junit.runners.model.FrameworkMethod;
+import org.junit.runners.model.TestClass;
+
+@RunWith(JUnit4.class)
+public class TrialRunnerTest {
+
+    private static final List<String> events = new ArrayList<>();
+    private static final List<Object> instances = new ArrayList<>();
+
+    public static class Plain {
+        @Fuzz
+        public void test(int x, String s) {
+            if (x < 0) {
+                throw new IllegalStateException(s);
+            }
+            events.add("test " + x + " " + s);
+            instances.add(this);
+        }
+    }
+
+    public static class WithBefore {
+        @Before
+        public void setUp() {
+            events.add("before");
+        }
+
+        @Fuzz
+        public void test(int x) {
+            events.add("test " + x);
+            instances.add(this);
+        }
+    }
+
+    private static TrialRunner runnerFor(Class<?> clazz) throws Exception {
+        TestClass testClass = new TestClass(clazz);
+        FrameworkMethod method = testClass.getAnnotatedMethods(Fuzz.class).get(0);
+        return new TrialRunner(testClass, method);
+    }
+
+    @Test
+    public void runsEachTrialWithItsOwnArguments() throws Throwable {
+        events.clear();
+        TrialRunner runner = runnerFor(Plain.class);
+        runner.run(new Object[] { 1, "a" });
+        runner.run(new Object[] { 2, "b" });
+        Assert.assertEquals(Arrays.asList("test 1 a", "test 2 b"), events);
+    }
+
+    @Test
+    public void propagatesExceptionsUnwrapped() throws Throwable {
+        TrialRunner runner = runnerFor(Plain.class);
+        try {
+            runner.run(new Object[] { -1, "boom" });
+            Assert.fail("Expected an exception");
+        } catch (IllegalStateException e) {
+            Assert.assertEquals("boom", e.getMessage());
+        }
+    }
+
+    @Test
+    public void runsBeforeMethodsOnEveryTrial() throws Throwable {
+        events.clear();
+        TrialRunner runner = runnerFor(WithBefore.class);
+        runner.run(new Object[] { 1 });
+        runner.run(new Object[] { 2 });
+        Assert.assertEquals(Arrays.asList("before", "test 1", "before", "test 2"), events);
+    }
+
+    private static void assertFreshInstances(Class<?> clazz, Object[] args) throws Throwable {
+        instances.clear();
+        TrialRunner runner = runnerFor(clazz);
+        runner.run(args);
+        runner.run(args);
+        Assert.assertEquals(2, instances.size());
+        Assert.assertNotSame(instances.get(0), instances.get(1));
+    }
+
+    @Test
+    public void createsTestObjectForEveryTrial() throws Throwable {
+        assertFreshInstances(Plain.class, new Object[] { 1, "a" });
+        assertFreshInstances(WithBefore.class, new Object[] { 1 });
+    }
+}
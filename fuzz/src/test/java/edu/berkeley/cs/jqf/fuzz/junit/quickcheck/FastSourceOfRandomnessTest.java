@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2017-2018 The Regents of the University of California
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.cs.jqf.fuzz.junit.quickcheck;
+
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import com.pholser.junit.quickcheck.random.SourceOfRandomness;
+import edu.berkeley.cs.jqf.fuzz.guidance.StreamBackedRandom;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class FastSourceOfRandomnessTest {
+
+    private static byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static StreamBackedRandom stream(byte[] bytes) {
+        // As in FuzzStatement, the seed read by SourceOfRandomness is ignored
+        return new StreamBackedRandom(new ByteArrayInputStream(bytes), Long.BYTES);
+    }
+
+    @Test
+    public void fastPathsMatchSourceOfRandomness() {
+        byte[] bytes = randomBytes(4096);
+        StreamBackedRandom fastStream = stream(bytes);
+        StreamBackedRandom referenceStream = stream(bytes);
+        SourceOfRandomness fast = new FastSourceOfRandomness(fastStream);
+        SourceOfRandomness reference = new SourceOfRandomness(referenceStream);
+
+        List<String> list = Arrays.asList("a", "b", "c", "d", "e");
+        Set<String> set = new LinkedHashSet<>(list);
+        for (int i = 0; i < 32; i++) {
+            Assert.assertEquals(reference.nextBoolean(), fast.nextBoolean());
+            Assert.assertEquals(reference.nextDouble(-3.5, 12.0), fast.nextDouble(-3.5, 12.0), 0);
+            Assert.assertEquals(reference.nextFloat(1f, 2f), fast.nextFloat(1f, 2f), 0);
+            Assert.assertEquals(reference.choose(list), fast.choose(list));
+            Assert.assertEquals(reference.choose(set), fast.choose(set));
+            Assert.assertArrayEquals(reference.nextBytes(i), fast.nextBytes(i));
+            Assert.assertEquals(reference.nextBigInteger(70), fast.nextBigInteger(70));
+            Assert.assertEquals(referenceStream.getTotalBytesRead(), fastStream.getTotalBytesRead());
+        }
+    }
+
+    @Test
+    public void nextBytesReadsTheSourceInOrder() {
+        byte[] bytes = randomBytes(16);
+        SourceOfRandomness fast = new FastSourceOfRandomness(stream(bytes));
+        Assert.assertArrayEquals(Arrays.copyOfRange(bytes, 0, 8), fast.nextBytes(8));
+        Assert.assertArrayEquals(Arrays.copyOfRange(bytes, 8, 10), fast.nextBytes(2));
+        // The rest of the last group of four bytes is skipped, as in Random.nextBytes
+        Assert.assertEquals(bytes[12], fast.nextByte(Byte.MIN_VALUE, Byte.MAX_VALUE));
+    }
+
+    @Test
+    public void rangesReadAFixedNumberOfBytes() {
+        byte[] bytes = randomBytes(64 * 4 * Long.BYTES);
+        StreamBackedRandom stream = stream(bytes);
+        SourceOfRandomness fast = new FastSourceOfRandomness(stream);
+        for (int i = 0; i < 64; i++) {
+            long l = fast.nextLong(-5, Long.MAX_VALUE);
+            Assert.assertTrue(l >= -5);
+            long small = fast.nextLong(10, 12);
+            Assert.assertTrue(small >= 10 && small <= 12);
+            int wide = fast.nextInt(-2, Integer.MAX_VALUE);
+            Assert.assertTrue(wide >= -2);
+            Assert.assertEquals(7, fast.nextLong(7, 7));
+        }
+        // Long ranges of more than 2^32 values read 128 bits, and wide int ranges read 64 bits
+        Assert.assertEquals(64 * (2 * Long.BYTES + Long.BYTES + Long.BYTES), stream.getTotalBytesRead());
+    }
+
+    @Test
+    public void wideRangesAreNotBiased() {
+        int samples = 3000;
+        SourceOfRandomness fast = new FastSourceOfRandomness(stream(randomBytes(samples * 3 * Long.BYTES)));
+
+        // Reducing by remainder would pick the first third of each range half of the time
+        int lowInts = 0;
+        int lowLongs = 0;
+        for (int i = 0; i < samples; i++) {
+            if (fast.nextInt(Integer.MIN_VALUE, (1 << 30) - 1) < Integer.MIN_VALUE + (1 << 30)) {
+                lowInts++;
+            }
+            if (fast.nextLong(Long.MIN_VALUE, (1L << 62) - 1) < Long.MIN_VALUE + (1L << 62)) {
+                lowLongs++;
+            }
+        }
+        Assert.assertEquals(samples / 3.0, lowInts, samples * 0.04);
+        Assert.assertEquals(samples / 3.0, lowLongs, samples * 0.04);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void badRangesAreRejected() {
+        new FastSourceOfRandomness(stream(new byte[0])).nextLong(2, 1);
+    }
+}
@@ -67,14 +67,14 @@ public class CoverageTest {
         Coverage c = new Coverage();
         c.handleEvent(callEvent(1));
         c.handleEvent(callEvent(2));
-        c.handleEvent(branchEvent(3, 2));
+        c.handleEvent(branchEvent(10, 2));
         c.handleEvent(returnEvent(1));
         c.handleEvent(returnEvent(3));
         c.handleEvent(readEvent(1));
         c.handleEvent(readEvent(4));
-        c.handleEvent(branchEvent(3, 1));
-        c.handleEvent(branchEvent(4, 0));
-        c.handleEvent(branchEvent(3, 2));
+        c.handleEvent(branchEvent(10, 1));
+        c.handleEvent(branchEvent(20, 0));
+        c.handleEvent(branchEvent(10, 2));
         c.handleEvent(callEvent(1));
         Assert.assertEquals(5, c.getNonZeroCount());
     }
@@ -84,7 +84,7 @@ public class CoverageTest {
         Coverage c1 = new Coverage();
         Coverage c2 = new Coverage();
         Coverage total = new Coverage();
-        TraceEvent[] baseEvents = { callEvent(1), callEvent(2), branchEvent(3, 1) };
+        TraceEvent[] baseEvents = { callEvent(1), callEvent(2), branchEvent(10, 1) };
         TraceEvent[] newEvents = { callEvent(4) };
 
         for (TraceEvent e : baseEvents) {
@@ -108,7 +108,7 @@ public class CoverageTest {
         Coverage c1 = new Coverage();
         Coverage c2 = new Coverage();
         Coverage total = new Coverage();
-        TraceEvent[] baseEvents = { callEvent(1), callEvent(1), callEvent(2), branchEvent(3, 1) };
+        TraceEvent[] baseEvents = { callEvent(1), callEvent(1), callEvent(2), branchEvent(10, 1) };
         TraceEvent[] newEvents = { callEvent(1) };
 
         for (TraceEvent e : baseEvents) {
@@ -133,7 +133,7 @@ public class CoverageTest {
         Coverage c1 = new Coverage();
         Coverage c2 = new Coverage();
         Coverage total = new Coverage();
-        TraceEvent[] baseEvents = { callEvent(1), callEvent(1), callEvent(1), callEvent(2), branchEvent(3, 1) };
+        TraceEvent[] baseEvents = { callEvent(1), callEvent(1), callEvent(1), callEvent(2), branchEvent(10, 1) };
         TraceEvent[] newEvents = { };
 
         for (TraceEvent e : baseEvents) {
@@ -159,7 +159,7 @@ public class CoverageTest {
         Coverage c1 = new Coverage();
         Coverage c2 = new Coverage();
         Coverage total = new Coverage();
-        TraceEvent[] baseEvents = { callEvent(1), callEvent(2), branchEvent(3, 1) };
+        TraceEvent[] baseEvents = { callEvent(1), callEvent(2), branchEvent(10, 1) };
         TraceEvent[] newEvents = { callEvent(1), callEvent(1) };
 
         for (TraceEvent e : baseEvents) {
@@ -177,4 +177,134 @@ public class CoverageTest {
         Assert.assertTrue(changed); // Because hob(3) and hob(1) are different
         Assert.assertEquals(c2.getNonZeroCount(), total.getNonZeroCount());
     }
+
+    @Test
+    public void testCoverageGrowsWithProbeIds() {
+        Coverage c = new Coverage();
+        c.handleEvent(callEvent(100_000));
+        c.handleEvent(branchEvent(100_001, 0));
+        c.handleEvent(branchEvent(100_001, 1));
+        c.handleEvent(callEvent(100_000 + 65535));
+        Assert.assertEquals(4, c.getNonZeroCount());
+        Assert.assertTrue(c.size() > 100_000 + 65535);
+
+        // Growing the map does not affect the hash of the counts
+        Coverage copy = new Coverage(c);
+        Coverage total = new Coverage();
+        total.updateBits(c);
+        Assert.assertEquals(c.hashCode(), copy.hashCode());
+        Assert.assertEquals(c.getNonZeroCount(), total.getNonZeroCount());
+    }
+
+    @Test
+    public void testNewCoverageAgainstSmallerBaseline() {
+        Coverage baseline = new Coverage();
+        baseline.handleEvent(callEvent(1));
+        Coverage c = new Coverage();
+        c.handleEvent(callEvent(1));
+        c.handleEvent(callEvent(baseline.size() + 100));
+        Assert.assertEquals(1, c.computeNewCoverage(baseline).size());
+    }
+
+    @Test
+    public void testAddInlineCounts() {
+        Coverage c = new Coverage();
+        int[] counts = new int[64];
+        counts[7] = 1;
+        counts[42] = 3;
+        c.addCounts(counts);
+        c.addCounts(counts);
+
+        Assert.assertEquals(2, c.getNonZeroCount());
+
+        Coverage total = new Coverage();
+        total.updateBits(c);
+        Coverage c2 = new Coverage();
+        c2.addCounts(counts);
+        Assert.assertTrue(total.updateBits(c2)); // Because hob(6) and hob(3) are different
+    }
+
+    @Test
+    public void testAddSumsCounts() {
+        Coverage shard1 = new Coverage();
+        shard1.handleEvent(branchEvent(10, 0));
+        shard1.handleEvent(callEvent(20));
+        Coverage shard2 = new Coverage();
+        shard2.handleEvent(branchEvent(10, 0));
+        shard2.handleEvent(branchEvent(10, 1));
+
+        Coverage merged = new Coverage();
+        merged.add(shard1);
+        merged.add(shard2);
+
+        Coverage single = new Coverage();
+        single.handleEvent(branchEvent(10, 0));
+        single.handleEvent(callEvent(20));
+        single.handleEvent(branchEvent(10, 0));
+        single.handleEvent(branchEvent(10, 1));
+
+        Assert.assertEquals(3, merged.getNonZeroCount());
+        Assert.assertEquals(single.hashCode(), merged.hashCode());
+    }
+
+    @Test
+    public void testCountsSaturate() {
+        Coverage c = new Coverage();
+        int[] counts = new int[64];
+        counts[5] = 200;
+        c.addCounts(counts);
+        c.addCounts(counts);
+        Assert.assertEquals(255, c.getAtIndex(5));
+
+        // Counts of 128 or more share a bucket
+        Coverage total = new Coverage();
+        total.updateBits(c);
+        Assert.assertEquals(128, total.getAtIndex(5));
+        Coverage c2 = new Coverage();
+        counts[5] = 130;
+        c2.addCounts(counts);
+        Assert.assertFalse(total.updateBits(c2));
+    }
+
+    @Test
+    public void testClearAndReuse() {
+        Coverage c = new Coverage();
+        c.handleEvent(callEvent(3));
+        c.handleEvent(branchEvent(10, 1));
+        Coverage copy = new Coverage(c);
+        c.clear();
+        Assert.assertEquals(0, c.getNonZeroCount());
+        Assert.assertEquals(0, c.getAtIndex(3));
+        Assert.assertEquals(new Coverage().hashCode(), c.hashCode());
+
+        c.handleEvent(branchEvent(10, 1));
+        c.handleEvent(callEvent(3));
+        Assert.assertEquals(copy.hashCode(), c.hashCode());
+
+        // Only the call is new with respect to a baseline that covers the branch
+        Coverage baseline = new Coverage();
+        baseline.handleEvent(branchEvent(10, 1));
+        Assert.assertArrayEquals(new int[] { 3 }, c.computeNewCoverageIndices(baseline));
+    }
+
+    @Test
+    public void testSnapshotIsSparseCopy() {
+        Coverage c = new Coverage();
+        c.handleEvent(callEvent(30));
+        c.handleEvent(branchEvent(10, 1));
+        c.handleEvent(branchEvent(10, 1));
+
+        CoverageSnapshot snapshot = c.snapshot();
+        Assert.assertEquals(2, snapshot.getNonZeroCount());
+        Assert.assertArrayEquals(new int[] { 11, 30 }, snapshot.getCoveredIndices());
+        Assert.assertEquals(2, snapshot.getAtIndex(11));
+        Assert.assertEquals(0, snapshot.getAtIndex(12));
+        Assert.assertEquals(c.hashCode(), snapshot.hashCode());
+
+        // The snapshot does not change with the map
+        c.clear();
+        Coverage expanded = snapshot.toCoverage();
+        Assert.assertEquals(snapshot.hashCode(), expanded.hashCode());
+        Assert.assertEquals(2, expanded.getNonZeroCount());
+    }
 }
@@ -0,0 +1,202 @@
+/*
+ * Copyright (c) 2017-2018 The Regents of the University of California
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.cs.jqf.fuzz.util;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+import edu.berkeley.cs.jqf.instrument.tracing.SingleSnoop;
+import edu.berkeley.cs.jqf.instrument.tracing.TraceEventBatch;
+import edu.berkeley.cs.jqf.instrument.tracing.TraceEventBatchConsumer;
+import edu.berkeley.cs.jqf.instrument.tracing.TraceLogger;
+import edu.berkeley.cs.jqf.instrument.tracing.events.BranchEvent;
+import edu.berkeley.cs.jqf.instrument.tracing.events.TraceEvent;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class TraceEventBatchTest {
+
+    /** Runs the given probes on a fresh thread whose events are sent to the given callback. */
+    private static void trace(Consumer<TraceEvent> callback, Runnable probes) throws InterruptedException {
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        SingleSnoop.setCallbackGenerator((t) -> callback);
+        Thread driver = new Thread(() -> {
+            try {
+                SingleSnoop.startSnooping("Driver#run");
+                probes.run();
+            } catch (Throwable e) {
+                error.set(e);
+            } finally {
+                TraceLogger.get().remove();
+            }
+        });
+        try {
+            driver.start();
+            driver.join();
+        } finally {
+            SingleSnoop.setCallbackGenerator((t) -> (e) -> {});
+        }
+        Assert.assertNull(error.get());
+    }
+
+    private static void traceProgram() {
+        SingleSnoop.METHOD_BEGIN("Driver", "run", "()V");
+        for (int i = 0; i < 5000; i++) {
+            SingleSnoop.INVOKESTATIC(1, 10, "Driver", "callee", "(I)I");
+            SingleSnoop.METHOD_BEGIN("Driver", "callee", "(I)I");
+            SingleSnoop.GETVALUE_boolean(i % 7 == 0);
+            SingleSnoop.IFEQ(3, 11, 0);
+            SingleSnoop.BRANCH(5, 12, i % 5 - 1);
+            SingleSnoop.IRETURN(10, 13);
+            SingleSnoop.INVOKEMETHOD_END();
+        }
+        SingleSnoop.RETURN(11, 14);
+    }
+
+    private static class BatchedCoverage implements TraceEventBatchConsumer {
+        final Coverage coverage = new Coverage();
+        int batches = 0;
+
+        @Override
+        public void accept(TraceEvent e) {
+            coverage.handleEvent(e);
+        }
+
+        @Override
+        public void acceptBatch(TraceEventBatch batch) {
+            batches++;
+            coverage.handleBatch(batch);
+        }
+    }
+
+    @Test
+    public void batchedCoverageMatchesSingleEvents() throws InterruptedException {
+        Coverage single = new Coverage();
+        trace(single::handleEvent, TraceEventBatchTest::traceProgram);
+
+        BatchedCoverage batched = new BatchedCoverage();
+        trace(batched, TraceEventBatchTest::traceProgram);
+
+        Assert.assertTrue(batched.batches > 1);
+        Assert.assertEquals(single.getNonZeroCount(), batched.coverage.getNonZeroCount());
+        Assert.assertEquals(single.getCovered(), batched.coverage.getCovered());
+        Assert.assertEquals(single.hashCode(), batched.coverage.hashCode());
+    }
+
+    @Test
+    public void asyncBatchesMatchSynchronousBatches() throws InterruptedException {
+        BatchedCoverage sync = new BatchedCoverage();
+        trace(sync, TraceEventBatchTest::traceProgram);
+
+        AtomicReference<String> deliveryThread = new AtomicReference<>();
+        BatchedCoverage async = new BatchedCoverage() {
+            @Override
+            public void acceptBatch(TraceEventBatch batch) {
+                deliveryThread.set(Thread.currentThread().getName());
+                super.acceptBatch(batch);
+            }
+        };
+        SingleSnoop.setEventMask(TraceEvent.BRANCH_EVENTS | TraceEvent.CALL_EVENTS | TraceEvent.RETURN_EVENTS);
+        System.setProperty("jqf.tracing.ASYNC", "true");
+        try {
+            trace(async, TraceEventBatchTest::traceProgram);
+        } finally {
+            System.clearProperty("jqf.tracing.ASYNC");
+            SingleSnoop.setEventMask(TraceEvent.ALL_EVENTS);
+        }
+
+        Assert.assertTrue(deliveryThread.get().startsWith("__JWIG_TRACER__"));
+        Assert.assertEquals(sync.batches, async.batches);
+        Assert.assertEquals(sync.coverage.getCovered(), async.coverage.getCovered());
+        Assert.assertEquals(sync.coverage.hashCode(), async.coverage.hashCode());
+    }
+
+    @Test
+    public void flushDeliversPendingEvents() throws InterruptedException {
+        AtomicInteger records = new AtomicInteger();
+        AtomicInteger beforeFlush = new AtomicInteger(-1);
+        TraceEventBatchConsumer callback = new TraceEventBatchConsumer() {
+            @Override
+            public void accept(TraceEvent e) {
+                records.incrementAndGet();
+            }
+
+            @Override
+            public void acceptBatch(TraceEventBatch batch) {
+                records.addAndGet(batch.size());
+            }
+        };
+        trace(callback, () -> {
+            SingleSnoop.METHOD_BEGIN("Driver", "run", "()V");
+            SingleSnoop.BRANCH(5, 12, 0);
+            SingleSnoop.BRANCH(5, 12, 1);
+            beforeFlush.set(records.get());
+            TraceLogger.get().flush();
+        });
+
+        Assert.assertEquals(0, beforeFlush.get());
+        Assert.assertEquals(3, records.get());
+    }
+
+    @Test
+    public void maskedEventsAreNotDelivered() throws InterruptedException {
+        AtomicInteger branches = new AtomicInteger();
+        AtomicInteger others = new AtomicInteger();
+        Consumer<TraceEvent> callback = (e) -> {
+            if (e instanceof BranchEvent) {
+                branches.incrementAndGet();
+            } else {
+                others.incrementAndGet();
+            }
+        };
+        SingleSnoop.setEventMask(TraceEvent.BRANCH_EVENTS);
+        try {
+            trace(callback, () -> {
+                SingleSnoop.METHOD_BEGIN("Driver", "run", "()V");
+                SingleSnoop.HEAPLOAD1(callback, "f", 20, 15);
+                SingleSnoop.INVOKESTATIC(1, 10, "Driver", "callee", "(I)I");
+                SingleSnoop.METHOD_BEGIN("Driver", "callee", "(I)I");
+                SingleSnoop.BRANCH(5, 12, 0);
+                SingleSnoop.IRETURN(10, 13);
+                SingleSnoop.INVOKEMETHOD_END();
+                SingleSnoop.BRANCH(5, 12, 1);
+                SingleSnoop.RETURN(11, 14);
+            });
+        } finally {
+            SingleSnoop.setEventMask(TraceEvent.ALL_EVENTS);
+        }
+
+        Assert.assertEquals(2, branches.get());
+        Assert.assertEquals(0, others.get());
+    }
+}
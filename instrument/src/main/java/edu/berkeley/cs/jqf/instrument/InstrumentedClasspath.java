@@ -0,0 +1,350 @@
+/*
+ * Copyright (c) 2017-2018 The Regents of the University of California
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.cs.jqf.instrument;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.instrument.ClassFileTransformer;
+import java.lang.instrument.IllegalClassFormatException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import edu.berkeley.cs.jqf.instrument.tracing.InlineCoverage;
+import janala.instrument.ProbeRegistry;
+import janala.instrument.SnoopInstructionTransformer;
+
+/**
+ * Instruments a classpath offline, so that fuzzing campaigns can load
+ * instrumented classes with a plain {@link URLClassLoader} instead of
+ * instrumenting them on every JVM start.
+ *
+ * <p>Each directory and jar of the classpath is copied to an output
+ * directory with all its classes instrumented. The output directory also
+ * contains a manifest, which records the probe IDs used by the classes
+ * and whether they contain inline probes, and a plain-text file listing
+ * the instrumented classpath for use by shell scripts.</p>
+ *
+ * <p>The output is reused as long as the original classpath, the
+ * instrumentation options and the included and excluded classes are
+ * unchanged.</p>
+ */
+public class InstrumentedClasspath {
+
+    /** The name of the manifest in the output directory. */
+    public static final String MANIFEST_FILE = "jqf-instrument.properties";
+
+    /** The name of the file listing the instrumented classpath, separated by {@link File#pathSeparator}. */
+    public static final String CLASSPATH_FILE = "classpath.txt";
+
+    private InstrumentedClasspath() {}
+
+    /**
+     * Instruments a classpath, unless an up-to-date copy already exists.
+     *
+     * <p>Classes are instrumented according to the current
+     * {@code janala.*} configuration (e.g., mode, includes and excludes).
+     * The output directory must be empty, non-existent, or the output of a
+     * previous invocation, in which case it is replaced.</p>
+     *
+     * @param classpath the directories and jars to instrument
+     * @param outputDir the directory in which to write instrumented copies
+     * @return the instrumented classpath
+     * @throws IOException if the classpath cannot be read or the output cannot be written
+     */
+    public static URL[] create(String[] classpath, File outputDir) throws IOException {
+        String source = String.join(File.pathSeparator, classpath);
+        String fingerprint = SnoopInstructionTransformer.getConfigFingerprint();
+        String scope = SnoopInstructionTransformer.getConfigScope();
+        String stamp = Long.toHexString(stampOf(classpath));
+
+        File manifestFile = new File(outputDir, MANIFEST_FILE);
+        if (manifestFile.exists()) {
+            Properties manifest = readManifest(outputDir);
+            if (source.equals(manifest.getProperty("source")) &&
+                    fingerprint.equals(manifest.getProperty("fingerprint")) &&
+                    scope.equals(manifest.getProperty("scope")) &&
+                    stamp.equals(manifest.getProperty("stamp"))) {
+                return toUrls(manifest.getProperty("classpath"));
+            }
+            deleteRecursively(outputDir.toPath());
+        } else if (outputDir.exists() && outputDir.list().length > 0) {
+            throw new IOException("Not an instrumented classpath directory: " + outputDir);
+        }
+        outputDir.mkdirs();
+
+        ClassFileTransformer transformer = new SnoopInstructionTransformer();
+        List<String> outputs = new ArrayList<>();
+        try (URLClassLoader loader = new URLClassLoader(InstrumentingClassLoader.stringsToUrls(classpath),
+                InstrumentedClasspath.class.getClassLoader())) {
+            for (int i = 0; i < classpath.length; i++) {
+                File input = new File(classpath[i]);
+                if (!input.exists()) {
+                    continue;
+                }
+                File output = new File(outputDir, i + "-" + input.getName());
+                if (input.isDirectory()) {
+                    instrumentDirectory(input.toPath(), output.toPath(), transformer, loader);
+                } else {
+                    instrumentJar(input, output, transformer, loader);
+                }
+                outputs.add(output.getAbsolutePath());
+            }
+        }
+
+        String instrumentedClasspath = String.join(File.pathSeparator, outputs);
+        Files.write(new File(outputDir, CLASSPATH_FILE).toPath(),
+                instrumentedClasspath.getBytes(StandardCharsets.UTF_8));
+
+        // Write the manifest last, so that a partial output is never reused
+        Properties manifest = new Properties();
+        manifest.setProperty("source", source);
+        manifest.setProperty("fingerprint", fingerprint);
+        manifest.setProperty("scope", scope);
+        manifest.setProperty("stamp", stamp);
+        manifest.setProperty("classpath", instrumentedClasspath);
+        manifest.setProperty("probes", Integer.toString(ProbeRegistry.size()));
+        manifest.setProperty("inlineCoverage", Boolean.toString(InlineCoverage.isEnabled()));
+        try (Writer out = Files.newBufferedWriter(manifestFile.toPath(), StandardCharsets.UTF_8)) {
+            manifest.store(out, "Classpath instrumented by JQF");
+        }
+
+        return toUrls(instrumentedClasspath);
+    }
+
+    /**
+     * Prepares this JVM to run classes from an instrumented classpath.
+     *
+     * <p>This makes sure that the probe IDs used by the instrumented
+     * classes are accounted for in coverage maps and are never allocated
+     * to classes instrumented at run time, and enables inline coverage
+     * if the classes were instrumented in inline mode.</p>
+     *
+     * <p>The classes must have been instrumented with the current
+     * {@code janala.*} configuration, as classes instrumented differently
+     * would report coverage that this JVM does not expect.</p>
+     *
+     * @param outputDir the directory written by {@link #create}
+     * @return the instrumented classpath
+     * @throws IOException if the manifest cannot be read, or does not
+     *                     match the current configuration
+     */
+    public static URL[] activate(File outputDir) throws IOException {
+        Properties manifest = readManifest(outputDir);
+        String probes = manifest.getProperty("probes");
+        String classpath = manifest.getProperty("classpath");
+        if (probes == null || classpath == null) {
+            throw new IOException("Invalid manifest in " + outputDir);
+        }
+        if (!SnoopInstructionTransformer.getConfigFingerprint().equals(manifest.getProperty("fingerprint")) ||
+                !SnoopInstructionTransformer.getConfigScope().equals(manifest.getProperty("scope"))) {
+            throw new IOException("Classpath in " + outputDir + " was instrumented with different " +
+                    "options or classes; instrument it again with the current configuration");
+        }
+        int probeBound = Integer.parseInt(probes);
+        ProbeRegistry.reserve(probeBound);
+        if (Boolean.parseBoolean(manifest.getProperty("inlineCoverage"))) {
+            InlineCoverage.enable();
+            InlineCoverage.ensureCapacity(probeBound);
+        }
+        return toUrls(classpath);
+    }
+
+    private static Properties readManifest(File outputDir) throws IOException {
+        Properties manifest = new Properties();
+        try (Reader in = Files.newBufferedReader(new File(outputDir, MANIFEST_FILE).toPath(), StandardCharsets.UTF_8)) {
+            manifest.load(in);
+        }
+        return manifest;
+    }
+
+    private static URL[] toUrls(String classpath) throws MalformedURLException {
+        return InstrumentingClassLoader.stringsToUrls(classpath.isEmpty() ?
+                new String[0] : classpath.split(File.pathSeparator));
+    }
+
+    /** Computes a stamp that changes whenever a file in the classpath changes. */
+    private static long stampOf(String[] classpath) throws IOException {
+        long stamp = 1;
+        for (String element : classpath) {
+            Path path = new File(element).toPath();
+            if (Files.isDirectory(path)) {
+                try (Stream<Path> files = Files.walk(path)) {
+                    for (Path file : files.filter(Files::isRegularFile).sorted().collect(Collectors.toList())) {
+                        stamp = 31 * stamp + path.relativize(file).toString().hashCode();
+                        stamp = 31 * stamp + Files.size(file);
+                        stamp = 31 * stamp + Files.getLastModifiedTime(file).toMillis();
+                    }
+                }
+            } else if (Files.isRegularFile(path)) {
+                stamp = 31 * stamp + Files.size(path);
+                stamp = 31 * stamp + Files.getLastModifiedTime(path).toMillis();
+            }
+        }
+        return stamp;
+    }
+
+    private static void instrumentDirectory(Path input, Path output, ClassFileTransformer transformer,
+                                            ClassLoader loader) throws IOException {
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(input)) {
+            files = walk.filter(Files::isRegularFile).collect(Collectors.toList());
+        }
+        runInParallel(() -> files.parallelStream().forEach(file -> {
+            String resource = input.relativize(file).toString().replace(File.separatorChar, '/');
+            Path target = output.resolve(input.relativize(file));
+            try {
+                byte[] bytes = Files.readAllBytes(file);
+                Files.createDirectories(target.getParent());
+                Files.write(target, instrument(resource, bytes, transformer, loader));
+            } catch (IOException e) {
+                throw new InstrumentationException("Could not instrument " + file, e);
+            }
+        }));
+    }
+
+    private static void instrumentJar(File input, File output, ClassFileTransformer transformer,
+                                      ClassLoader loader) throws IOException {
+        // Read all entries first, so that classes can be instrumented in parallel
+        // and then written in their original order
+        List<String> names = new ArrayList<>();
+        List<byte[]> contents = new ArrayList<>();
+        try (JarFile jar = new JarFile(input, false)) {
+            Enumeration<JarEntry> entries = jar.entries();
+            while (entries.hasMoreElements()) {
+                JarEntry entry = entries.nextElement();
+                if (entry.isDirectory() || isSignature(entry.getName())) {
+                    // Signatures would not match the instrumented classes
+                    continue;
+                }
+                try (InputStream in = jar.getInputStream(entry)) {
+                    names.add(entry.getName());
+                    contents.add(in.readAllBytes());
+                }
+            }
+        }
+
+        byte[][] results = new byte[names.size()][];
+        runInParallel(() -> IntStream.range(0, names.size()).parallel().forEach(i ->
+                results[i] = instrument(names.get(i), contents.get(i), transformer, loader)));
+
+        try (OutputStream file = Files.newOutputStream(output.toPath());
+             JarOutputStream out = new JarOutputStream(file)) {
+            for (int i = 0; i < results.length; i++) {
+                out.putNextEntry(new JarEntry(names.get(i)));
+                out.write(results[i]);
+                out.closeEntry();
+            }
+        }
+    }
+
+    /** Returns the instrumented contents of a classpath resource. */
+    private static byte[] instrument(String resource, byte[] bytes, ClassFileTransformer transformer,
+                                     ClassLoader loader) {
+        if (!resource.endsWith(".class") || resource.startsWith("META-INF/") ||
+                resource.endsWith("module-info.class") || resource.endsWith("package-info.class")) {
+            return bytes;
+        }
+        String internalName = resource.substring(0, resource.length() - ".class".length());
+        try {
+            byte[] instrumented = transformer.transform(loader, internalName, null, null, bytes);
+            return instrumented != null ? instrumented : bytes;
+        } catch (IllegalClassFormatException e) {
+            return bytes;
+        }
+    }
+
+    private static boolean isSignature(String name) {
+        if (!name.startsWith("META-INF/") || name.indexOf('/', "META-INF/".length()) >= 0) {
+            return false;
+        }
+        return name.endsWith(".SF") || name.endsWith(".RSA") || name.endsWith(".DSA") || name.endsWith(".EC");
+    }
+
+    private static void runInParallel(Runnable task) throws IOException {
+        try {
+            ForkJoinPool.commonPool().submit(task).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while instrumenting classes", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof InstrumentationException && e.getCause().getCause() instanceof IOException) {
+                throw (IOException) e.getCause().getCause();
+            }
+            throw new InstrumentationException("Could not instrument classes", e.getCause());
+        }
+    }
+
+    private static void deleteRecursively(Path dir) throws IOException {
+        try (Stream<Path> walk = Files.walk(dir)) {
+            for (Path path : walk.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    /**
+     * Instruments a classpath from the command line.
+     *
+     * @param args the output directory followed by the classpath
+     */
+    public static void main(String[] args) {
+        if (args.length != 2) {
+            System.err.println("Usage: java " + InstrumentedClasspath.class.getName() + " OUTPUT_DIR CLASSPATH");
+            System.exit(1);
+        }
+        try {
+            URL[] urls = create(args[1].split(File.pathSeparator), new File(args[0]));
+            System.out.println("Instrumented " + urls.length + " classpath entries into " + args[0]);
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.exit(2);
+        }
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright (c) 2017-2018 The Regents of the University of California
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.cs.jqf.instrument.tracing;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+import edu.berkeley.cs.jqf.instrument.util.FastBlockingQueue;
+
+/**
+ * Delivers batches of trace events to the callbacks of traced threads
+ * on a single, dedicated thread.
+ *
+ * <p>This is used by {@link ThreadTracer} if the system property
+ * {@code jqf.tracing.ASYNC} is set. Each traced thread has a {@link Channel},
+ * which consists of two single-producer single-consumer queues: the traced
+ * thread publishes full batches on one, and the delivery thread returns
+ * them on the other once the callback has handled them. Traced threads
+ * therefore never wait for a callback unless they run out of batches, and
+ * a callback that is shared by several threads is never invoked concurrently.</p>
+ *
+ * <p>The delivery thread is named with the prefix {@code __JWIG_TRACER__},
+ * so that {@link SingleSnoop} does not trace the callbacks themselves.</p>
+ */
+final class AsyncTraceDelivery {
+
+    // The number of batches of each traced thread, including the one being filled
+    private static final int BATCHES_PER_THREAD = 8;
+
+    // The number of empty passes over the channels before the delivery thread parks
+    private static final int SPINS_BEFORE_PARKING = 1000;
+
+    // Bounds the time for which the delivery thread parks, in case it misses a wake-up
+    private static final long PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private static final List<Channel> channels = new CopyOnWriteArrayList<>();
+    private static Thread deliveryThread = null;
+    private static volatile boolean parked = false;
+
+    private AsyncTraceDelivery() {}
+
+    /**
+     * Opens a channel for a traced thread, starting the delivery thread if needed.
+     *
+     * @param producer the traced thread, which is the only one that may use the channel
+     * @param consumer the callback of the traced thread
+     * @param batchSize the capacity of each batch
+     * @return a new channel
+     */
+    static synchronized Channel open(Thread producer, TraceEventBatchConsumer consumer, int batchSize) {
+        Channel channel = new Channel(producer, consumer, batchSize);
+        channels.add(channel);
+        if (deliveryThread == null) {
+            deliveryThread = new Thread(AsyncTraceDelivery::run, "__JWIG_TRACER__delivery");
+            deliveryThread.setDaemon(true);
+            deliveryThread.start();
+        }
+        return channel;
+    }
+
+    private static void wakeUp() {
+        if (parked) {
+            LockSupport.unpark(deliveryThread);
+        }
+    }
+
+    /** The loop of the delivery thread. */
+    private static void run() {
+        int emptyPasses = 0;
+        while (true) {
+            boolean delivered = false;
+            for (Channel channel : channels) {
+                if (channel.deliverPublished()) {
+                    delivered = true;
+                } else if (channel.isAbandoned()) {
+                    channels.remove(channel);
+                }
+            }
+            if (delivered) {
+                emptyPasses = 0;
+            } else if (++emptyPasses < SPINS_BEFORE_PARKING) {
+                Thread.onSpinWait();
+            } else {
+                // A traced thread reads this flag after counting a batch, so either it wakes
+                // this thread up or the batch is counted as pending below
+                parked = true;
+                if (!isAnyPending()) {
+                    LockSupport.parkNanos(PARK_NANOS);
+                }
+                parked = false;
+            }
+        }
+    }
+
+    private static boolean isAnyPending() {
+        for (Channel channel : channels) {
+            if (channel.isPending()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The queues between a traced thread and the delivery thread.
+     */
+    static final class Channel {
+        private final Thread producer;
+        private final TraceEventBatchConsumer consumer;
+        private final FastBlockingQueue<TraceEventBatch> published;
+        private final FastBlockingQueue<TraceEventBatch> returned;
+
+        // Counts of batches; each is written by one thread only
+        private volatile long publishedCount = 0;
+        private volatile long deliveredCount = 0;
+
+        // The first exception thrown by the callback that the traced thread has not yet taken
+        private final AtomicReference<Throwable> exception = new AtomicReference<>();
+
+        private Channel(Thread producer, TraceEventBatchConsumer consumer, int batchSize) {
+            this.producer = producer;
+            this.consumer = consumer;
+            this.published = new FastBlockingQueue<>(BATCHES_PER_THREAD);
+            this.returned = new FastBlockingQueue<>(BATCHES_PER_THREAD);
+            for (int i = 0; i < BATCHES_PER_THREAD - 1; i++) {
+                returned.put(new TraceEventBatch(batchSize));
+            }
+        }
+
+        /**
+         * Publishes a batch for delivery. Must only be called by the traced thread.
+         *
+         * @param batch the batch to deliver
+         * @return an empty batch to fill next
+         */
+        TraceEventBatch publish(TraceEventBatch batch) {
+            // Count the batch first, so that the delivered count never exceeds it
+            publishedCount = publishedCount + 1;
+            published.put(batch);
+            wakeUp();
+            TraceEventBatch next;
+            while ((next = returned.poll()) == null) {
+                Thread.yield();
+            }
+            return next;
+        }
+
+        /**
+         * Waits until every published batch has been delivered. Must only be
+         * called by the traced thread.
+         */
+        void awaitDelivery() {
+            while (deliveredCount != publishedCount) {
+                wakeUp();
+                Thread.yield();
+            }
+        }
+
+        /**
+         * Returns and clears the first exception that the callback has thrown
+         * since the last call.
+         *
+         * @return the exception, or {@code null} if there was none
+         */
+        Throwable takeException() {
+            return exception.get() == null ? null : exception.getAndSet(null);
+        }
+
+        /** Delivers the next published batch, if any; returns whether there was one. */
+        private boolean deliverPublished() {
+            TraceEventBatch batch = published.poll();
+            if (batch == null) {
+                return false;
+            }
+            try {
+                consumer.acceptBatch(batch);
+            } catch (Throwable e) {
+                exception.compareAndSet(null, e);
+            } finally {
+                batch.clear();
+                returned.put(batch);
+                deliveredCount = deliveredCount + 1;
+            }
+            return true;
+        }
+
+        private boolean isPending() {
+            return deliveredCount != publishedCount;
+        }
+
+        private boolean isAbandoned() {
+            return !producer.isAlive() && !isPending();
+        }
+    }
+}
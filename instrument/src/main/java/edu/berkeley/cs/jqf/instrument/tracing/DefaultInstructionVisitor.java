@@ -925,6 +925,11 @@ public class DefaultInstructionVisitor implements IVisitor {
 
     }
 
+    @Override
+    public void visitBRANCH(BRANCH inst) {
+
+    }
+
     @Override
     public void setNext(Instruction next) {
 
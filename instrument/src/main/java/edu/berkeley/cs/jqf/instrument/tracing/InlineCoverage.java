@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) 2017-2018 The Regents of the University of California
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package edu.berkeley.cs.jqf.instrument.tracing;
+
+import java.util.Arrays;
+
+/**
+ * Storage for coverage probes that are inlined into the instrumented code.
+ *
+ * <p>When classes are instrumented with {@code janala.mode=inline}, each
+ * branch arm and call site increments a slot of {@link #chunks} directly,
+ * AFL-style, instead of calling into {@link SingleSnoop}. Slots are probe IDs
+ * assigned at instrumentation time, so no trace events are produced and no
+ * thread-local state is consulted on the hot path. As with AFL's shared
+ * bitmap, all application threads update the same arrays without
+ * synchronization.</p>
+ *
+ * <p>The fuzzing driver reads the counts via {@link #getCounts()} after every
+ * trial and hands them to the guidance, and then resets them.</p>
+ */
+public final class InlineCoverage {
+
+    /** The number of bits of a slot that select its position within a chunk. */
+    public static final int CHUNK_BITS = 12;
+
+    /** The number of slots in a chunk. */
+    public static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+    /**
+     * The per-slot counts, updated directly by instrumented code. Slot
+     * {@code s} is {@code chunks[s >> CHUNK_BITS][s & (CHUNK_SIZE - 1)]}.
+     *
+     * <p>When newly instrumented classes need more slots, only this outer
+     * array is replaced; the chunks themselves never move, so threads that
+     * still hold the old outer array keep incrementing the same counts.</p>
+     */
+    public static volatile int[][] chunks = new int[0][];
+
+    // One more than the highest slot in use
+    private static volatile int size = 0;
+
+    // The counts returned by getCounts(), reused across trials
+    private static int[] snapshot = new int[0];
+
+    private static volatile boolean enabled = false;
+
+    // Triples of (slot, first source slot, end of source slots), in the order in which they are computed
+    private static volatile int[] derivedCounts = new int[0];
+    private static volatile int numDerivedCounts = 0;
+
+    private InlineCoverage() {}
+
+    /**
+     * Marks inline probes as being in use, which is done by the
+     * instrumentation agent or class loader when the inline mode is configured.
+     */
+    public static void enable() {
+        enabled = true;
+    }
+
+    /**
+     * Returns whether instrumented code writes its coverage to this class.
+     *
+     * @return whether inline probes are in use
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Adds chunks so that at least the given number of slots are
+     * available. This must be called before a class whose probes use those
+     * slots is defined.
+     *
+     * @param size the number of slots required
+     */
+    public static synchronized void ensureCapacity(int size) {
+        int[][] current = chunks;
+        int needed = (size + CHUNK_SIZE - 1) >> CHUNK_BITS;
+        if (current.length < needed) {
+            int[][] grown = Arrays.copyOf(current, needed);
+            for (int i = current.length; i < needed; i++) {
+                grown[i] = new int[CHUNK_SIZE];
+            }
+            chunks = grown;
+        }
+        if (InlineCoverage.size < size) {
+            InlineCoverage.size = size;
+        }
+    }
+
+    /**
+     * Registers slots whose counts are not incremented by probes of their
+     * own, but are the sum of the counts of a range of other slots. This is
+     * invoked by the static initializers of classes that are instrumented
+     * with {@code janala.minimizeProbes=true}.
+     *
+     * @param encoded a sequence of (slot, first source slot, end of source
+     *                slots) triples, with each int encoded as two chars,
+     *                high half first
+     */
+    public static synchronized void addDerivedCounts(String encoded) {
+        int added = encoded.length() / 2;
+        int size = numDerivedCounts;
+        int[] current = derivedCounts;
+        if (current.length < size + added) {
+            current = Arrays.copyOf(current, Math.max(size + added, 2 * current.length));
+        }
+        for (int i = 0; i < added; i++) {
+            current[size + i] = (encoded.charAt(2 * i) << 16) | encoded.charAt(2 * i + 1);
+        }
+        // Publish the array before the size, so that readers never see a size that the array does not hold
+        derivedCounts = current;
+        numDerivedCounts = size + added;
+    }
+
+    /**
+     * Returns the per-slot counts, after computing the counts of slots
+     * that are derived from other slots (see {@link #addDerivedCounts(String)}).
+     *
+     * <p>The returned array is a copy, which is overwritten by the next call.</p>
+     *
+     * @return the current counts, indexed by slot
+     */
+    public static int[] getCounts() {
+        int[][] current = chunks;
+        int length = Math.min(size, current.length << CHUNK_BITS);
+        int[] counts = snapshot;
+        if (counts.length != length) {
+            counts = snapshot = new int[length];
+        }
+        for (int i = 0, from = 0; from < length; i++, from += CHUNK_SIZE) {
+            System.arraycopy(current[i], 0, counts, from, Math.min(CHUNK_SIZE, length - from));
+        }
+
+        int numDerived = numDerivedCounts;
+        int[] derived = derivedCounts;
+        for (int i = 0; i < numDerived; i += 3) {
+            int sum = 0;
+            for (int slot = derived[i + 1]; slot < derived[i + 2]; slot++) {
+                sum += counts[slot];
+            }
+            counts[derived[i]] = sum;
+        }
+        return counts;
+    }
+
+    /**
+     * Resets all counts to zero.
+     */
+    public static void reset() {
+        for (int[] chunk : chunks) {
+            Arrays.fill(chunk, 0);
+        }
+    }
+}
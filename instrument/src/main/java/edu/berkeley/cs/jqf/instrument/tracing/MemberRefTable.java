@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2017-2018 The Regents of the University of California
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.cs.jqf.instrument.tracing;
+
+import janala.logger.inst.MemberRef;
+
+/**
+ * A table of interned method references, used by a {@link ThreadTracer}
+ * to identify methods without allocating a new reference on every call.
+ *
+ * <p>Instrumented code passes the owner, name and descriptor of each
+ * method as string constants, so a lookup usually succeeds with identity
+ * comparisons alone. A table is confined to a single thread.</p>
+ */
+final class MemberRefTable {
+
+    private Entry[] entries = new Entry[256];
+    private int size = 0;
+
+    /**
+     * Returns the unique reference to the given method.
+     *
+     * @param owner the internal name of the class declaring the method
+     * @param name the name of the method
+     * @param desc the descriptor of the method
+     * @return a reference that is shared by all lookups of the same method
+     */
+    MemberRef get(String owner, String name, String desc) {
+        int hash = hash(owner, name, desc);
+        int mask = entries.length - 1;
+        for (int i = hash & mask; ; i = (i + 1) & mask) {
+            Entry e = entries[i];
+            if (e == null) {
+                return add(i, hash, owner, name, desc);
+            }
+            if (e.hash == hash && e.matches(owner, name, desc)) {
+                return e;
+            }
+        }
+    }
+
+    private Entry add(int index, int hash, String owner, String name, String desc) {
+        Entry e = new Entry(owner, name, desc, hash);
+        entries[index] = e;
+        if (++size * 2 > entries.length) {
+            rehash();
+        }
+        return e;
+    }
+
+    private void rehash() {
+        Entry[] old = entries;
+        entries = new Entry[old.length * 2];
+        int mask = entries.length - 1;
+        for (Entry e : old) {
+            if (e != null) {
+                int i = e.hash & mask;
+                while (entries[i] != null) {
+                    i = (i + 1) & mask;
+                }
+                entries[i] = e;
+            }
+        }
+    }
+
+    private static int hash(String owner, String name, String desc) {
+        int h = (owner.hashCode() * 31 + name.hashCode()) * 31 + desc.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    private static final class Entry implements MemberRef {
+        private final String owner;
+        private final String name;
+        private final String desc;
+        private final int hash;
+        private String qualifiedName;
+
+        Entry(String owner, String name, String desc, int hash) {
+            this.owner = owner;
+            this.name = name;
+            this.desc = desc;
+            this.hash = hash;
+        }
+
+        boolean matches(String owner, String name, String desc) {
+            return (this.owner == owner || this.owner.equals(owner)) &&
+                    (this.name == name || this.name.equals(name)) &&
+                    (this.desc == desc || this.desc.equals(desc));
+        }
+
+        @Override
+        public String getOwner() {
+            return owner;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public String getDesc() {
+            return desc;
+        }
+
+        @Override
+        public String getQualifiedName() {
+            if (qualifiedName == null) {
+                qualifiedName = MemberRef.super.getQualifiedName();
+            }
+            return qualifiedName;
+        }
+
+        @Override
+        public String toString() {
+            return getQualifiedName();
+        }
+    }
+}
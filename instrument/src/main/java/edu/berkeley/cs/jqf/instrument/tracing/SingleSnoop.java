@@ -29,44 +29,135 @@
 
 package edu.berkeley.cs.jqf.instrument.tracing;
 
-import java.lang.reflect.Field;
-import java.lang.reflect.Method;
+import java.util.Collections;
 import java.util.Map;
 import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.Supplier;
 
 import edu.berkeley.cs.jqf.instrument.tracing.events.TraceEvent;
-import edu.berkeley.cs.jqf.instrument.util.DoublyLinkedList;
 
 
+/**
+ * The target of the probes that are inserted into instrumented classes.
+ *
+ * <p>Each probe method is a stub that checks the re-entrancy guard of the
+ * current thread and forwards to the {@link TraceLogger}. The stubs are
+ * kept within 35 bytes of bytecode (the default {@code MaxInlineSize} of
+ * HotSpot), so that they can be inlined into the instrumented code even at
+ * call sites that are not hot. Rare paths, such as looking up the guard of
+ * a thread other than the first one, are left in separate methods.</p>
+ */
 @SuppressWarnings("unused") // Dynamically loaded
 public final class SingleSnoop {
 
 
-    static DoublyLinkedList<Thread> threadsToUnblock = new DoublyLinkedList<>();
+    // Threads registered by REGISTER_THREAD, with their entry points, until they execute their first probe
+    private static final Map<Thread, String> threadsToUnblock = new ConcurrentHashMap<>();
+
+    /** A thread's re-entrancy guard: probes do nothing while the thread is blocked. */
+    private static final class Guard {
+        boolean blocked;
+        String entryPoint; // The entry point of the thread or of its current task, if known
+
+        Guard(boolean blocked) {
+            this.blocked = blocked;
+        }
+    }
 
-    private static ThreadLocal<Boolean> block = new ThreadLocal<Boolean>() {
+    private static final ThreadLocal<Guard> guards = new ThreadLocal<Guard>() {
         @Override
-        public Boolean initialValue() {
-        String threadName = Thread.currentThread().getName();
+        public Guard initialValue() {
+            String threadName = Thread.currentThread().getName();
+            String entryPoint;
             if (threadName.startsWith("__JWIG_TRACER__")) {
-                return true; // Always block snooping on the tracing thread to prevent cycles
-            } else if (threadsToUnblock.synchronizedRemove(Thread.currentThread())){
-                return false; // Snoop on threads that were added to the queue explicitly
+                return new Guard(true); // Always block snooping on the tracing thread to prevent cycles
+            } else if ((entryPoint = threadsToUnblock.remove(Thread.currentThread())) != null) {
+                // Snoop on threads that were registered explicitly
+                Guard guard = new Guard(false);
+                guard.entryPoint = entryPoint;
+                return unblocked(guard);
             } else {
-                return true; // Block all other threads (e.g. JVM cleanup threads)
+                return new Guard(true); // Block all other threads (e.g. JVM cleanup threads)
             }
         }
     };
 
-    public static final Map<Thread, String> entryPoints = new WeakHashMap<>();
+    // As in TraceLogger, the first thread to be snooped on (usually the only one) finds its guard without
+    // looking up the thread-local map; only that thread ever reads these fields after a match
+    private static Thread firstThread = null;
+    private static Guard firstGuard = null;
+
+    /** Returns the re-entrancy guard of the current thread. */
+    private static Guard guard() {
+        Thread thread = Thread.currentThread();
+        if (thread == firstThread) {
+            return firstGuard;
+        } else {
+            return guards.get();
+        }
+    }
+
+    /**
+     * Blocks the current thread for the duration of a probe.
+     *
+     * @return {@code true} if the thread was not already blocked, in which
+     *         case the probe must call {@link #leave()} when it is done
+     */
+    private static boolean enter() {
+        Guard guard = guard();
+        if (guard.blocked) {
+            return false;
+        }
+        guard.blocked = true;
+        return true;
+    }
+
+    /** Unblocks the current thread at the end of a probe. */
+    private static void leave() {
+        guard().blocked = false;
+    }
+
+    /** Gives the fast path to the first guard that is unblocked. */
+    private static Guard unblocked(Guard guard) {
+        // Only lock until the fast path has been taken, since every traced thread gets here
+        if (firstThread == null) {
+            claimFastPath(guard);
+        }
+        return guard;
+    }
+
+    private static synchronized void claimFastPath(Guard guard) {
+        if (firstThread == null) {
+            firstGuard = guard;
+            firstThread = Thread.currentThread();
+        }
+    }
+
+    /** The entry points of the threads passed to {@link #startSnooping}. */
+    public static final Map<Thread, String> entryPoints = Collections.synchronizedMap(new WeakHashMap<>());
+
+    /**
+     * Returns the entry point of a thread, or of the task that the current
+     * thread is running (see {@link #REGISTER_TASK(Runnable)}).
+     */
+    static String entryPointOf(Thread thread) {
+        String entryPoint = thread == Thread.currentThread() ? guard().entryPoint : null;
+        return entryPoint != null ? entryPoint : entryPoints.get(thread);
+    }
 
 
     /** A supplier of callbacks for each thread (does nothing by default). */
     static Function<Thread, Consumer<TraceEvent>> callbackGenerator = (t) -> (e) -> {};
 
 
+    /** The kinds of events to emit (a combination of the {@code *_EVENTS} bits of {@link TraceEvent}). */
+    static volatile int eventMask = TraceEvent.ALL_EVENTS;
+
+
     private static final TraceLogger intp = TraceLogger.get();
 
     private SingleSnoop() {}
@@ -83,6 +174,21 @@ public final class SingleSnoop {
     }
 
 
+    /**
+     * Selects the kinds of events to emit to the callbacks of threads
+     * that start being traced from now on.
+     *
+     * <p>Instructions whose events are not selected are not traced at all.
+     * For example, if the mask does not include {@link TraceEvent#READ_EVENTS},
+     * then heap loads are never logged.</p>
+     *
+     * @param eventMask a combination of the {@code *_EVENTS} bits of {@link TraceEvent}
+     */
+    public static void setEventMask(int eventMask) {
+        SingleSnoop.eventMask = eventMask;
+    }
+
+
     /** Start snooping for this thread, with the top-level call being
      * the {@code entryPoint}
      *
@@ -93,6 +199,7 @@ public final class SingleSnoop {
     public static void startSnooping(String entryPoint) {
         // Mark entry point
         entryPoints.put(Thread.currentThread(), entryPoint);
+        guard().entryPoint = entryPoint;
         // XXX: Offer a dummy instruction to warm-up
         // class-loaders of the logger, in order to avoid
         // deadlocks when tracing is triggered from
@@ -103,925 +210,1173 @@ public final class SingleSnoop {
     }
 
     public static void unblock() {
-        block.set(false);
+        unblocked(guard()).blocked = false;
     }
 
     public static void REGISTER_THREAD(Thread thread) {
-        // Mark entry point as run()
-        try {
-            // Get a reference to the Thread's Runnable if it exists
-            Field targetField = Thread.class.getDeclaredField("target");
-            targetField.setAccessible(true);
-            Object target =  targetField.get(thread);
-            if (target == null) {
-                // If the Runnable is not provided explicitly,
-                // it is likely a sub-class of Thread with an overriden run() method
-                target = thread;
-            }
-            Method runMethod = target.getClass().getMethod("run");
-            String entryPoint = runMethod.getDeclaringClass().getName() + "#run";
-            entryPoints.put(thread, entryPoint);
-            // Mark thread for unblocking when we snoop its first instruction
-            threadsToUnblock.synchronizedAddFirst(thread);
-        } catch (NoSuchMethodException | NoSuchFieldException | IllegalAccessException e) {
-            // Print error and keep going
-            e.printStackTrace();
+        // Mark thread for unblocking when we snoop its first instruction, with run() as its entry point
+        threadsToUnblock.put(thread, TaskTracing.entryPointOf(thread));
+    }
+
+    /**
+     * Wraps a task that a thread hands to an executor, so that the thread
+     * which runs the task is traced while it does, if the current thread is
+     * being traced.
+     *
+     * <p>The executor then receives a wrapper instead of the task itself, so
+     * code that relies on the task's identity sees a different object: for
+     * example, {@code ThreadPoolExecutor.remove(task)} does not find it, and
+     * {@code beforeExecute()} or {@code afterExecute()} see the wrapper. For
+     * this reason, only the tasks passed to JDK executor types are wrapped.</p>
+     *
+     * @param task the task
+     * @return the task to pass to the executor instead
+     */
+    public static Runnable REGISTER_TASK(Runnable task) {
+        return task == null || guard().blocked ? task : TaskTracing.wrap(task);
+    }
+
+    /** Wraps a task for an executor, like {@link #REGISTER_TASK(Runnable)}. */
+    public static <V> Callable<V> REGISTER_TASK(Callable<V> task) {
+        return task == null || guard().blocked ? task : TaskTracing.wrap(task);
+    }
+
+    /** Wraps a task for an executor, like {@link #REGISTER_TASK(Runnable)}. */
+    public static <T> Supplier<T> REGISTER_TASK(Supplier<T> task) {
+        return task == null || guard().blocked ? task : TaskTracing.wrap(task);
+    }
+
+    /**
+     * Unblocks the current thread for the duration of a wrapped task.
+     *
+     * @param entryPoint the entry point of the task
+     * @return whether the thread was blocked, to be passed to {@link #endTask}
+     */
+    static boolean beginTask(String entryPoint) {
+        Guard guard = guard();
+        boolean blocked = guard.blocked;
+        if (blocked) {
+            guard.entryPoint = entryPoint;
+            guard.blocked = false;
+        }
+        return blocked;
+    }
+
+    /**
+     * Restores the guard of the current thread at the end of a wrapped task,
+     * and lets other threads re-use its tracer if the task had unblocked it.
+     */
+    static void endTask(boolean blocked) {
+        guard().blocked = blocked;
+        if (blocked) {
+            intp.recycle();
         }
     }
 
     public static void LDC(int iid, int mid, int c) {
-        if (block.get()) return; else block.set(true);
-        try { intp.LDC(iid, mid, c); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.LDC(iid, mid, c); } finally { leave(); }
+        }
     }
 
     public static void LDC(int iid, int mid, long c) {
-        if (block.get()) return; else block.set(true);
-        try { intp.LDC(iid, mid, c); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.LDC(iid, mid, c); } finally { leave(); }
+        }
     }
 
     public static void LDC(int iid, int mid, float c) {
-        if (block.get()) return; else block.set(true);
-        try { intp.LDC(iid, mid, c); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.LDC(iid, mid, c); } finally { leave(); }
+        }
     }
 
     public static void LDC(int iid, int mid, double c) {
-        if (block.get()) return; else block.set(true);
-        try { intp.LDC(iid, mid, c); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.LDC(iid, mid, c); } finally { leave(); }
+        }
     }
 
     public static void LDC(int iid, int mid, String c) {
-        if (block.get()) return; else block.set(true);
-        try { intp.LDC(iid, mid, c); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.LDC(iid, mid, c); } finally { leave(); }
+        }
     }
 
     public static void LDC(int iid, int mid, Object c) {
-        if (block.get()) return; else block.set(true);
-        try { intp.LDC(iid, mid, c); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.LDC(iid, mid, c); } finally { leave(); }
+        }
     }
 
     public static void IINC(int iid, int mid, int var, int increment) {
-        if (block.get()) return; else block.set(true);
-        try { intp.IINC(iid, mid, var, increment); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.IINC(iid, mid, var, increment); } finally { leave(); }
+        }
     }
 
     public static void MULTIANEWARRAY(int iid, int mid, String desc, int dims) {
-        if (block.get()) return; else block.set(true);
-        try { intp.MULTIANEWARRAY(iid, mid, desc, dims); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.MULTIANEWARRAY(iid, mid, desc, dims); } finally { leave(); }
+        }
     }
 
     public static void LOOKUPSWITCH(int iid, int mid, int dflt, int[] keys, int[] labels) {
-        if (block.get()) return; else block.set(true);
-        try { intp.LOOKUPSWITCH(iid, mid, dflt, keys, labels); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.LOOKUPSWITCH(iid, mid, dflt, keys, labels); } finally { leave(); }
+        }
     }
 
     public static void TABLESWITCH(int iid, int mid, int min, int max, int dflt, int[] labels) {
-        if (block.get()) return; else block.set(true);
-        try { intp.TABLESWITCH(iid, mid, min, max, dflt, labels); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.TABLESWITCH(iid, mid, min, max, dflt, labels); } finally { leave(); }
+        }
+    }
+
+    public static void BRANCH(int iid, int mid, int arm) {
+        if (enter()) {
+            try { intp.BRANCH(iid, mid, arm); } finally { leave(); }
+        }
     }
 
     public static void IFEQ(int iid, int mid, int label) {
-        if (block.get()) return; else block.set(true);
-        try { intp.IFEQ(iid, mid, label); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.IFEQ(iid, mid, label); } finally { leave(); }
+        }
     }
 
     public static void IFNE(int iid, int mid, int label) {
-        if (block.get()) return; else block.set(true);
-        try { intp.IFNE(iid, mid, label); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.IFNE(iid, mid, label); } finally { leave(); }
+        }
     }
 
     public static void IFLT(int iid, int mid, int label) {
-        if (block.get()) return; else block.set(true);
-        try { intp.IFLT(iid, mid, label); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.IFLT(iid, mid, label); } finally { leave(); }
+        }
     }
 
     public static void IFGE(int iid, int mid, int label) {
-        if (block.get()) return; else block.set(true);
-        try { intp.IFGE(iid, mid, label); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.IFGE(iid, mid, label); } finally { leave(); }
+        }
     }
 
     public static void IFGT(int iid, int mid, int label) {
-        if (block.get()) return; else block.set(true);
-        try { intp.IFGT(iid, mid, label); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.IFGT(iid, mid, label); } finally { leave(); }
+        }
     }
 
     public static void IFLE(int iid, int mid, int label) {
-        if (block.get()) return; else block.set(true);
-        try { intp.IFLE(iid, mid, label); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.IFLE(iid, mid, label); } finally { leave(); }
+        }
     }
 
     public static void IF_ICMPEQ(int iid, int mid, int label) {
-        if (block.get()) return; else block.set(true);
-        try { intp.IF_ICMPEQ(iid, mid, label); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.IF_ICMPEQ(iid, mid, label); } finally { leave(); }
+        }
     }
 
     public static void IF_ICMPNE(int iid, int mid, int label) {
-        if (block.get()) return; else block.set(true);
-        try { intp.IF_ICMPNE(iid, mid, label); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.IF_ICMPNE(iid, mid, label); } finally { leave(); }
+        }
     }
 
     public static void IF_ICMPLT(int iid, int mid, int label) {
-        if (block.get()) return; else block.set(true);
-        try { intp.IF_ICMPLT(iid, mid, label); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.IF_ICMPLT(iid, mid, label); } finally { leave(); }
+        }
     }
 
     public static void IF_ICMPGE(int iid, int mid, int label) {
-        if (block.get()) return; else block.set(true);
-        try { intp.IF_ICMPGE(iid, mid, label); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.IF_ICMPGE(iid, mid, label); } finally { leave(); }
+        }
     }
 
     public static void IF_ICMPGT(int iid, int mid, int label) {
-        if (block.get()) return; else block.set(true);
-        try { intp.IF_ICMPGT(iid, mid, label); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.IF_ICMPGT(iid, mid, label); } finally { leave(); }
+        }
     }
 
     public static void IF_ICMPLE(int iid, int mid, int label) {
-        if (block.get()) return; else block.set(true);
-        try { intp.IF_ICMPLE(iid, mid, label); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.IF_ICMPLE(iid, mid, label); } finally { leave(); }
+        }
     }
 
     public static void IF_ACMPEQ(int iid, int mid, int label) {
-        if (block.get()) return; else block.set(true);
-        try { intp.IF_ACMPEQ(iid, mid, label); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.IF_ACMPEQ(iid, mid, label); } finally { leave(); }
+        }
     }
 
     public static void IF_ACMPNE(int iid, int mid, int label) {
-        if (block.get()) return; else block.set(true);
-        try { intp.IF_ACMPNE(iid, mid, label); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.IF_ACMPNE(iid, mid, label); } finally { leave(); }
+        }
     }
 
     public static void GOTO(int iid, int mid, int label) {
-        if (block.get()) return; else block.set(true);
-        try { intp.GOTO(iid, mid, label); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.GOTO(iid, mid, label); } finally { leave(); }
+        }
     }
 
     public static void JSR(int iid, int mid, int label) {
-        if (block.get()) return; else block.set(true);
-        try { intp.JSR(iid, mid, label); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.JSR(iid, mid, label); } finally { leave(); }
+        }
     }
 
     public static void IFNULL(int iid, int mid, int label) {
-        if (block.get()) return; else block.set(true);
-        try { intp.IFNULL(iid, mid, label); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.IFNULL(iid, mid, label); } finally { leave(); }
+        }
     }
 
     public static void IFNONNULL(int iid, int mid, int label) {
-        if (block.get()) return; else block.set(true);
-        try { intp.IFNONNULL(iid, mid, label); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.IFNONNULL(iid, mid, label); } finally { leave(); }
+        }
     }
 
     public static void INVOKEVIRTUAL(int iid, int mid, String owner, String name, String desc) {
-        if (block.get()) return; else block.set(true);
-        try { intp.INVOKEVIRTUAL(iid, mid, owner, name, desc); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.INVOKEVIRTUAL(iid, mid, owner, name, desc); } finally { leave(); }
+        }
     }
 
     public static void INVOKESPECIAL(int iid, int mid, String owner, String name, String desc) {
-        if (block.get()) return; else block.set(true);
-        try { intp.INVOKESPECIAL(iid, mid, owner, name, desc); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.INVOKESPECIAL(iid, mid, owner, name, desc); } finally { leave(); }
+        }
     }
 
     public static void INVOKESTATIC(int iid, int mid, String owner, String name, String desc) {
-        if (block.get()) return; else block.set(true);
-        try { intp.INVOKESTATIC(iid, mid, owner, name, desc); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.INVOKESTATIC(iid, mid, owner, name, desc); } finally { leave(); }
+        }
     }
 
     public static void INVOKEINTERFACE(int iid, int mid, String owner, String name, String desc) {
-        if (block.get()) return; else block.set(true);
-        try { intp.INVOKEINTERFACE(iid, mid, owner, name, desc); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.INVOKEINTERFACE(iid, mid, owner, name, desc); } finally { leave(); }
+        }
     }
 
     public static void GETSTATIC(int iid, int mid, int cIdx, int fIdx, String desc) {
-        if (block.get()) return; else block.set(true);
-        try { intp.GETSTATIC(iid, mid, cIdx, fIdx, desc); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.GETSTATIC(iid, mid, cIdx, fIdx, desc); } finally { leave(); }
+        }
     }
 
     public static void PUTSTATIC(int iid, int mid, int cIdx, int fIdx, String desc) {
-        if (block.get()) return; else block.set(true);
-        try { intp.PUTSTATIC(iid, mid, cIdx, fIdx, desc); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.PUTSTATIC(iid, mid, cIdx, fIdx, desc); } finally { leave(); }
+        }
     }
 
     public static void GETFIELD(int iid, int mid, int cIdx, int fIdx, String desc) {
-        if (block.get()) return; else block.set(true);
-        try { intp.GETFIELD(iid, mid, cIdx, fIdx, desc); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.GETFIELD(iid, mid, cIdx, fIdx, desc); } finally { leave(); }
+        }
     }
 
     public static void PUTFIELD(int iid, int mid, int cIdx, int fIdx, String desc) {
-        if (block.get()) return; else block.set(true);
-        try { intp.PUTFIELD(iid, mid, cIdx, fIdx, desc); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.PUTFIELD(iid, mid, cIdx, fIdx, desc); } finally { leave(); }
+        }
     }
 
+    // The probes that check the event mask first leave the rest to a separate method, to stay small
+
     public static void HEAPLOAD1(Object object, String field, int iid, int mid) {
-        if (block.get()) return; else block.set(true);
-        try { intp.HEAPLOAD(iid, mid, System.identityHashCode(object), field); } finally { block.set(false); }
+        if ((eventMask & TraceEvent.READ_EVENTS) != 0) { // Otherwise, nobody is interested in reads
+            heapLoad(iid, mid, object, field);
+        }
     }
 
     public static void HEAPLOAD2(Object object, int idx, int iid, int mid) {
-        if (block.get()) return; else block.set(true);
-        try { intp.HEAPLOAD(iid, mid, System.identityHashCode(object), String.valueOf(idx)); } finally { block.set(false); }
+        if ((eventMask & TraceEvent.READ_EVENTS) != 0) { // Otherwise, nobody is interested in reads
+            heapLoad(iid, mid, object, idx);
+        }
+    }
+
+    private static void heapLoad(int iid, int mid, Object object, String field) {
+        if (enter()) {
+            try { intp.HEAPLOAD(iid, mid, System.identityHashCode(object), field); } finally { leave(); }
+        }
+    }
+
+    private static void heapLoad(int iid, int mid, Object object, int idx) {
+        if (enter()) {
+            try { intp.HEAPLOAD(iid, mid, System.identityHashCode(object), String.valueOf(idx)); } finally { leave(); }
+        }
     }
 
     public static void NEW(int iid, int mid, String type) {
-        if (block.get()) return; else block.set(true);
-        try { intp.NEW(iid, mid, type, 0); } finally { block.set(false); }
+        if ((eventMask & TraceEvent.ALLOC_EVENTS) != 0) { // Otherwise, nobody is interested in allocations
+            newObject(iid, mid, type);
+        }
+    }
+
+    private static void newObject(int iid, int mid, String type) {
+        if (enter()) {
+            try { intp.NEW(iid, mid, type, 0); } finally { leave(); }
+        }
     }
 
     public static void ANEWARRAY(int iid, int mid, String type) {
-        if (block.get()) return; else block.set(true);
-        try { intp.ANEWARRAY(iid, mid, type); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.ANEWARRAY(iid, mid, type); } finally { leave(); }
+        }
     }
 
     public static void CHECKCAST(int iid, int mid, String type) {
-        if (block.get()) return; else block.set(true);
-        try { intp.CHECKCAST(iid, mid, type); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.CHECKCAST(iid, mid, type); } finally { leave(); }
+        }
     }
 
     public static void INSTANCEOF(int iid, int mid, String type) {
-        if (block.get()) return; else block.set(true);
-        try { intp.INSTANCEOF(iid, mid, type); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.INSTANCEOF(iid, mid, type); } finally { leave(); }
+        }
     }
 
     public static void BIPUSH(int iid, int mid, int value) {
-        if (block.get()) return; else block.set(true);
-        try { intp.BIPUSH(iid, mid, value); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.BIPUSH(iid, mid, value); } finally { leave(); }
+        }
     }
 
     public static void SIPUSH(int iid, int mid, int value) {
-        if (block.get()) return; else block.set(true);
-        try { intp.SIPUSH(iid, mid, value); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.SIPUSH(iid, mid, value); } finally { leave(); }
+        }
     }
 
     public static void NEWARRAY(int iid, int mid) {
-        if (block.get()) return; else block.set(true);
-        try { intp.NEWARRAY(iid, mid); } finally { block.set(false); }
+        if ((eventMask & TraceEvent.ALLOC_EVENTS) != 0) { // Otherwise, nobody is interested in allocations
+            newArray(iid, mid);
+        }
+    }
+
+    private static void newArray(int iid, int mid) {
+        if (enter()) {
+            try { intp.NEWARRAY(iid, mid); } finally { leave(); }
+        }
     }
 
     public static void ILOAD(int iid, int mid, int var) {
-        if (block.get()) return; else block.set(true);
-        try { intp.ILOAD(iid, mid, var); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.ILOAD(iid, mid, var); } finally { leave(); }
+        }
     }
 
     public static void LLOAD(int iid, int mid, int var) {
-        if (block.get()) return; else block.set(true);
-        try { intp.LLOAD(iid, mid, var); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.LLOAD(iid, mid, var); } finally { leave(); }
+        }
     }
 
     public static void FLOAD(int iid, int mid, int var) {
-        if (block.get()) return; else block.set(true);
-        try { intp.FLOAD(iid, mid, var); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.FLOAD(iid, mid, var); } finally { leave(); }
+        }
     }
 
     public static void DLOAD(int iid, int mid, int var) {
-        if (block.get()) return; else block.set(true);
-        try { intp.DLOAD(iid, mid, var); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.DLOAD(iid, mid, var); } finally { leave(); }
+        }
     }
 
     public static void ALOAD(int iid, int mid, int var) {
-        if (block.get()) return; else block.set(true);
-        try { intp.ALOAD(iid, mid, var); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.ALOAD(iid, mid, var); } finally { leave(); }
+        }
     }
 
     public static void ISTORE(int iid, int mid, int var) {
-        if (block.get()) return; else block.set(true);
-        try { intp.ISTORE(iid, mid, var); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.ISTORE(iid, mid, var); } finally { leave(); }
+        }
     }
 
     public static void LSTORE(int iid, int mid, int var) {
-        if (block.get()) return; else block.set(true);
-        try { intp.LSTORE(iid, mid, var); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.LSTORE(iid, mid, var); } finally { leave(); }
+        }
     }
 
     public static void FSTORE(int iid, int mid, int var) {
-        if (block.get()) return; else block.set(true);
-        try { intp.FSTORE(iid, mid, var); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.FSTORE(iid, mid, var); } finally { leave(); }
+        }
     }
 
     public static void DSTORE(int iid, int mid, int var) {
-        if (block.get()) return; else block.set(true);
-        try { intp.DSTORE(iid, mid, var); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.DSTORE(iid, mid, var); } finally { leave(); }
+        }
     }
 
     public static void ASTORE(int iid, int mid, int var) {
-        if (block.get()) return; else block.set(true);
-        try { intp.ASTORE(iid, mid, var); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.ASTORE(iid, mid, var); } finally { leave(); }
+        }
     }
 
     public static void RET(int iid, int mid, int var) {
-        if (block.get()) return; else block.set(true);
-        try { intp.RET(iid, mid, var); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.RET(iid, mid, var); } finally { leave(); }
+        }
     }
 
     public static void NOP(int iid, int mid) {
-        if (block.get()) return; else block.set(true);
-        try { intp.NOP(iid, mid); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.NOP(iid, mid); } finally { leave(); }
+        }
     }
 
     public static void ACONST_NULL(int iid, int mid) {
-        if (block.get()) return; else block.set(true);
-        try { intp.ACONST_NULL(iid, mid); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.ACONST_NULL(iid, mid); } finally { leave(); }
+        }
     }
 
     public static void ICONST_M1(int iid, int mid) {
-        if (block.get()) return; else block.set(true);
-        try { intp.ICONST_M1(iid, mid); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.ICONST_M1(iid, mid); } finally { leave(); }
+        }
     }
 
     public static void ICONST_0(int iid, int mid) {
-        if (block.get()) return; else block.set(true);
-        try { intp.ICONST_0(iid, mid); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.ICONST_0(iid, mid); } finally { leave(); }
+        }
     }
 
     public static void ICONST_1(int iid, int mid) {
-        if (block.get()) return; else block.set(true);
-        try { intp.ICONST_1(iid, mid); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.ICONST_1(iid, mid); } finally { leave(); }
+        }
     }
 
     public static void ICONST_2(int iid, int mid) {
-        if (block.get()) return; else block.set(true);
-        try { intp.ICONST_2(iid, mid); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.ICONST_2(iid, mid); } finally { leave(); }
+        }
     }
 
     public static void ICONST_3(int iid, int mid) {
-        if (block.get()) return; else block.set(true);
-        try { intp.ICONST_3(iid, mid); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.ICONST_3(iid, mid); } finally { leave(); }
+        }
     }
 
     public static void ICONST_4(int iid, int mid) {
-        if (block.get()) return; else block.set(true);
-        try { intp.ICONST_4(iid, mid); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.ICONST_4(iid, mid); } finally { leave(); }
+        }
     }
 
     public static void ICONST_5(int iid, int mid) {
-        if (block.get()) return; else block.set(true);
-        try { intp.ICONST_5(iid, mid); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.ICONST_5(iid, mid); } finally { leave(); }
+        }
     }
 
     public static void LCONST_0(int iid, int mid) {
-        if (block.get()) return; else block.set(true);
-        try { intp.LCONST_0(iid, mid); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.LCONST_0(iid, mid); } finally { leave(); }
+        }
     }
 
     public static void LCONST_1(int iid, int mid) {
-        if (block.get()) return; else block.set(true);
-        try { intp.LCONST_1(iid, mid); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.LCONST_1(iid, mid); } finally { leave(); }
+        }
     }
 
     public static void FCONST_0(int iid, int mid) {
-        if (block.get()) return; else block.set(true);
-        try { intp.FCONST_0(iid, mid); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.FCONST_0(iid, mid); } finally { leave(); }
+        }
     }
 
     public static void FCONST_1(int iid, int mid) {
-        if (block.get()) return; else block.set(true);
-        try { intp.FCONST_1(iid, mid); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.FCONST_1(iid, mid); } finally { leave(); }
+        }
     }
 
     public static void FCONST_2(int iid, int mid) {
-        if (block.get()) return; else block.set(true);
-        try { intp.FCONST_2(iid, mid); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.FCONST_2(iid, mid); } finally { leave(); }
+        }
     }
 
     public static void DCONST_0(int iid, int mid) {
-        if (block.get()) return; else block.set(true);
-        try { intp.DCONST_0(iid, mid); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.DCONST_0(iid, mid); } finally { leave(); }
+        }
     }
 
     public static void DCONST_1(int iid, int mid) {
-        if (block.get()) return; else block.set(true);
-        try { intp.DCONST_1(iid, mid); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.DCONST_1(iid, mid); } finally { leave(); }
+        }
     }
 
     public static void IALOAD(int iid, int mid) {
-        if (block.get()) return; else block.set(true);
-        try { intp.IALOAD(iid, mid); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.IALOAD(iid, mid); } finally { leave(); }
+        }
     }
 
     public static void LALOAD(int iid, int mid) {
-        if (block.get()) return; else block.set(true);
-        try { intp.LALOAD(iid, mid); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.LALOAD(iid, mid); } finally { leave(); }
+        }
     }
 
     public static void FALOAD(int iid, int mid) {
-        if (block.get()) return; else block.set(true);
-        try { intp.FALOAD(iid, mid); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.FALOAD(iid, mid); } finally { leave(); }
+        }
     }
 
     public static void DALOAD(int iid, int mid) {
-        if (block.get()) return; else block.set(true);
-        try { intp.DALOAD(iid, mid); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.DALOAD(iid, mid); } finally { leave(); }
+        }
     }
 
     public static void AALOAD(int iid, int mid) {
-        if (block.get()) return; else block.set(true);
-        try { intp.AALOAD(iid, mid); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.AALOAD(iid, mid); } finally { leave(); }
+        }
     }
 
     public static void BALOAD(int iid, int mid) {
-        if (block.get()) return; else block.set(true);
-        try { intp.BALOAD(iid, mid); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.BALOAD(iid, mid); } finally { leave(); }
+        }
     }
 
     public static void CALOAD(int iid, int mid) {
-        if (block.get()) return; else block.set(true);
-        try { intp.CALOAD(iid, mid); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.CALOAD(iid, mid); } finally { leave(); }
+        }
     }
 
     public static void SALOAD(int iid, int mid) {
-        if (block.get()) return; else block.set(true);
-        try { intp.SALOAD(iid, mid); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.SALOAD(iid, mid); } finally { leave(); }
+        }
     }
 
     public static void IASTORE(int iid, int mid) {
-        if (block.get()) return; else block.set(true);
-        try { intp.IASTORE(iid, mid); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.IASTORE(iid, mid); } finally { leave(); }
+        }
     }
 
     public static void LASTORE(int iid, int mid) {
-        if (block.get()) return; else block.set(true);
-        try { intp.LASTORE(iid, mid); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.LASTORE(iid, mid); } finally { leave(); }
+        }
     }
 
     public static void FASTORE(int iid, int mid) {
-        if (block.get()) return; else block.set(true);
-        try { intp.FASTORE(iid, mid); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.FASTORE(iid, mid); } finally { leave(); }
+        }
     }
 
     public static void DASTORE(int iid, int mid) {
-        if (block.get()) return; else block.set(true);
-        try { intp.DASTORE(iid, mid); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.DASTORE(iid, mid); } finally { leave(); }
+        }
     }
 
     public static void AASTORE(int iid, int mid) {
-        if (block.get()) return; else block.set(true);
-        try { intp.AASTORE(iid, mid); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.AASTORE(iid, mid); } finally { leave(); }
+        }
     }
 
     public static void BASTORE(int iid, int mid) {
-        if (block.get()) return; else block.set(true);
-        try { intp.BASTORE(iid, mid); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.BASTORE(iid, mid); } finally { leave(); }
+        }
     }
 
     public static void CASTORE(int iid, int mid) {
-        if (block.get()) return; else block.set(true);
-        try { intp.CASTORE(iid, mid); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.CASTORE(iid, mid); } finally { leave(); }
+        }
     }
 
     public static void SASTORE(int iid, int mid) {
-        if (block.get()) return; else block.set(true);
-        try { intp.SASTORE(iid, mid); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.SASTORE(iid, mid); } finally { leave(); }
+        }
     }
 
     public static void POP(int iid, int mid) {
-        if (block.get()) return; else block.set(true);
-        try { intp.POP(iid, mid); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.POP(iid, mid); } finally { leave(); }
+        }
     }
 
     public static void POP2(int iid, int mid) {
-        if (block.get()) return; else block.set(true);
-        try { intp.POP2(iid, mid); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.POP2(iid, mid); } finally { leave(); }
+        }
     }
 
     public static void DUP(int iid, int mid) {
-        if (block.get()) return; else block.set(true);
-        try { intp.DUP(iid, mid); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.DUP(iid, mid); } finally { leave(); }
+        }
     }
 
     public static void DUP_X1(int iid, int mid) {
-        if (block.get()) return; else block.set(true);
-        try { intp.DUP_X1(iid, mid); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.DUP_X1(iid, mid); } finally { leave(); }
+        }
     }
 
     public static void DUP_X2(int iid, int mid) {
-        if (block.get()) return; else block.set(true);
-        try { intp.DUP_X2(iid, mid); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.DUP_X2(iid, mid); } finally { leave(); }
+        }
     }
 
     public static void DUP2(int iid, int mid) {
-        if (block.get()) return; else block.set(true);
-        try { intp.DUP2(iid, mid); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.DUP2(iid, mid); } finally { leave(); }
+        }
     }
 
     public static void DUP2_X1(int iid, int mid) {
-        if (block.get()) return; else block.set(true);
-        try { intp.DUP2_X1(iid, mid); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.DUP2_X1(iid, mid); } finally { leave(); }
+        }
     }
 
     public static void DUP2_X2(int iid, int mid) {
-        if (block.get()) return; else block.set(true);
-        try { intp.DUP2_X2(iid, mid); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.DUP2_X2(iid, mid); } finally { leave(); }
+        }
     }
 
     public static void SWAP(int iid, int mid) {
-        if (block.get()) return; else block.set(true);
-        try { intp.SWAP(iid, mid); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.SWAP(iid, mid); } finally { leave(); }
+        }
     }
 
     public static void IADD(int iid, int mid) {
-        if (block.get()) return; else block.set(true);
-        try { intp.IADD(iid, mid); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.IADD(iid, mid); } finally { leave(); }
+        }
     }
 
     public static void LADD(int iid, int mid) {
-        if (block.get()) return; else block.set(true);
-        try { intp.LADD(iid, mid); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.LADD(iid, mid); } finally { leave(); }
+        }
     }
 
     public static void FADD(int iid, int mid) {
-        if (block.get()) return; else block.set(true);
-        try { intp.FADD(iid, mid); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.FADD(iid, mid); } finally { leave(); }
+        }
     }
 
     public static void DADD(int iid, int mid) {
-        if (block.get()) return; else block.set(true);
-        try { intp.DADD(iid, mid); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.DADD(iid, mid); } finally { leave(); }
+        }
     }
 
     public static void ISUB(int iid, int mid) {
-        if (block.get()) return; else block.set(true);
-        try { intp.ISUB(iid, mid); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.ISUB(iid, mid); } finally { leave(); }
+        }
     }
 
     public static void LSUB(int iid, int mid) {
-        if (block.get()) return; else block.set(true);
-        try { intp.LSUB(iid, mid); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.LSUB(iid, mid); } finally { leave(); }
+        }
     }
 
     public static void FSUB(int iid, int mid) {
-        if (block.get()) return; else block.set(true);
-        try { intp.FSUB(iid, mid); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.FSUB(iid, mid); } finally { leave(); }
+        }
     }
 
     public static void DSUB(int iid, int mid) {
-        if (block.get()) return; else block.set(true);
-        try { intp.DSUB(iid, mid); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.DSUB(iid, mid); } finally { leave(); }
+        }
     }
 
     public static void IMUL(int iid, int mid) {
-        if (block.get()) return; else block.set(true);
-        try { intp.IMUL(iid, mid); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.IMUL(iid, mid); } finally { leave(); }
+        }
     }
 
     public static void LMUL(int iid, int mid) {
-        if (block.get()) return; else block.set(true);
-        try { intp.LMUL(iid, mid); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.LMUL(iid, mid); } finally { leave(); }
+        }
     }
 
     public static void FMUL(int iid, int mid) {
-        if (block.get()) return; else block.set(true);
-        try { intp.FMUL(iid, mid); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.FMUL(iid, mid); } finally { leave(); }
+        }
     }
 
     public static void DMUL(int iid, int mid) {
-        if (block.get()) return; else block.set(true);
-        try { intp.DMUL(iid, mid); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.DMUL(iid, mid); } finally { leave(); }
+        }
     }
 
     public static void IDIV(int iid, int mid) {
-        if (block.get()) return; else block.set(true);
-        try { intp.IDIV(iid, mid); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.IDIV(iid, mid); } finally { leave(); }
+        }
     }
 
     public static void LDIV(int iid, int mid) {
-        if (block.get()) return; else block.set(true);
-        try { intp.LDIV(iid, mid); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.LDIV(iid, mid); } finally { leave(); }
+        }
     }
 
     public static void FDIV(int iid, int mid) {
-        if (block.get()) return; else block.set(true);
-        try { intp.FDIV(iid, mid); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.FDIV(iid, mid); } finally { leave(); }
+        }
     }
 
     public static void DDIV(int iid, int mid) {
-        if (block.get()) return; else block.set(true);
-        try { intp.DDIV(iid, mid); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.DDIV(iid, mid); } finally { leave(); }
+        }
     }
 
     public static void IREM(int iid, int mid) {
-        if (block.get()) return; else block.set(true);
-        try { intp.IREM(iid, mid); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.IREM(iid, mid); } finally { leave(); }
+        }
     }
 
     public static void LREM(int iid, int mid) {
-        if (block.get()) return; else block.set(true);
-        try { intp.LREM(iid, mid); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.LREM(iid, mid); } finally { leave(); }
+        }
     }
 
     public static void FREM(int iid, int mid) {
-        if (block.get()) return; else block.set(true);
-        try { intp.FREM(iid, mid); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.FREM(iid, mid); } finally { leave(); }
+        }
     }
 
     public static void DREM(int iid, int mid) {
-        if (block.get()) return; else block.set(true);
-        try { intp.DREM(iid, mid); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.DREM(iid, mid); } finally { leave(); }
+        }
     }
 
     public static void INEG(int iid, int mid) {
-        if (block.get()) return; else block.set(true);
-        try { intp.INEG(iid, mid); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.INEG(iid, mid); } finally { leave(); }
+        }
     }
 
     public static void LNEG(int iid, int mid) {
-        if (block.get()) return; else block.set(true);
-        try { intp.LNEG(iid, mid); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.LNEG(iid, mid); } finally { leave(); }
+        }
     }
 
     public static void FNEG(int iid, int mid) {
-        if (block.get()) return; else block.set(true);
-        try { intp.FNEG(iid, mid); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.FNEG(iid, mid); } finally { leave(); }
+        }
     }
 
     public static void DNEG(int iid, int mid) {
-        if (block.get()) return; else block.set(true);
-        try { intp.DNEG(iid, mid); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.DNEG(iid, mid); } finally { leave(); }
+        }
     }
 
     public static void ISHL(int iid, int mid) {
-        if (block.get()) return; else block.set(true);
-        try { intp.ISHL(iid, mid); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.ISHL(iid, mid); } finally { leave(); }
+        }
     }
 
     public static void LSHL(int iid, int mid) {
-        if (block.get()) return; else block.set(true);
-        try { intp.LSHL(iid, mid); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.LSHL(iid, mid); } finally { leave(); }
+        }
     }
 
     public static void ISHR(int iid, int mid) {
-        if (block.get()) return; else block.set(true);
-        try { intp.ISHR(iid, mid); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.ISHR(iid, mid); } finally { leave(); }
+        }
     }
 
     public static void LSHR(int iid, int mid) {
-        if (block.get()) return; else block.set(true);
-        try { intp.LSHR(iid, mid); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.LSHR(iid, mid); } finally { leave(); }
+        }
     }
 
     public static void IUSHR(int iid, int mid) {
-        if (block.get()) return; else block.set(true);
-        try { intp.IUSHR(iid, mid); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.IUSHR(iid, mid); } finally { leave(); }
+        }
     }
 
     public static void LUSHR(int iid, int mid) {
-        if (block.get()) return; else block.set(true);
-        try { intp.LUSHR(iid, mid); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.LUSHR(iid, mid); } finally { leave(); }
+        }
     }
 
     public static void IAND(int iid, int mid) {
-        if (block.get()) return; else block.set(true);
-        try { intp.IAND(iid, mid); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.IAND(iid, mid); } finally { leave(); }
+        }
     }
 
     public static void LAND(int iid, int mid) {
-        if (block.get()) return; else block.set(true);
-        try { intp.LAND(iid, mid); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.LAND(iid, mid); } finally { leave(); }
+        }
     }
 
     public static void IOR(int iid, int mid) {
-        if (block.get()) return; else block.set(true);
-        try { intp.IOR(iid, mid); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.IOR(iid, mid); } finally { leave(); }
+        }
     }
 
     public static void LOR(int iid, int mid) {
-        if (block.get()) return; else block.set(true);
-        try { intp.LOR(iid, mid); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.LOR(iid, mid); } finally { leave(); }
+        }
     }
 
     public static void IXOR(int iid, int mid) {
-        if (block.get()) return; else block.set(true);
-        try { intp.IXOR(iid, mid); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.IXOR(iid, mid); } finally { leave(); }
+        }
     }
 
     public static void LXOR(int iid, int mid) {
-        if (block.get()) return; else block.set(true);
-        try { intp.LXOR(iid, mid); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.LXOR(iid, mid); } finally { leave(); }
+        }
     }
 
     public static void I2L(int iid, int mid) {
-        if (block.get()) return; else block.set(true);
-        try { intp.I2L(iid, mid); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.I2L(iid, mid); } finally { leave(); }
+        }
     }
 
     public static void I2F(int iid, int mid) {
-        if (block.get()) return; else block.set(true);
-        try { intp.I2F(iid, mid); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.I2F(iid, mid); } finally { leave(); }
+        }
     }
 
     public static void I2D(int iid, int mid) {
-        if (block.get()) return; else block.set(true);
-        try { intp.I2D(iid, mid); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.I2D(iid, mid); } finally { leave(); }
+        }
     }
 
     public static void L2I(int iid, int mid) {
-        if (block.get()) return; else block.set(true);
-        try { intp.L2I(iid, mid); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.L2I(iid, mid); } finally { leave(); }
+        }
     }
 
     public static void L2F(int iid, int mid) {
-        if (block.get()) return; else block.set(true);
-        try { intp.L2F(iid, mid); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.L2F(iid, mid); } finally { leave(); }
+        }
     }
 
     public static void L2D(int iid, int mid) {
-        if (block.get()) return; else block.set(true);
-        try { intp.L2D(iid, mid); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.L2D(iid, mid); } finally { leave(); }
+        }
     }
 
     public static void F2I(int iid, int mid) {
-        if (block.get()) return; else block.set(true);
-        try { intp.F2I(iid, mid); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.F2I(iid, mid); } finally { leave(); }
+        }
     }
 
     public static void F2L(int iid, int mid) {
-        if (block.get()) return; else block.set(true);
-        try { intp.F2L(iid, mid); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.F2L(iid, mid); } finally { leave(); }
+        }
     }
 
     public static void F2D(int iid, int mid) {
-        if (block.get()) return; else block.set(true);
-        try { intp.F2D(iid, mid); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.F2D(iid, mid); } finally { leave(); }
+        }
     }
 
     public static void D2I(int iid, int mid) {
-        if (block.get()) return; else block.set(true);
-        try { intp.D2I(iid, mid); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.D2I(iid, mid); } finally { leave(); }
+        }
     }
 
     public static void D2L(int iid, int mid) {
-        if (block.get()) return; else block.set(true);
-        try { intp.D2L(iid, mid); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.D2L(iid, mid); } finally { leave(); }
+        }
     }
 
     public static void D2F(int iid, int mid) {
-        if (block.get()) return; else block.set(true);
-        try { intp.D2F(iid, mid); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.D2F(iid, mid); } finally { leave(); }
+        }
     }
 
     public static void I2B(int iid, int mid) {
-        if (block.get()) return; else block.set(true);
-        try { intp.I2B(iid, mid); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.I2B(iid, mid); } finally { leave(); }
+        }
     }
 
     public static void I2C(int iid, int mid) {
-        if (block.get()) return; else block.set(true);
-        try { intp.I2C(iid, mid); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.I2C(iid, mid); } finally { leave(); }
+        }
     }
 
     public static void I2S(int iid, int mid) {
-        if (block.get()) return; else block.set(true);
-        try { intp.I2S(iid, mid); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.I2S(iid, mid); } finally { leave(); }
+        }
     }
 
     public static void LCMP(int iid, int mid) {
-        if (block.get()) return; else block.set(true);
-        try { intp.LCMP(iid, mid); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.LCMP(iid, mid); } finally { leave(); }
+        }
     }
 
     public static void FCMPL(int iid, int mid) {
-        if (block.get()) return; else block.set(true);
-        try { intp.FCMPL(iid, mid); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.FCMPL(iid, mid); } finally { leave(); }
+        }
     }
 
     public static void FCMPG(int iid, int mid) {
-        if (block.get()) return; else block.set(true);
-        try { intp.FCMPG(iid, mid); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.FCMPG(iid, mid); } finally { leave(); }
+        }
     }
 
     public static void DCMPL(int iid, int mid) {
-        if (block.get()) return; else block.set(true);
-        try { intp.DCMPL(iid, mid); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.DCMPL(iid, mid); } finally { leave(); }
+        }
     }
 
     public static void DCMPG(int iid, int mid) {
-        if (block.get()) return; else block.set(true);
-        try { intp.DCMPG(iid, mid); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.DCMPG(iid, mid); } finally { leave(); }
+        }
     }
 
     public static void IRETURN(int iid, int mid) {
-        if (block.get()) return; else block.set(true);
-        try { intp.IRETURN(iid, mid); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.IRETURN(iid, mid); } finally { leave(); }
+        }
     }
 
     public static void LRETURN(int iid, int mid) {
-        if (block.get()) return; else block.set(true);
-        try { intp.LRETURN(iid, mid); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.LRETURN(iid, mid); } finally { leave(); }
+        }
     }
 
     public static void FRETURN(int iid, int mid) {
-        if (block.get()) return; else block.set(true);
-        try { intp.FRETURN(iid, mid); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.FRETURN(iid, mid); } finally { leave(); }
+        }
     }
 
     public static void DRETURN(int iid, int mid) {
-        if (block.get()) return; else block.set(true);
-        try { intp.DRETURN(iid, mid); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.DRETURN(iid, mid); } finally { leave(); }
+        }
     }
 
     public static void ARETURN(int iid, int mid) {
-        if (block.get()) return; else block.set(true);
-        try { intp.ARETURN(iid, mid); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.ARETURN(iid, mid); } finally { leave(); }
+        }
     }
 
     public static void RETURN(int iid, int mid) {
-        if (block.get()) return; else block.set(true);
-        try { intp.RETURN(iid, mid); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.RETURN(iid, mid); } finally { leave(); }
+        }
     }
 
     public static void ARRAYLENGTH(int iid, int mid) {
-        if (block.get()) return; else block.set(true);
-        try { intp.ARRAYLENGTH(iid, mid); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.ARRAYLENGTH(iid, mid); } finally { leave(); }
+        }
     }
 
     public static void ATHROW(int iid, int mid) {
-        if (block.get()) return; else block.set(true);
-        try { intp.ATHROW(iid, mid); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.ATHROW(iid, mid); } finally { leave(); }
+        }
     }
 
     public static void MONITORENTER(int iid, int mid) {
-        if (block.get()) return; else block.set(true);
-        try { intp.MONITORENTER(iid, mid); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.MONITORENTER(iid, mid); } finally { leave(); }
+        }
     }
 
     public static void MONITOREXIT(int iid, int mid) {
-        if (block.get()) return; else block.set(true);
-        try { intp.MONITOREXIT(iid, mid); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.MONITOREXIT(iid, mid); } finally { leave(); }
+        }
     }
 
     public static void GETVALUE_double(double v) {
-        if (block.get()) return; else block.set(true);
-        try { intp.GETVALUE_double(v); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.GETVALUE_double(v); } finally { leave(); }
+        }
     }
 
     public static void GETVALUE_long(long v) {
-        if (block.get()) return; else block.set(true);
-        try { intp.GETVALUE_long(v); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.GETVALUE_long(v); } finally { leave(); }
+        }
     }
 
     public static void GETVALUE_Object(Object v) {
-        if (block.get()) return; else block.set(true);
-        try { intp.GETVALUE_Object(v); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.GETVALUE_Object(v); } finally { leave(); }
+        }
     }
 
     public static void GETVALUE_boolean(boolean v) {
-        if (block.get()) return; else block.set(true);
-        try { intp.GETVALUE_boolean(v); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.GETVALUE_boolean(v); } finally { leave(); }
+        }
     }
 
     public static void GETVALUE_byte(byte v) {
-        if (block.get()) return; else block.set(true);
-        try { intp.GETVALUE_byte(v); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.GETVALUE_byte(v); } finally { leave(); }
+        }
     }
 
     public static void GETVALUE_char(char v) {
-        if (block.get()) return; else block.set(true);
-        try { intp.GETVALUE_char(v); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.GETVALUE_char(v); } finally { leave(); }
+        }
     }
 
     public static void GETVALUE_float(float v) {
-        if (block.get()) return; else block.set(true);
-        try { intp.GETVALUE_float(v); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.GETVALUE_float(v); } finally { leave(); }
+        }
     }
 
     public static void GETVALUE_int(int v) {
-        if (block.get()) return; else block.set(true);
-        try { intp.GETVALUE_int(v); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.GETVALUE_int(v); } finally { leave(); }
+        }
     }
 
     public static void GETVALUE_short(short v) {
-        if (block.get()) return; else block.set(true);
-        try { intp.GETVALUE_short(v); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.GETVALUE_short(v); } finally { leave(); }
+        }
     }
 
     public static void GETVALUE_void() {
-        if (block.get()) return; else block.set(true);
-        try { intp.GETVALUE_void(); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.GETVALUE_void(); } finally { leave(); }
+        }
     }
 
     public static void METHOD_BEGIN(String className, String methodName, String desc) {
-        if (block.get()) return; else block.set(true);
-        try { intp.METHOD_BEGIN(className, methodName, desc); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.METHOD_BEGIN(className, methodName, desc); } finally { leave(); }
+        }
     }
 
     public static void METHOD_THROW() {
-        if (block.get()) return; else block.set(true);
-        try { intp.METHOD_THROW(); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.METHOD_THROW(); } finally { leave(); }
+        }
     }
 
     public static void INVOKEMETHOD_EXCEPTION(Throwable err) {
-        if (block.get()) return; else block.set(true);
-        try { intp.INVOKEMETHOD_EXCEPTION(err); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.INVOKEMETHOD_EXCEPTION(err); } finally { leave(); }
+        }
     }
 
     public static void INVOKEMETHOD_END() {
-        if (block.get()) return; else block.set(true);
-        try { intp.INVOKEMETHOD_END(); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.INVOKEMETHOD_END(); } finally { leave(); }
+        }
     }
 
     public static void SPECIAL(int i) {
-        if (block.get()) return; else block.set(true);
-        try { intp.SPECIAL(i); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.SPECIAL(i); } finally { leave(); }
+        }
     }
 
     public static void MAKE_SYMBOLIC() {
-        if (block.get()) return; else block.set(true);
-        try { intp.MAKE_SYMBOLIC(); } finally { block.set(false); }
+        if (enter()) {
+            try { intp.MAKE_SYMBOLIC(); } finally { leave(); }
+        }
     }
 
     public static void flush() {
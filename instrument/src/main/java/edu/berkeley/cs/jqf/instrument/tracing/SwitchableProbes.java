@@ -0,0 +1,220 @@
+/*
+ * Copyright (c) 2017-2018 The Regents of the University of California
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package edu.berkeley.cs.jqf.instrument.tracing;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.MutableCallSite;
+import java.util.Arrays;
+
+/**
+ * Branch probes that can be switched off at runtime.
+ *
+ * <p>When classes are instrumented with {@code janala.switchableProbes=true},
+ * each branch-arm probe is an {@code invokedynamic} instruction that is linked
+ * by {@link #bootstrap} to a {@link MutableCallSite}. While a probe is enabled,
+ * the call site invokes the analysis class's {@code BRANCH} method with the
+ * probe's constant arguments. Once it is disabled, the call site's target is
+ * an empty method handle, which the JIT compiler inlines away, so that a
+ * disabled probe costs nothing without the class having to be re-transformed.</p>
+ *
+ * <p>Probes are identified by their slot, i.e. the probe ID of the branch plus
+ * the arm index, which is the same slot that coverage maps use. The probes
+ * of all arms of a branch occupy a contiguous range of slots. A probe that
+ * is disabled before its class is linked starts out disabled.</p>
+ *
+ * <p>Unless {@code jqf.tracing.TRACE_GENERATORS} is set, the tracer ignores
+ * events from within generators anyway, so probes in subclasses of
+ * junit-quickcheck's {@code Generator} start out disabled.</p>
+ *
+ * <p>Changes to a probe's target are not synchronized with threads that are
+ * currently running instrumented code, so a probe may remain active for a
+ * short while after it has been disabled.</p>
+ */
+public final class SwitchableProbes {
+
+    private static final String GENERATOR_CLASS = "com.pholser.junit.quickcheck.generator.Generator";
+
+    private static final boolean traceGenerators = Boolean.getBoolean("jqf.tracing.TRACE_GENERATORS");
+
+    private static final MethodHandle NO_OP = MethodHandles.empty(MethodType.methodType(void.class));
+
+    // Indexed by slot: the call site of each linked probe, and its target when enabled
+    private static MutableCallSite[] sites = new MutableCallSite[0];
+    private static MethodHandle[] targets = new MethodHandle[0];
+
+    // Indexed by slot: the range of slots of the branch that each linked probe belongs to
+    private static int[] branchStarts = new int[0];
+    private static int[] branchEnds = new int[0];
+
+    // Indexed by slot: whether the probe is disabled, even if it has not been linked yet
+    private static boolean[] disabled = new boolean[0];
+
+    private SwitchableProbes() {}
+
+    /**
+     * Links a switchable branch probe. This method is invoked by the JVM
+     * the first time an instrumented {@code invokedynamic} probe is executed.
+     *
+     * @param caller the lookup of the instrumented class
+     * @param name the name of the probe
+     * @param type the type of the call site, which must be {@code ()V}
+     * @param probe the probe method, which takes the branch ID, line number and arm
+     * @param iid the probe ID of the branch
+     * @param lineNumber the line number of the branch
+     * @param arm the arm of the branch that the probe records
+     * @param minArm the lowest arm of the branch
+     * @param maxArm the highest arm of the branch
+     * @return the call site for the probe
+     */
+    public static CallSite bootstrap(MethodHandles.Lookup caller, String name, MethodType type,
+                                     MethodHandle probe, int iid, int lineNumber, int arm,
+                                     int minArm, int maxArm) {
+        int slot = iid + arm;
+        synchronized (SwitchableProbes.class) {
+            ensureCapacity(slot + 1);
+            if (sites[slot] == null) {
+                if (traceGenerators == false && isGenerator(caller.lookupClass())) {
+                    disabled[slot] = true;
+                }
+                MethodHandle target = MethodHandles.insertArguments(probe, 0, iid, lineNumber, arm);
+                targets[slot] = target;
+                branchStarts[slot] = iid + minArm;
+                branchEnds[slot] = iid + maxArm + 1;
+                sites[slot] = new MutableCallSite(disabled[slot] ? NO_OP : target);
+            }
+            // A class that is loaded more than once shares its call sites
+            return sites[slot];
+        }
+    }
+
+    /**
+     * Disables the probe for the given slot.
+     *
+     * @param slot the slot of the probe
+     */
+    public static synchronized void disable(int slot) {
+        ensureCapacity(slot + 1);
+        disabled[slot] = true;
+        if (sites[slot] != null) {
+            sites[slot].setTarget(NO_OP);
+        }
+    }
+
+    /**
+     * Re-enables the probe for the given slot.
+     *
+     * @param slot the slot of the probe
+     */
+    public static synchronized void enable(int slot) {
+        if (slot < disabled.length) {
+            disabled[slot] = false;
+            if (sites[slot] != null) {
+                sites[slot].setTarget(targets[slot]);
+            }
+        }
+    }
+
+    /**
+     * Returns whether the probe for the given slot has been linked as a
+     * switchable probe, i.e. whether disabling it has any effect.
+     *
+     * @param slot the slot of the probe
+     * @return whether the probe is switchable
+     */
+    public static synchronized boolean isSwitchable(int slot) {
+        return slot < sites.length && sites[slot] != null;
+    }
+
+    /**
+     * Returns the first slot of the branch that the probe for the given
+     * slot belongs to.
+     *
+     * @param slot the slot of a switchable probe
+     * @return the first slot of the probe's branch
+     * @see #isSwitchable(int)
+     */
+    public static synchronized int getBranchStart(int slot) {
+        return branchStarts[slot];
+    }
+
+    /**
+     * Returns one more than the last slot of the branch that the probe
+     * for the given slot belongs to.
+     *
+     * @param slot the slot of a switchable probe
+     * @return the end of the range of slots of the probe's branch
+     * @see #isSwitchable(int)
+     */
+    public static synchronized int getBranchEnd(int slot) {
+        return branchEnds[slot];
+    }
+
+    /**
+     * Returns an upper bound on the slots of probes that have been linked.
+     *
+     * @return one more than the highest slot that may be switchable
+     */
+    public static synchronized int size() {
+        return sites.length;
+    }
+
+    /**
+     * Returns whether the probe for the given slot is disabled.
+     *
+     * @param slot the slot of the probe
+     * @return whether the probe is disabled
+     */
+    public static synchronized boolean isDisabled(int slot) {
+        return slot < disabled.length && disabled[slot];
+    }
+
+    private static void ensureCapacity(int size) {
+        if (size > sites.length) {
+            int capacity = Math.max(size, sites.length * 2);
+            sites = Arrays.copyOf(sites, capacity);
+            targets = Arrays.copyOf(targets, capacity);
+            branchStarts = Arrays.copyOf(branchStarts, capacity);
+            branchEnds = Arrays.copyOf(branchEnds, capacity);
+            disabled = Arrays.copyOf(disabled, capacity);
+        }
+    }
+
+    private static boolean isGenerator(Class<?> clazz) {
+        for (Class<?> c = clazz; c != null; c = c.getSuperclass()) {
+            if (c.getName().equals(GENERATOR_CLASS)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
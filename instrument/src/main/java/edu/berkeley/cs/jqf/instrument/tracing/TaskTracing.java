@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2017-2018 The Regents of the University of California
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.cs.jqf.instrument.tracing;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Field;
+import java.util.concurrent.Callable;
+import java.util.function.Supplier;
+
+/**
+ * Support for tracing the threads that run the code of traced threads.
+ *
+ * <p>New threads are registered with {@link SingleSnoop#REGISTER_THREAD}
+ * when they are constructed. Tasks that are handed to executors and
+ * thread pools, whose threads may already exist, are instead wrapped by
+ * {@link SingleSnoop#REGISTER_TASK}, so that the thread that runs a task
+ * is traced for as long as it does, whichever thread that turns out to be.</p>
+ *
+ * <p>The reflection needed to find the entry point of a thread or task is
+ * done once per class.</p>
+ */
+final class TaskTracing {
+
+    // A getter for Thread.target, or null if it cannot be accessed (as in JDK 16+, without --add-opens)
+    private static final MethodHandle THREAD_TARGET = findThreadTarget();
+
+    private static final EntryPoints RUN = new EntryPoints("run");
+    private static final EntryPoints CALL = new EntryPoints("call");
+    private static final EntryPoints GET = new EntryPoints("get");
+
+    private TaskTracing() {}
+
+    private static MethodHandle findThreadTarget() {
+        try {
+            Field target = Thread.class.getDeclaredField("target");
+            target.setAccessible(true);
+            return MethodHandles.lookup().unreflectGetter(target);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /** Caches the entry point of each class that implements a task method. */
+    private static final class EntryPoints extends ClassValue<String> {
+        private final String methodName;
+
+        EntryPoints(String methodName) {
+            this.methodName = methodName;
+        }
+
+        @Override
+        protected String computeValue(Class<?> type) {
+            try {
+                return type.getMethod(methodName).getDeclaringClass().getName() + "#" + methodName;
+            } catch (NoSuchMethodException e) {
+                return type.getName() + "#" + methodName;
+            }
+        }
+    }
+
+    /**
+     * Returns the entry point of a thread, which is the {@code run()} method
+     * of its {@code Runnable}, if it has one, or else of the thread itself.
+     */
+    static String entryPointOf(Thread thread) {
+        Runnable target = null;
+        if (THREAD_TARGET != null) {
+            try {
+                target = (Runnable) THREAD_TARGET.invokeExact(thread);
+            } catch (Throwable e) {
+                throw new AssertionError(e); // A getter does not throw
+            }
+        }
+        // Without a Runnable, it is likely a sub-class of Thread with an overriden run() method
+        return RUN.get(target != null ? target.getClass() : thread.getClass());
+    }
+
+    static Runnable wrap(Runnable task) {
+        return task instanceof TracedRunnable ? task : new TracedRunnable(task, RUN.get(task.getClass()));
+    }
+
+    static <V> Callable<V> wrap(Callable<V> task) {
+        return task instanceof TracedCallable ? task : new TracedCallable<>(task, CALL.get(task.getClass()));
+    }
+
+    static <T> Supplier<T> wrap(Supplier<T> task) {
+        return task instanceof TracedSupplier ? task : new TracedSupplier<>(task, GET.get(task.getClass()));
+    }
+
+    private static final class TracedRunnable implements Runnable {
+        private final Runnable task;
+        private final String entryPoint;
+
+        TracedRunnable(Runnable task, String entryPoint) {
+            this.task = task;
+            this.entryPoint = entryPoint;
+        }
+
+        @Override
+        public void run() {
+            boolean blocked = SingleSnoop.beginTask(entryPoint);
+            try {
+                task.run();
+            } finally {
+                SingleSnoop.endTask(blocked);
+            }
+        }
+    }
+
+    private static final class TracedCallable<V> implements Callable<V> {
+        private final Callable<V> task;
+        private final String entryPoint;
+
+        TracedCallable(Callable<V> task, String entryPoint) {
+            this.task = task;
+            this.entryPoint = entryPoint;
+        }
+
+        @Override
+        public V call() throws Exception {
+            boolean blocked = SingleSnoop.beginTask(entryPoint);
+            try {
+                return task.call();
+            } finally {
+                SingleSnoop.endTask(blocked);
+            }
+        }
+    }
+
+    private static final class TracedSupplier<T> implements Supplier<T> {
+        private final Supplier<T> task;
+        private final String entryPoint;
+
+        TracedSupplier(Supplier<T> task, String entryPoint) {
+            this.task = task;
+            this.entryPoint = entryPoint;
+        }
+
+        @Override
+        public T get() {
+            boolean blocked = SingleSnoop.beginTask(entryPoint);
+            try {
+                return task.get();
+            } finally {
+                SingleSnoop.endTask(blocked);
+            }
+        }
+    }
+}
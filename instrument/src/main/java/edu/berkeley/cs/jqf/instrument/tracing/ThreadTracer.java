@@ -27,11 +27,9 @@
  * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
  * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
  */
-
 package edu.berkeley.cs.jqf.instrument.tracing;
 
-import java.util.ArrayDeque;
-import java.util.Deque;
+import java.util.Arrays;
 import java.util.function.Consumer;
 
 import edu.berkeley.cs.jqf.instrument.InstrumentationException;
@@ -52,17 +50,79 @@ import janala.logger.inst.*;
  * {@link TraceEvent} instances, which are then emitted to be processed
  * by the guidance-provided callback.</p>
  *
+ * <p>Instructions are received as primitive arguments (see {@link TraceLogger}),
+ * the stack of methods being traced is kept in parallel arrays, and
+ * each type of event is emitted by re-using a single instance. Once the
+ * stack has grown to the maximum depth of the traced program, tracing an
+ * instruction therefore performs no heap allocation.</p>
+ *
+ * <p>If the callback is a {@link TraceEventBatchConsumer}, then branch,
+ * call and return events are buffered and delivered in batches. Events
+ * of kinds that are not selected by the event mask (see
+ * {@link SingleSnoop#setEventMask(int)}) are never created.</p>
+ *
+ * <p>If the system property {@code jqf.tracing.ASYNC} is set, and the event
+ * mask only selects events that are batched, then full batches are handed
+ * to a dedicated thread which invokes the callback (see
+ * {@link AsyncTraceDelivery}), while this thread goes on filling the next
+ * batch. The tracer still waits for all its batches to be delivered when
+ * the top-level call returns, or when {@link #flush()} is called.</p>
+ *
+ * <p>A tracer that is idle (i.e. outside any traced call) may be handed
+ * over to another thread (see {@link TraceLogger#recycle()}), so that
+ * short-lived threads need not allocate their own.</p>
+ *
  * @author Rohan Padhye
  */
 public class ThreadTracer {
-    protected final Thread tracee;
-    protected final String entryPointClass;
-    protected final String entryPointMethod;
-    protected final Consumer<TraceEvent> callback;
-    private final Deque<IVisitor> handlers = new ArrayDeque<>();
+    protected Thread tracee;
+    protected String entryPointClass;
+    protected String entryPointMethod;
+    protected Consumer<TraceEvent> callback;
+
+    // The kinds of events to emit (see SingleSnoop#setEventMask)
+    private int eventMask;
+
+    // Kinds of frames on the handler stack
+    private static final byte BASE = 0;     // Below the top-level call
+    private static final byte TRACING = 1;  // A method whose instructions generate trace events
+    private static final byte IGNORED = 2;  // A method that is not traced (e.g. class loading)
+
+    // The handler stack; each frame is stored at the same index in the following arrays
+    private int top = 0;
+    private byte[] frameKind = new byte[64];
+    private MemberRef[] frameMethod = new MemberRef[64];
+    // The invocation target of a traced frame, set until METHOD_BEGIN or INVOKEMETHOD_END/INVOKEMETHOD_EXCEPTION
+    private String[] invokeName = new String[64];
+    private String[] invokeDesc = new String[64];
+    private int[] invokeIid = new int[64];
+    private int[] invokeMid = new int[64];
+    private boolean[] invokingSuperOrThis = new boolean[64];
 
     // Values set by GETVALUE_* instructions inserted by Janala
-    private final Values values = new Values();
+    private int intValue;
+    private int conditionalArm; // The arm of the next conditional branch, as set by GETVALUE_boolean
+
+    // Method references, interned so that METHOD_BEGIN need not allocate
+    private final MemberRefTable methods = new MemberRefTable();
+
+    // Re-usable events (see TraceEvent)
+    private final BranchEvent branchEvent = new BranchEvent(0, null, 0, 0);
+    private final CallEvent callEvent = new CallEvent(0, null, 0, null);
+    private final ReturnEvent returnEvent = new ReturnEvent(0, null, 0);
+    private final ReadEvent readEvent = new ReadEvent(0, null, 0, 0, null);
+    private final AllocEvent allocEvent = new AllocEvent(0, null, 0, 0);
+
+    // Buffered events, if the callback accepts batches
+    private TraceEventBatchConsumer batchConsumer;
+    private TraceEventBatch batch;
+    private boolean batchBranches;
+
+    // Delivers batches on another thread, if enabled
+    private AsyncTraceDelivery.Channel channel;
+
+    // Converts instruction objects into calls on this tracer (see consume())
+    private final InstructionDispatcher dispatcher = new InstructionDispatcher();
 
     // Whether to instrument generators
     // Set this to TRUE when computing execution indexes for generators
@@ -73,6 +133,15 @@ public class ThreadTracer {
     // Also set this to TRUE when using execution indexes, to ensure that every call site has exactly one push/pop
     private final boolean MATCH_CALLEE_NAMES = Boolean.getBoolean("jqf.tracing.MATCH_CALLEE_NAMES");
 
+    // The number of events to buffer before delivering a batch
+    private static final int BATCH_SIZE = Integer.getInteger("jqf.tracing.BATCH_SIZE", 1024);
+
+    // Whether to deliver batches on another thread
+    private final boolean async = Boolean.getBoolean("jqf.tracing.ASYNC");
+
+    // The kinds of events that are batched
+    private static final int BATCHED_EVENTS = TraceEvent.BRANCH_EVENTS | TraceEvent.CALL_EVENTS | TraceEvent.RETURN_EVENTS;
+
 
     /**
      * Creates a new tracer that will process instructions executed by an application
@@ -83,6 +152,11 @@ public class ThreadTracer {
      * @param callback the callback to invoke whenever a trace event is emitted
      */
     protected ThreadTracer(Thread tracee, String entryPoint, Consumer<TraceEvent> callback) {
+        init(tracee, entryPoint, callback);
+        this.frameKind[0] = BASE;
+    }
+
+    private void init(Thread tracee, String entryPoint, Consumer<TraceEvent> callback) {
         this.tracee = tracee;
         if (entryPoint != null) {
             int separator = entryPoint.indexOf('#');
@@ -96,7 +170,23 @@ public class ThreadTracer {
             this.entryPointMethod = null;
         }
         this.callback = callback;
-        this.handlers.push(new BaseHandler());
+        this.eventMask = SingleSnoop.eventMask;
+        if (callback instanceof TraceEventBatchConsumer) {
+            this.batchConsumer = (TraceEventBatchConsumer) callback;
+            if (this.batch == null) {
+                this.batch = new TraceEventBatch(BATCH_SIZE);
+            }
+        } else {
+            this.batchConsumer = null;
+            this.batch = null;
+        }
+        this.batchBranches = batch != null && (eventMask & TraceEvent.BRANCH_EVENTS) != 0;
+        // Other events are delivered one at a time on this thread, so they must not be interleaved with batches
+        if (async && batch != null && (eventMask & ~BATCHED_EVENTS) == 0) {
+            this.channel = AsyncTraceDelivery.open(tracee, batchConsumer, BATCH_SIZE);
+        } else {
+            this.channel = null;
+        }
     }
 
     /**
@@ -106,13 +196,30 @@ public class ThreadTracer {
      * @return a tracer for the given thread
      */
     protected static ThreadTracer spawn(Thread thread) {
-        String entryPoint = SingleSnoop.entryPoints.get(thread);
+        String entryPoint = SingleSnoop.entryPointOf(thread);
         Consumer<TraceEvent> callback = SingleSnoop.callbackGenerator.apply(thread);
         ThreadTracer t =
                 new ThreadTracer(thread, entryPoint, callback);
         return t;
     }
 
+    /**
+     * Returns whether this tracer can be handed over to another thread,
+     * which is when it is outside any traced call and has nothing to deliver.
+     */
+    final boolean isIdle() {
+        return top == 0 && channel == null && callBackException == null;
+    }
+
+    /**
+     * Re-uses this idle tracer for another thread, as if it had been spawned for it.
+     *
+     * @param thread the thread to trace
+     */
+    final void attach(Thread thread) {
+        init(thread, SingleSnoop.entryPointOf(thread), SingleSnoop.callbackGenerator.apply(thread));
+    }
+
     protected RuntimeException callBackException = null;
 
     /**
@@ -121,6 +228,8 @@ public class ThreadTracer {
      * @param e the event to emit
      */
     protected final void emit(TraceEvent e) {
+        // Deliver earlier events first
+        deliverBatches();
         try {
             callback.accept(e);
         } catch (RuntimeException ex) {
@@ -128,233 +237,299 @@ public class ThreadTracer {
         }
     }
 
-    /**
-     * Handles tracing of a single bytecode instruction.
-     *
-     * @param ins the instruction to process
-     */
-    protected final void consume(Instruction ins) {
-        // Apply the visitor at the top of the stack
-        ins.visit(handlers.peek());
-        if (callBackException != null) {
-            RuntimeException e = callBackException;
-            callBackException = null;
-            throw e;
+    // Branches are the most frequent events, so the common case is kept small enough to be inlined into
+    // the probes; the method of the event is only looked up if the event is not batched
+    private void emitBranch(int iid, int lineNum, int arm) {
+        if (batchBranches) {
+            if (batch.addBranch(iid, arm)) {
+                flushBatch();
+            }
+        } else {
+            emitBranchEvent(iid, lineNum, arm);
         }
     }
 
+    private void emitBranchEvent(int iid, int lineNum, int arm) {
+        if ((eventMask & TraceEvent.BRANCH_EVENTS) != 0) {
+            emit(branchEvent.set(iid, frameMethod[top], lineNum, arm));
+        }
+    }
 
-    private static boolean isReturnOrMethodThrow(Instruction inst) {
-        return  inst instanceof ARETURN ||
-                inst instanceof LRETURN ||
-                inst instanceof DRETURN ||
-                inst instanceof FRETURN ||
-                inst instanceof IRETURN ||
-                inst instanceof RETURN  ||
-                inst instanceof METHOD_THROW;
+    private void emitCall(int iid, MemberRef method, int lineNum, MemberRef invokedMethod) {
+        if ((eventMask & TraceEvent.CALL_EVENTS) == 0) {
+            return;
+        }
+        if (batch != null) {
+            if (batch.add(TraceEventBatch.CALL, iid, 0, invokedMethod)) {
+                flushBatch();
+            }
+        } else {
+            emit(callEvent.set(iid, method, lineNum, invokedMethod));
+        }
     }
 
+    private void emitReturn(int iid, MemberRef method, int lineNum) {
+        if ((eventMask & TraceEvent.RETURN_EVENTS) == 0) {
+            return;
+        }
+        if (batch != null) {
+            if (batch.add(TraceEventBatch.RETURN, iid, 0, null)) {
+                flushBatch();
+            }
+        } else {
+            emit(returnEvent.set(iid, method, lineNum));
+        }
+    }
 
-    private static boolean isInvoke(Instruction inst) {
-        return  inst instanceof InvokeInstruction;
+    private void flushBatch() {
+        if (batch != null && batch.size() > 0) {
+            if (channel != null) {
+                batch = channel.publish(batch);
+                takeAsyncException();
+                return;
+            }
+            try {
+                batchConsumer.acceptBatch(batch);
+            } catch (RuntimeException ex) {
+                callBackException = ex;
+            } finally {
+                batch.clear();
+            }
+        }
     }
 
-    private static boolean isIfJmp(Instruction inst) {
-        return  inst instanceof ConditionalBranch;
+    /** Flushes the current batch, and waits until all batches have been delivered. */
+    private void deliverBatches() {
+        flushBatch();
+        if (channel != null) {
+            channel.awaitDelivery();
+            takeAsyncException();
+        }
     }
 
+    /** Takes an exception thrown by the callback on the delivery thread, if any. */
+    private void takeAsyncException() {
+        Throwable e = channel.takeException();
+        if (e instanceof RuntimeException) {
+            callBackException = (RuntimeException) e;
+        } else if (e instanceof Error) {
+            throw (Error) e;
+        } else if (e != null) {
+            callBackException = new InstrumentationException("Exception in trace callback", e);
+        }
+    }
 
-    private static class Values {
-        private boolean booleanValue;
-        private byte byteValue;
-        private char charValue;
-        private double doubleValue;
-        private float floatValue;
-        private int intValue;
-        private long longValue;
-        private Object objectValue;
-        private short shortValue;
+    /**
+     * Delivers any buffered events to the callback.
+     */
+    protected final void flush() {
+        deliverBatches();
+        rethrowCallBackException();
     }
-    
-    private static boolean sameNameDesc(MemberRef m1, MemberRef m2) {
-        return m1 != null && m2 != null &&
-                m1.getName().equals(m2.getName()) &&
-                m1.getDesc().equals(m2.getDesc());
+
+    /**
+     * Re-throws an exception thrown by the callback while processing
+     * the last instruction, once the handler stack is consistent again.
+     */
+    private void rethrowCallBackException() {
+        if (callBackException != null) {
+            throwCallBackException();
+        }
     }
 
+    // Kept out of rethrowCallBackException(), which is inlined into every probe
+    private void throwCallBackException() {
+        RuntimeException e = callBackException;
+        callBackException = null;
+        throw e;
+    }
 
+    /**
+     * Handles tracing of a single bytecode instruction.
+     *
+     * <p>This is equivalent to, but slower than, calling the method
+     * of this tracer that corresponds to the instruction.</p>
+     *
+     * @param ins the instruction to process
+     */
+    protected final void consume(Instruction ins) {
+        ins.visit(dispatcher);
+    }
 
-    class BaseHandler extends ControlFlowInstructionVisitor {
-        @Override
-        public void visitMETHOD_BEGIN(METHOD_BEGIN begin) {
-            // Try to match the top-level call with the entry point
-            String clazz = begin.getOwner();
-            String method = begin.getName();
-            if (MATCH_CALLEE_NAMES == false || (clazz.equals(entryPointClass) && method.equals(entryPointMethod)) ||
-                    (traceGenerators && clazz.endsWith("Generator") && method.equals("generate")) ) {
-                emit(new CallEvent(0, null, 0, begin));
-                handlers.push(new TraceEventGeneratingHandler(begin, 0));
-            } else {
-                // Ignore all top-level calls that are not the entry point
-                handlers.push(new MatchingNullHandler());
-            }
+    private void push(byte kind, MemberRef method) {
+        if (++top == frameKind.length) {
+            int capacity = top * 2;
+            frameKind = Arrays.copyOf(frameKind, capacity);
+            frameMethod = Arrays.copyOf(frameMethod, capacity);
+            invokeName = Arrays.copyOf(invokeName, capacity);
+            invokeDesc = Arrays.copyOf(invokeDesc, capacity);
+            invokeIid = Arrays.copyOf(invokeIid, capacity);
+            invokeMid = Arrays.copyOf(invokeMid, capacity);
+            invokingSuperOrThis = Arrays.copyOf(invokingSuperOrThis, capacity);
         }
+        frameKind[top] = kind;
+        frameMethod[top] = method;
+        invokeName[top] = null;
+        invokeDesc[top] = null;
+        invokingSuperOrThis[top] = false;
     }
 
-    class TraceEventGeneratingHandler extends ControlFlowInstructionVisitor {
+    private void pop() {
+        frameMethod[top] = null;
+        top--;
+    }
 
-        private final int depth;
-        private final MemberRef method;
-        TraceEventGeneratingHandler(METHOD_BEGIN begin, int depth) {
-            this.depth = depth;
-            this.method = begin;
-            //logger.log(tabs() + begin);
+    /** Handles METHOD_BEGIN. */
+    protected final void methodBegin(String owner, String name, String desc) {
+        switch (frameKind[top]) {
+            case BASE:
+                // Try to match the top-level call with the entry point
+                if (MATCH_CALLEE_NAMES == false || (owner.equals(entryPointClass) && name.equals(entryPointMethod)) ||
+                        (traceGenerators && owner.endsWith("Generator") && name.equals("generate")) ) {
+                    MemberRef method = methods.get(owner, name, desc);
+                    emitCall(0, null, 0, method);
+                    push(TRACING, method);
+                } else {
+                    // Ignore all top-level calls that are not the entry point
+                    push(IGNORED, null);
+                }
+                break;
+            case TRACING:
+                if ((MATCH_CALLEE_NAMES == false && name.equals("<clinit>") == false) ||
+                        (invokeName[top] != null && invokeName[top].equals(name) && invokeDesc[top].equals(desc))) {
+                    // Trace continues with callee
+                    boolean invoking = invokeName[top] != null;
+                    int invokerIid = invoking ? invokeIid[top] : -1;
+                    int invokerMid = invoking ? invokeMid[top] : -1;
+                    MemberRef method = methods.get(owner, name, desc);
+                    emitCall(invokerIid, frameMethod[top], invokerMid, method);
+                    push(TRACING, method);
+                } else {
+                    // Class loading or static initializer
+                    push(IGNORED, null);
+                }
+                break;
+            default:
+                push(IGNORED, null);
         }
+        rethrowCallBackException();
+    }
 
-        private String tabs() {
-            StringBuffer sb = new StringBuffer(depth);
-            for (int i = 0; i < depth; i++) {
-                sb.append("  ");
-            }
-            return sb.toString();
+    /** Handles INVOKEVIRTUAL, INVOKESPECIAL, INVOKESTATIC and INVOKEINTERFACE. */
+    protected final void invoke(int iid, int mid, String name, String desc) {
+        if (frameKind[top] == TRACING) {
+            // Remember invocation target until METHOD_BEGIN or INVOKEMETHOD_END/INVOKEMETHOD_EXCEPTION
+            invokeName[top] = name;
+            invokeDesc[top] = desc;
+            invokeIid[top] = iid;
+            invokeMid[top] = mid;
         }
+    }
 
-        private MemberRef invokeTarget = null;
-        private boolean invokingSuperOrThis = false;
-
-        @Override
-        public void visitMETHOD_BEGIN(METHOD_BEGIN begin) {
-            if ((MATCH_CALLEE_NAMES == false && begin.name.equals("<clinit>") == false) || sameNameDesc(begin, this.invokeTarget)) {
-                // Trace continues with callee
-                int invokerIid = invokeTarget != null ? ((Instruction) invokeTarget).iid : -1;
-                int invokerMid = invokeTarget != null ? ((Instruction) invokeTarget).mid : -1;
-                emit(new CallEvent(invokerIid, this.method, invokerMid, begin));
-                handlers.push(new TraceEventGeneratingHandler(begin, depth+1));
-            } else {
-                // Class loading or static initializer
-                handlers.push(new MatchingNullHandler());
+    /** Handles INVOKEMETHOD_END. */
+    protected final void invokeEnd() {
+        if (frameKind[top] == TRACING) {
+            if (invokeName[top] == null) {
+                throw new InstrumentationException("Unexpected INVOKEMETHOD_END");
             }
-
-            super.visitMETHOD_BEGIN(begin);
+            // Unset the invocation target for the rest of the instruction stream
+            invokeName[top] = null;
+            // Handle end of super() or this() call; for normal end, simply unset the flag
+            invokingSuperOrThis[top] = false;
         }
+    }
 
-        @Override
-        public void visitINVOKEMETHOD_EXCEPTION(INVOKEMETHOD_EXCEPTION ins) {
-            if (this.invokeTarget == null) {
+    /** Handles INVOKEMETHOD_EXCEPTION. */
+    protected final void invokeException() {
+        if (frameKind[top] == TRACING) {
+            if (invokeName[top] == null) {
                 throw new InstrumentationException("Unexpected INVOKEMETHOD_EXCEPTION");
-            } else {
-                // Unset the invocation target for the rest of the instruction stream
-                this.invokeTarget = null;
-                // Handle end of super() or this() call
-                if (invokingSuperOrThis) {
-                    while (true) { // will break when outer caller of <init> found
-                        emit(new ReturnEvent(-1, this.method, -1));
-                        handlers.pop();
-                        IVisitor handler = handlers.peek();
-                        // We should not reach the BaseHandler without finding
-                        // the TraceEventGeneratingHandler who called the outer <init>().
-                        assert (handler instanceof TraceEventGeneratingHandler);
-                        TraceEventGeneratingHandler traceEventGeneratingHandler = (TraceEventGeneratingHandler) handler;
-                        if (traceEventGeneratingHandler.invokingSuperOrThis) {
-                            // Go down the stack further
-                            continue;
-                        } else {
-                            // Found caller of new()
-                            assert(traceEventGeneratingHandler.invokeTarget.getName().startsWith("<init>"));
-                            // Let this handler (now top-of-stack) process the instruction
-                            ins.visit(traceEventGeneratingHandler);
-                            break;
-                        }
-                    }
-                }
             }
-
-            super.visitINVOKEMETHOD_EXCEPTION(ins);
-        }
-
-        @Override
-        public void visitINVOKEMETHOD_END(INVOKEMETHOD_END ins) {
-            if (this.invokeTarget == null) {
-                throw new InstrumentationException("Unexpected INVOKEMETHOD_END");
-            } else {
-                // Unset the invocation target for the rest of the instruction stream
-                this.invokeTarget = null;
-                // Handle end of super() or this() call
-                if (invokingSuperOrThis) {
-                    // For normal end, simply unset the flag
-                    this.invokingSuperOrThis = false;
+            // Unset the invocation target for the rest of the instruction stream
+            invokeName[top] = null;
+            // Handle end of super() or this() call
+            if (invokingSuperOrThis[top]) {
+                while (true) { // will break when outer caller of <init> found
+                    emitReturn(-1, frameMethod[top], -1);
+                    pop();
+                    // We should not reach the base frame without finding
+                    // the traced frame who called the outer <init>().
+                    assert (frameKind[top] == TRACING);
+                    if (invokingSuperOrThis[top]) {
+                        // Go down the stack further
+                        continue;
+                    } else {
+                        // Found caller of new()
+                        assert (invokeName[top].startsWith("<init>"));
+                        // Let this frame (now top-of-stack) process the instruction
+                        invokeException();
+                        break;
+                    }
                 }
             }
-
-            super.visitINVOKEMETHOD_END(ins);
-        }
-
-        @Override
-        public void visitSPECIAL(SPECIAL special) {
-            // Handle marker that says calling super() or this()
-            if (special.i == SPECIAL.CALLING_SUPER_OR_THIS) {
-                this.invokingSuperOrThis = true;
-            }
-            return; // Do not process SPECIAL instructions further
+            rethrowCallBackException();
         }
+    }
 
-        @Override
-        public void visitInvokeInstruction(InvokeInstruction ins) {
-            // Remember invocation target until METHOD_BEGIN or INVOKEMETHOD_END/INVOKEMETHOD_EXCEPTION
-            this.invokeTarget = ins;
-
-            super.visitInvokeInstruction(ins);
+    /** Handles SPECIAL. */
+    protected final void special(int i) {
+        // Handle marker that says calling super() or this()
+        if (frameKind[top] == TRACING && i == SPECIAL.CALLING_SUPER_OR_THIS) {
+            invokingSuperOrThis[top] = true;
         }
+    }
 
-        @Override
-        public void visitGETVALUE_int(GETVALUE_int gv) {
-            values.intValue = gv.v;
-
-            super.visitGETVALUE_int(gv);
+    /** Handles GETVALUE_int. */
+    protected final void intValue(int v) {
+        if (frameKind[top] == TRACING) {
+            intValue = v;
         }
+    }
 
-        @Override
-        public void visitGETVALUE_boolean(GETVALUE_boolean gv) {
-            values.booleanValue = gv.v;
-
-            super.visitGETVALUE_boolean(gv);
+    /** Handles GETVALUE_boolean. */
+    protected final void booleanValue(boolean v) {
+        if (frameKind[top] == TRACING) {
+            conditionalArm = v ? 1 : 0;
         }
+    }
 
-        @Override
-        public void visitConditionalBranch(Instruction ins) {
-            int iid = ins.iid;
-            int lineNum = ins.mid;
+    /** Handles conditional jumps such as IFEQ or IF_ICMPLT. */
+    protected final void conditionalBranch(int iid, int lineNum) {
+        if (frameKind[top] == TRACING) {
             // The branch taken-or-not would have been set by a previous
             // GETVALUE instruction
-            boolean taken = values.booleanValue;
-            emit(new BranchEvent(iid, this.method, lineNum, taken ? 1 : 0));
+            emitBranch(iid, lineNum, conditionalArm);
+            rethrowCallBackException();
+        }
+    }
 
-            super.visitConditionalBranch(ins);
+    /** Handles BRANCH, whose arm was resolved at instrumentation time. */
+    protected final void branch(int iid, int lineNum, int arm) {
+        if (frameKind[top] == TRACING) {
+            emitBranch(iid, lineNum, arm);
+            rethrowCallBackException();
         }
+    }
 
-        @Override
-        public void visitTABLESWITCH(TABLESWITCH tableSwitch) {
-            int iid = tableSwitch.iid;
-            int lineNum = tableSwitch.mid;
-            int value = values.intValue;
-            int numCases = tableSwitch.labels.length;
+    /** Handles TABLESWITCH. */
+    protected final void tableSwitch(int iid, int lineNum, int numCases) {
+        if (frameKind[top] == TRACING) {
+            int value = intValue;
             // Compute arm index or else default
             int arm = -1;
             if (value >= 0 && value < numCases) {
                 arm = value;
             }
             // Emit a branch instruction corresponding to the arm
-            emit(new BranchEvent(iid, this.method, lineNum, arm));
-
-            super.visitTABLESWITCH(tableSwitch);
+            emitBranch(iid, lineNum, arm);
+            rethrowCallBackException();
         }
+    }
 
-        @Override
-        public void visitLOOKUPSWITCH(LOOKUPSWITCH lookupSwitch) {
-            int iid = lookupSwitch.iid;
-            int lineNum = lookupSwitch.mid;
-            int value = values.intValue;
-            int[] cases = lookupSwitch.keys;
+    /** Handles LOOKUPSWITCH. */
+    protected final void lookupSwitch(int iid, int lineNum, int[] cases) {
+        if (frameKind[top] == TRACING) {
+            int value = intValue;
             // Compute arm index or else default
             int arm = -1;
             for (int i = 0; i < cases.length; i++) {
@@ -364,64 +539,132 @@ public class ThreadTracer {
                 }
             }
             // Emit a branch instruction corresponding to the arm
-            emit(new BranchEvent(iid, this.method, lineNum, arm));
+            emitBranch(iid, lineNum, arm);
+            rethrowCallBackException();
+        }
+    }
+
+    /** Handles HEAPLOAD. */
+    protected final void heapLoad(int iid, int lineNum, int objectId, String field) {
+        // Log the object access (unless it was a NPE)
+        if (frameKind[top] == TRACING && objectId != 0 && (eventMask & TraceEvent.READ_EVENTS) != 0) {
+            emit(readEvent.set(iid, frameMethod[top], lineNum, objectId, field));
+            rethrowCallBackException();
+        }
+    }
+
+    /** Handles NEW. */
+    protected final void newObject(int iid, int lineNum) {
+        if (frameKind[top] == TRACING && (eventMask & TraceEvent.ALLOC_EVENTS) != 0) {
+            emit(allocEvent.set(iid, frameMethod[top], lineNum, 1));
+            rethrowCallBackException();
+        }
+    }
+
+    /** Handles NEWARRAY, whose size was set by a previous GETVALUE instruction. */
+    protected final void newArray(int iid, int lineNum) {
+        if (frameKind[top] == TRACING && (eventMask & TraceEvent.ALLOC_EVENTS) != 0) {
+            emit(allocEvent.set(iid, frameMethod[top], lineNum, intValue));
+            rethrowCallBackException();
+        }
+    }
 
-            super.visitLOOKUPSWITCH(lookupSwitch);
+    /** Handles the *RETURN instructions and METHOD_THROW. */
+    protected final void returnOrMethodThrow(int iid, int lineNum) {
+        switch (frameKind[top]) {
+            case TRACING:
+                emitReturn(iid, frameMethod[top], lineNum);
+                pop();
+                if (frameKind[top] == BASE) {
+                    // The top-level call has returned (e.g. at the end of a trial)
+                    deliverBatches();
+                }
+                rethrowCallBackException();
+                break;
+            case IGNORED:
+                pop();
+                break;
+            default:
+                // Returns below the top-level call are not traced
         }
+    }
+
+    /** Routes instruction objects to the corresponding methods of the tracer. */
+    private class InstructionDispatcher extends ControlFlowInstructionVisitor {
 
         @Override
-        public void visitHEAPLOAD(HEAPLOAD heapload) {
-            int iid = heapload.iid;
-            int lineNum = heapload.mid;
-            int objectId = heapload.objectId;
-            String field = heapload.field;
-            // Log the object access (unless it was a NPE)
-            if (objectId != 0) {
-                emit(new ReadEvent(iid, this.method, lineNum, objectId, field));
-            }
+        public void visitMETHOD_BEGIN(METHOD_BEGIN begin) {
+            methodBegin(begin.owner, begin.name, begin.desc);
+        }
 
-            super.visitHEAPLOAD(heapload);
+        @Override
+        public void visitInvokeInstruction(InvokeInstruction ins) {
+            invoke(((Instruction) ins).iid, ((Instruction) ins).mid, ins.getName(), ins.getDesc());
         }
 
         @Override
-        public void visitNEW(NEW newInst) {
-            int iid = newInst.iid;
-            int lineNum = newInst.mid;
-            emit(new AllocEvent(iid, this.method, lineNum, 1));
+        public void visitINVOKEMETHOD_END(INVOKEMETHOD_END ins) {
+            invokeEnd();
+        }
 
-            super.visitNEW(newInst);
+        @Override
+        public void visitINVOKEMETHOD_EXCEPTION(INVOKEMETHOD_EXCEPTION ins) {
+            invokeException();
         }
 
         @Override
-        public void visitNEWARRAY(NEWARRAY newArray) {
-            int iid = newArray.iid;
-            int lineNum = newArray.mid;
-            int size = values.intValue;
-            emit(new AllocEvent(iid, this.method, lineNum, size));
+        public void visitSPECIAL(SPECIAL special) {
+            special(special.i);
+        }
 
-            super.visitNEWARRAY(newArray);
+        @Override
+        public void visitGETVALUE_int(GETVALUE_int gv) {
+            intValue(gv.v);
         }
 
         @Override
-        public void visitReturnOrMethodThrow(Instruction ins) {
-            emit(new ReturnEvent(ins.iid, this.method, ins.mid));
-            handlers.pop();
+        public void visitGETVALUE_boolean(GETVALUE_boolean gv) {
+            booleanValue(gv.v);
+        }
 
-            super.visitReturnOrMethodThrow(ins);
+        @Override
+        public void visitConditionalBranch(Instruction ins) {
+            conditionalBranch(ins.iid, ins.mid);
         }
 
-    }
+        @Override
+        public void visitBRANCH(BRANCH branch) {
+            branch(branch.iid, branch.mid, branch.arm);
+        }
 
-    class MatchingNullHandler extends ControlFlowInstructionVisitor {
+        @Override
+        public void visitTABLESWITCH(TABLESWITCH tableSwitch) {
+            tableSwitch(tableSwitch.iid, tableSwitch.mid, tableSwitch.labels.length);
+        }
 
         @Override
-        public void visitMETHOD_BEGIN(METHOD_BEGIN begin) {
-            handlers.push(new MatchingNullHandler());
+        public void visitLOOKUPSWITCH(LOOKUPSWITCH lookupSwitch) {
+            lookupSwitch(lookupSwitch.iid, lookupSwitch.mid, lookupSwitch.keys);
+        }
+
+        @Override
+        public void visitHEAPLOAD(HEAPLOAD heapload) {
+            heapLoad(heapload.iid, heapload.mid, heapload.objectId, heapload.field);
+        }
+
+        @Override
+        public void visitNEW(NEW newInst) {
+            newObject(newInst.iid, newInst.mid);
+        }
+
+        @Override
+        public void visitNEWARRAY(NEWARRAY newArray) {
+            newArray(newArray.iid, newArray.mid);
         }
 
         @Override
         public void visitReturnOrMethodThrow(Instruction ins) {
-            handlers.pop();
+            returnOrMethodThrow(ins.iid, ins.mid);
         }
     }
 }
@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2017-2018 The Regents of the University of California
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.cs.jqf.instrument.tracing;
+
+import java.util.Arrays;
+
+import janala.logger.inst.MemberRef;
+
+/**
+ * A batch of branch, call and return events, stored as primitive records.
+ *
+ * <p>A batch is filled by a {@link ThreadTracer} and handed to a
+ * {@link TraceEventBatchConsumer}. Like single events, a batch is re-used by
+ * the tracer once the consumer returns, so it must not be retained.</p>
+ */
+public final class TraceEventBatch {
+
+    /** The kind of a record for a {@link edu.berkeley.cs.jqf.instrument.tracing.events.BranchEvent}. */
+    public static final int BRANCH = 0;
+
+    /** The kind of a record for a {@link edu.berkeley.cs.jqf.instrument.tracing.events.CallEvent}. */
+    public static final int CALL = 1;
+
+    /** The kind of a record for a {@link edu.berkeley.cs.jqf.instrument.tracing.events.ReturnEvent}. */
+    public static final int RETURN = 2;
+
+    private final int[] kinds;
+    private final int[] iids;
+    private final int[] arms;
+    private final MemberRef[] invokedMethods;
+    private int size = 0;
+
+    TraceEventBatch(int capacity) {
+        this.kinds = new int[capacity];
+        this.iids = new int[capacity];
+        this.arms = new int[capacity];
+        this.invokedMethods = new MemberRef[capacity];
+    }
+
+    /**
+     * Appends a record to this batch.
+     *
+     * @return whether the batch is now full
+     */
+    boolean add(int kind, int iid, int arm, MemberRef invokedMethod) {
+        kinds[size] = kind;
+        iids[size] = iid;
+        arms[size] = arm;
+        invokedMethods[size] = invokedMethod;
+        return ++size == kinds.length;
+    }
+
+    /**
+     * Appends a branch record to this batch. This is equivalent to
+     * {@code add(BRANCH, iid, arm, null)}, which branch probes would
+     * otherwise call for every branch.
+     *
+     * @return whether the batch is now full
+     */
+    boolean addBranch(int iid, int arm) {
+        int i = size;
+        kinds[i] = BRANCH;
+        iids[i] = iid;
+        arms[i] = arm; // The invoked method was cleared by clear()
+        size = ++i;
+        return i == kinds.length;
+    }
+
+    void clear() {
+        Arrays.fill(invokedMethods, 0, size, null);
+        size = 0;
+    }
+
+    /**
+     * Returns the number of records in this batch.
+     *
+     * @return the number of records in this batch
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the kind of a record.
+     *
+     * @param i the index of the record
+     * @return one of {@link #BRANCH}, {@link #CALL} or {@link #RETURN}
+     */
+    public int getKind(int i) {
+        return kinds[i];
+    }
+
+    /**
+     * Returns the instruction ID of a record, which is the ID of the
+     * call site for a call.
+     *
+     * @param i the index of the record
+     * @return the instruction ID of the record
+     * @see edu.berkeley.cs.jqf.instrument.tracing.events.TraceEvent#getIid()
+     */
+    public int getIid(int i) {
+        return iids[i];
+    }
+
+    /**
+     * Returns the branch arm of a branch record.
+     *
+     * @param i the index of the record
+     * @return the branch arm that was taken
+     * @see edu.berkeley.cs.jqf.instrument.tracing.events.BranchEvent#getArm()
+     */
+    public int getArm(int i) {
+        return arms[i];
+    }
+
+    /**
+     * Returns the method invoked by a call record.
+     *
+     * @param i the index of the record
+     * @return the invoked method, or {@code null} if the record is not a call
+     */
+    public MemberRef getInvokedMethod(int i) {
+        return invokedMethods[i];
+    }
+}
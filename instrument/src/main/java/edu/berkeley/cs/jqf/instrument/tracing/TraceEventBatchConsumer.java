@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) 2017-2018 The Regents of the University of California
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.cs.jqf.instrument.tracing;
+
+import java.util.function.Consumer;
+
+import edu.berkeley.cs.jqf.instrument.tracing.events.TraceEvent;
+
+/**
+ * A trace-event callback that can also receive events in batches.
+ *
+ * <p>If the callback for a thread implements this interface, then the
+ * thread's tracer accumulates branch, call and return events in a
+ * {@link TraceEventBatch} instead of invoking the callback once per event.
+ * The batch is delivered when it is full, when the thread returns from its
+ * top-level traced method (e.g. at the end of a trial), or when
+ * {@link TraceLogger#flush()} is called on the thread. All other events are
+ * still delivered one at a time via {@link #accept(Object)}, after any
+ * pending batch, so that the order of events is preserved.</p>
+ *
+ * <p>The batch size can be set with the system property
+ * {@code jqf.tracing.BATCH_SIZE}.</p>
+ *
+ * <p>If the system property {@code jqf.tracing.ASYNC} is set, then batches
+ * may be delivered on a separate thread while the traced thread continues,
+ * but only if no other kind of event is selected by the event mask. Each
+ * batch is still delivered in order, and all of a thread's batches have been
+ * delivered by the time it returns from its top-level traced method. An
+ * exception thrown by {@link #acceptBatch} is then rethrown in the traced
+ * thread after a delay of up to a few batches.</p>
+ */
+public interface TraceEventBatchConsumer extends Consumer<TraceEvent> {
+
+    /**
+     * Handles a batch of events.
+     *
+     * @param batch the events, in the order in which they occurred
+     */
+    void acceptBatch(TraceEventBatch batch);
+}
@@ -30,9 +30,11 @@
 
 package edu.berkeley.cs.jqf.instrument.tracing;
 
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
 import edu.berkeley.cs.jqf.instrument.tracing.events.TraceEvent;
-import janala.logger.AbstractLogger;
-import janala.logger.inst.Instruction;
+import janala.logger.NullLogger;
 
 /**
  * A singleton class which manages per-thread tracers.
@@ -41,15 +43,21 @@ import janala.logger.inst.Instruction;
  * via {@link SingleSnoop}, as well as to provide programmatic
  * access to emit {@link TraceEvent}s.
  *
+ * <p>Only the instructions that affect tracing are handled; their
+ * operands are passed directly to the {@link ThreadTracer}, without
+ * creating an instruction object. All other instructions are ignored.</p>
+ *
  * @author Rohan Padhye
  */
-public class TraceLogger extends AbstractLogger {
+public final class TraceLogger extends NullLogger {
 
     private static final TraceLogger singleton = new TraceLogger();
 
     // Each thread (except the first; see below) has a thread-local tracer object
-    private final ThreadLocal<ThreadTracer> threadLocalTracer
-            = ThreadLocal.withInitial(() -> ThreadTracer.spawn(Thread.currentThread()));
+    private final ThreadLocal<ThreadTracer> threadLocalTracer = new ThreadLocal<>();
+
+    // Tracers of threads that have finished a task (see recycle()), to be re-used by other threads
+    private final Queue<ThreadTracer> idleTracers = new ConcurrentLinkedQueue<>();
 
     // The first thread is often the main program or test thread
     private Thread firstThread = null;
@@ -66,7 +74,14 @@ public class TraceLogger extends AbstractLogger {
         // looking up the thread-local map. This provides about a 10-20% speedup.
         if (Thread.currentThread() == firstThread) {
             return firstTracer;
-        } else if (firstThread == null) {
+        } else {
+            return getOtherTracer();
+        }
+    }
+
+    // Kept out of getTracer(), so that the common case is small enough to be inlined into every probe
+    private ThreadTracer getOtherTracer() {
+        if (firstThread == null) {
             // The first time this method is called, remember the "first" thread and its associated treacer
             assert firstTracer == null;
             firstThread = Thread.currentThread();
@@ -74,7 +89,41 @@ public class TraceLogger extends AbstractLogger {
             return firstTracer;
         } else {
             // In multi-threaded fuzzing mode, we have to use thread-local variables
-            return threadLocalTracer.get();
+            ThreadTracer tracer = threadLocalTracer.get();
+            if (tracer == null) {
+                tracer = spawnOtherTracer();
+            }
+            return tracer;
+        }
+    }
+
+    private ThreadTracer spawnOtherTracer() {
+        Thread thread = Thread.currentThread();
+        ThreadTracer tracer = idleTracers.poll();
+        if (tracer != null) {
+            tracer.attach(thread);
+        } else {
+            tracer = ThreadTracer.spawn(thread);
+        }
+        threadLocalTracer.set(tracer);
+        return tracer;
+    }
+
+    /**
+     * Lets other threads re-use the tracer of the current thread, which has
+     * finished running a task.
+     *
+     * <p>This saves allocating a tracer for every short-lived thread,
+     * such as those that run a single task.</p>
+     */
+    void recycle() {
+        if (Thread.currentThread() == firstThread) {
+            return;
+        }
+        ThreadTracer tracer = threadLocalTracer.get();
+        if (tracer != null && tracer.isIdle()) {
+            threadLocalTracer.remove();
+            idleTracers.offer(tracer);
         }
     }
 
@@ -87,10 +136,199 @@ public class TraceLogger extends AbstractLogger {
         return singleton;
     }
 
-    /** Logs an instrumented byteode instruction for the current thread. */
     @Override
-    protected void log(Instruction instruction) {
-        getTracer().consume(instruction);
+    public void BRANCH(int iid, int mid, int arm) {
+        getTracer().branch(iid, mid, arm);
+    }
+
+    @Override
+    public void IFEQ(int iid, int mid, int label) {
+        getTracer().conditionalBranch(iid, mid);
+    }
+
+    @Override
+    public void IFNE(int iid, int mid, int label) {
+        getTracer().conditionalBranch(iid, mid);
+    }
+
+    @Override
+    public void IFLT(int iid, int mid, int label) {
+        getTracer().conditionalBranch(iid, mid);
+    }
+
+    @Override
+    public void IFGE(int iid, int mid, int label) {
+        getTracer().conditionalBranch(iid, mid);
+    }
+
+    @Override
+    public void IFGT(int iid, int mid, int label) {
+        getTracer().conditionalBranch(iid, mid);
+    }
+
+    @Override
+    public void IFLE(int iid, int mid, int label) {
+        getTracer().conditionalBranch(iid, mid);
+    }
+
+    @Override
+    public void IF_ICMPEQ(int iid, int mid, int label) {
+        getTracer().conditionalBranch(iid, mid);
+    }
+
+    @Override
+    public void IF_ICMPNE(int iid, int mid, int label) {
+        getTracer().conditionalBranch(iid, mid);
+    }
+
+    @Override
+    public void IF_ICMPLT(int iid, int mid, int label) {
+        getTracer().conditionalBranch(iid, mid);
+    }
+
+    @Override
+    public void IF_ICMPGE(int iid, int mid, int label) {
+        getTracer().conditionalBranch(iid, mid);
+    }
+
+    @Override
+    public void IF_ICMPGT(int iid, int mid, int label) {
+        getTracer().conditionalBranch(iid, mid);
+    }
+
+    @Override
+    public void IF_ICMPLE(int iid, int mid, int label) {
+        getTracer().conditionalBranch(iid, mid);
+    }
+
+    @Override
+    public void IF_ACMPEQ(int iid, int mid, int label) {
+        getTracer().conditionalBranch(iid, mid);
+    }
+
+    @Override
+    public void IF_ACMPNE(int iid, int mid, int label) {
+        getTracer().conditionalBranch(iid, mid);
+    }
+
+    @Override
+    public void IFNULL(int iid, int mid, int label) {
+        getTracer().conditionalBranch(iid, mid);
+    }
+
+    @Override
+    public void IFNONNULL(int iid, int mid, int label) {
+        getTracer().conditionalBranch(iid, mid);
+    }
+
+    @Override
+    public void TABLESWITCH(int iid, int mid, int min, int max, int dflt, int[] labels) {
+        getTracer().tableSwitch(iid, mid, labels.length);
+    }
+
+    @Override
+    public void LOOKUPSWITCH(int iid, int mid, int dflt, int[] keys, int[] labels) {
+        getTracer().lookupSwitch(iid, mid, keys);
+    }
+
+    @Override
+    public void INVOKEVIRTUAL(int iid, int mid, String owner, String name, String desc) {
+        getTracer().invoke(iid, mid, name, desc);
+    }
+
+    @Override
+    public void INVOKESPECIAL(int iid, int mid, String owner, String name, String desc) {
+        getTracer().invoke(iid, mid, name, desc);
+    }
+
+    @Override
+    public void INVOKESTATIC(int iid, int mid, String owner, String name, String desc) {
+        getTracer().invoke(iid, mid, name, desc);
+    }
+
+    @Override
+    public void INVOKEINTERFACE(int iid, int mid, String owner, String name, String desc) {
+        getTracer().invoke(iid, mid, name, desc);
+    }
+
+    @Override
+    public void METHOD_BEGIN(String owner, String name, String desc) {
+        getTracer().methodBegin(owner, name, desc);
+    }
+
+    @Override
+    public void INVOKEMETHOD_END() {
+        getTracer().invokeEnd();
+    }
+
+    @Override
+    public void INVOKEMETHOD_EXCEPTION(Throwable err) {
+        getTracer().invokeException();
+    }
+
+    @Override
+    public void SPECIAL(int i) {
+        getTracer().special(i);
+    }
+
+    @Override
+    public void GETVALUE_int(int v) {
+        getTracer().intValue(v);
+    }
+
+    @Override
+    public void GETVALUE_boolean(boolean v) {
+        getTracer().booleanValue(v);
+    }
+
+    @Override
+    public void HEAPLOAD(int iid, int mid, int objectId, String field) {
+        getTracer().heapLoad(iid, mid, objectId, field);
+    }
+
+    @Override
+    public void NEW(int iid, int mid, String type, int cIdx) {
+        getTracer().newObject(iid, mid);
+    }
+
+    @Override
+    public void NEWARRAY(int iid, int mid) {
+        getTracer().newArray(iid, mid);
+    }
+
+    @Override
+    public void IRETURN(int iid, int mid) {
+        getTracer().returnOrMethodThrow(iid, mid);
+    }
+
+    @Override
+    public void LRETURN(int iid, int mid) {
+        getTracer().returnOrMethodThrow(iid, mid);
+    }
+
+    @Override
+    public void FRETURN(int iid, int mid) {
+        getTracer().returnOrMethodThrow(iid, mid);
+    }
+
+    @Override
+    public void DRETURN(int iid, int mid) {
+        getTracer().returnOrMethodThrow(iid, mid);
+    }
+
+    @Override
+    public void ARETURN(int iid, int mid) {
+        getTracer().returnOrMethodThrow(iid, mid);
+    }
+
+    @Override
+    public void RETURN(int iid, int mid) {
+        getTracer().returnOrMethodThrow(iid, mid);
+    }
+
+    @Override
+    public void METHOD_THROW() {
+        getTracer().returnOrMethodThrow(-1, -1);
     }
 
     /**
@@ -102,6 +340,15 @@ public class TraceLogger extends AbstractLogger {
         getTracer().emit(event);
     }
 
+    /**
+     * Delivers any events buffered by the tracer of the current thread
+     * (see {@link TraceEventBatchConsumer}).
+     */
+    @Override
+    public void flush() {
+        getTracer().flush();
+    }
+
     /**
      * Removes the trace logger for the current thread
      */
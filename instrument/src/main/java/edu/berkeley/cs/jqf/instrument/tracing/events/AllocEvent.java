@@ -44,13 +44,24 @@ public class AllocEvent extends TraceEvent {
      * size 1, whereas arrays of the form new T[N] are considered allocations
      * of size N.
      */
-    private final int size;
+    private int size;
 
     public AllocEvent(int iid, MemberRef containingMethod, int lineNumber, int size) {
         super(iid, containingMethod, lineNumber);
         this.size = size;
     }
 
+    /**
+     * Re-initializes this event in place (see {@link TraceEvent}).
+     *
+     * @return this event
+     */
+    public AllocEvent set(int iid, MemberRef containingMethod, int lineNumber, int size) {
+        init(iid, containingMethod, lineNumber);
+        this.size = size;
+        return this;
+    }
+
     public int getSize() {
         return size;
     }
@@ -42,13 +42,24 @@ public class BranchEvent extends TraceEvent {
      * switch-cases, the arm is the index of the case
      * statement (default arm = -1)
      */
-    protected final int arm;
+    protected int arm;
 
     public BranchEvent(int iid, MemberRef containingMethod, int lineNumber, int arm) {
         super(iid, containingMethod, lineNumber);
         this.arm = arm;
     }
 
+    /**
+     * Re-initializes this event in place (see {@link TraceEvent}).
+     *
+     * @return this event
+     */
+    public BranchEvent set(int iid, MemberRef containingMethod, int lineNumber, int arm) {
+        init(iid, containingMethod, lineNumber);
+        this.arm = arm;
+        return this;
+    }
+
     public int getArm() {
         return arm;
     }
@@ -34,19 +34,36 @@ import janala.logger.inst.MemberRef;
  * @author Rohan Padhye
  */
 public class CallEvent extends TraceEvent {
-    protected final MemberRef invokedMethod;
-    private String str;
+    protected MemberRef invokedMethod;
 
     public CallEvent(int iid, MemberRef containingMethod, int lineNumber, MemberRef invokedMethod) {
         super(iid, containingMethod, lineNumber);
         this.invokedMethod = invokedMethod;
     }
 
+    /**
+     * Creates a copy of a call event that remains valid after the
+     * tracer has re-used the original (see {@link TraceEvent}).
+     *
+     * @param other the event to copy
+     */
+    public CallEvent(CallEvent other) {
+        this(other.iid, other.containingMethod, other.lineNumber, other.invokedMethod);
+    }
+
+    /**
+     * Re-initializes this event in place (see {@link TraceEvent}).
+     *
+     * @return this event
+     */
+    public CallEvent set(int iid, MemberRef containingMethod, int lineNumber, MemberRef invokedMethod) {
+        init(iid, containingMethod, lineNumber);
+        this.invokedMethod = invokedMethod;
+        return this;
+    }
+
     public String getInvokedMethodName() {
-        if (str == null) {
-            this.str = invokedMethod.getOwner() + "." + invokedMethod.getName() + ":" + invokedMethod.getDesc();
-        }
-        return str;
+        return invokedMethod.getQualifiedName();
     }
 
     @Override
@@ -38,6 +38,16 @@ public class ReturnEvent extends TraceEvent {
         super(iid, containingMethod, lineNumber);
     }
 
+    /**
+     * Re-initializes this event in place (see {@link TraceEvent}).
+     *
+     * @return this event
+     */
+    public ReturnEvent set(int iid, MemberRef containingMethod, int lineNumber) {
+        init(iid, containingMethod, lineNumber);
+        return this;
+    }
+
     @Override
     public String toString() {
         return String.format("RET(%d,%d)", iid, lineNumber);
@@ -33,14 +33,37 @@ import janala.logger.inst.MemberRef;
 /**
  * An interface representing by a trace event such as CALL, RETURN or BRANCH.
  *
+ * <p>To keep tracing free of allocation, each thread's tracer re-initializes
+ * and emits the same event instance of each type over and over again. An
+ * event is therefore only valid for the duration of the callback that receives
+ * it; consumers that need to keep an event around must copy the state they
+ * need.</p>
  *
  * @author Rohan Padhye
  */
 public abstract class TraceEvent {
 
-    protected final int iid;
-    protected final MemberRef containingMethod;
-    protected final int lineNumber;
+    /** The bit of an event mask that selects {@link BranchEvent}s. */
+    public static final int BRANCH_EVENTS = 1;
+
+    /** The bit of an event mask that selects {@link CallEvent}s. */
+    public static final int CALL_EVENTS = 1 << 1;
+
+    /** The bit of an event mask that selects {@link ReturnEvent}s. */
+    public static final int RETURN_EVENTS = 1 << 2;
+
+    /** The bit of an event mask that selects {@link ReadEvent}s. */
+    public static final int READ_EVENTS = 1 << 3;
+
+    /** The bit of an event mask that selects {@link AllocEvent}s. */
+    public static final int ALLOC_EVENTS = 1 << 4;
+
+    /** An event mask that selects all kinds of events. */
+    public static final int ALL_EVENTS = BRANCH_EVENTS | CALL_EVENTS | RETURN_EVENTS | READ_EVENTS | ALLOC_EVENTS;
+
+    protected int iid;
+    protected MemberRef containingMethod;
+    protected int lineNumber;
 
     public TraceEvent(int iid, MemberRef method, int lineNumber) {
         this.iid = iid;
@@ -48,6 +71,12 @@ public abstract class TraceEvent {
         this.lineNumber = lineNumber;
     }
 
+    protected void init(int iid, MemberRef method, int lineNumber) {
+        this.iid = iid;
+        this.containingMethod = method;
+        this.lineNumber = lineNumber;
+    }
+
     public int getIid() {
         return iid;
     }
@@ -28,61 +28,145 @@
  */
 package edu.berkeley.cs.jqf.instrument.util;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
 /**
  * A blocking queue for single-producer and single-consumer where the producer and
  * consumer never change and are distinct threads.
  *
  * This allows reading and writing from the queue without using system
- * locks. The only synchronization is via {@code volatile} pointers for the producer
- * and consumer in a fixed-size circular buffer.
+ * locks. The only synchronization is via the positions of the producer and
+ * consumer in a fixed-size circular buffer: the producer writes an item before
+ * publishing its new position with release semantics, and the consumer reads the
+ * producer's position with acquire semantics before reading the item (and
+ * vice-versa for the slots that the consumer frees). Each side caches the last
+ * position it read of the other, so that it only reads the shared position again
+ * when the queue appears to be empty or full.
  *
- * Reading from an empty queue and writing to a full queue results in a spinning wait,
+ * Reading from an empty queue and writing to a full queue results in a spinning wait
+ * (which yields the CPU once it has lasted for a while),
  * and therefore the producer and consumer <em>must</em> be distinct in order to avoid
  * deadlocks.
  *
  * @author Rohan Padhye
  */
 public final class FastBlockingQueue<T> {
-    private final int size;
+    private static final VarHandle PRODUCER;
+    private static final VarHandle CONSUMER;
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            PRODUCER = lookup.findVarHandle(FastBlockingQueue.class, "producer", long.class);
+            CONSUMER = lookup.findVarHandle(FastBlockingQueue.class, "consumer", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static final int SPINS_BEFORE_YIELDING = 100;
+
     private final Object[] buffer;
-    private volatile int producer = 0;
-    private volatile int consumer = 0;
+    private final int mask;
 
-    public FastBlockingQueue(int size) {
-        this.size = size;
-        this.buffer = new Object[size];
-    }
+    // Positions only ever increase; the item at position p is stored at buffer[p & mask]
+    private long producer = 0; // Written only by the producer
+    private long consumer = 0; // Written only by the consumer
+    private long cachedConsumer = 0; // Read only by the producer
+    private long cachedProducer = 0; // Read only by the consumer
 
-    private int increment(int idx) {
-        return (idx + 1) % size;
+    /**
+     * Creates a queue.
+     *
+     * @param size the number of items that the queue can hold, which
+     *             is rounded up to a power of two
+     */
+    public FastBlockingQueue(int size) {
+        if (size <= 0 || size > (1 << 30)) {
+            throw new IllegalArgumentException("Invalid size: " + size);
+        }
+        int capacity = 1;
+        while (capacity < size) {
+            capacity <<= 1;
+        }
+        this.buffer = new Object[capacity];
+        this.mask = capacity - 1;
     }
 
     public final boolean isEmpty() {
-        return producer == consumer;
+        return (long) CONSUMER.getAcquire(this) == (long) PRODUCER.getAcquire(this);
     }
 
     public final boolean isFull() {
-        return increment(producer) == consumer;
+        return (long) PRODUCER.getAcquire(this) - (long) CONSUMER.getAcquire(this) == buffer.length;
+    }
+
+    /**
+     * Adds an item to the queue if it is not full. Must only be called by the producer.
+     *
+     * @param item the item to add
+     * @return whether the item was added
+     */
+    public final boolean offer(T item) {
+        long position = producer;
+        if (position - cachedConsumer == buffer.length) {
+            cachedConsumer = (long) CONSUMER.getAcquire(this);
+            if (position - cachedConsumer == buffer.length) {
+                return false;
+            }
+        }
+        buffer[(int) position & mask] = item;
+        PRODUCER.setRelease(this, position + 1);
+        return true;
     }
 
     public final void put(T item) {
-        while (isFull()) {
-            // Spin-block
+        long ticks = 0;
+        while (!offer(item)) {
+            spin(++ticks);
         }
-        buffer[producer] = item;
-        producer = increment(producer);
+    }
+
+    /**
+     * Removes the next item from the queue if it is not empty. Must only be
+     * called by the consumer.
+     *
+     * @return the removed item, or {@code null} if the queue was empty
+     */
+    public final T poll() {
+        long position = consumer;
+        if (position == cachedProducer) {
+            cachedProducer = (long) PRODUCER.getAcquire(this);
+            if (position == cachedProducer) {
+                return null;
+            }
+        }
+        int index = (int) position & mask;
+        @SuppressWarnings("unchecked")
+        T item = (T) buffer[index];
+        buffer[index] = null; // Do not retain removed items
+        CONSUMER.setRelease(this, position + 1);
+        return item;
     }
 
     public final T remove(long timeout) {
         long ticks = 0;
-        while(isEmpty()) {
+        T item;
+        while ((item = poll()) == null) {
             if (++ticks > timeout) {
                 return null;
             }
+            spin(ticks);
         }
-        @SuppressWarnings("unchecked")
-        T item = (T) buffer[consumer];
-        consumer = increment(consumer);
         return item;
     }
+
+    // Busy-waits at first, but then lets the other side run if it shares our CPU
+    private static void spin(long ticks) {
+        if (ticks < SPINS_BEFORE_YIELDING) {
+            Thread.onSpinWait();
+        } else {
+            Thread.yield();
+        }
+    }
 }
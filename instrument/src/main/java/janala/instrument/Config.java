@@ -13,11 +13,18 @@ class Config {
 
   public final boolean verbose;
   public final String analysisClass;
+  public final boolean coverageOnly;
+  public final boolean inlineCoverage;
   public final String[] excludeInst;
   public final String[] includeInst;
   public final boolean instrumentHeapLoad;
   public final boolean instrumentAlloc;
+  public final boolean switchableProbes;
+  public final boolean minimizeProbes;
+  public final boolean traceTasks;
   public final String instrumentationCacheDir;
+  // Identifies the options that affect instrumented bytecode, to key cache entries
+  public final String fingerprint;
 
   private Config() {
       // Read properties from the conf file
@@ -39,8 +46,38 @@ class Config {
                       .replace('.', '/');
 
 
-      instrumentHeapLoad = Boolean.parseBoolean(properties.getProperty("janala.instrumentHeapLoad", "false"));
-      instrumentAlloc = Boolean.parseBoolean(properties.getProperty("janala.instrumentAlloc", "false"));
+      // The "coverage" mode only emits probes for branches, switches, calls and returns
+      // The "inline" mode increments counters for branches and calls in place (no calls to the analysis class)
+      String mode = properties.getProperty("janala.mode", "full");
+      if (mode.equals("full")) {
+          coverageOnly = false;
+          inlineCoverage = false;
+      } else if (mode.equals("coverage")) {
+          coverageOnly = true;
+          inlineCoverage = false;
+      } else if (mode.equals("inline")) {
+          coverageOnly = true;
+          inlineCoverage = true;
+      } else {
+          throw new IllegalArgumentException("Unknown instrumentation mode: " + mode);
+      }
+
+      instrumentHeapLoad = !coverageOnly &&
+              Boolean.parseBoolean(properties.getProperty("janala.instrumentHeapLoad", "false"));
+      instrumentAlloc = !coverageOnly &&
+              Boolean.parseBoolean(properties.getProperty("janala.instrumentAlloc", "false"));
+
+      // Branch probes can be routed through invokedynamic so that they can be switched off at runtime
+      switchableProbes = !inlineCoverage &&
+              Boolean.parseBoolean(properties.getProperty("janala.switchableProbes", "false"));
+
+      // In inline mode, probes can be omitted for branch arms whose counts follow from other probes
+      minimizeProbes = inlineCoverage &&
+              Boolean.parseBoolean(properties.getProperty("janala.minimizeProbes", "false"));
+
+      // Tasks passed to executors can be wrapped so that the pool threads that run them are traced
+      traceTasks = !inlineCoverage &&
+              Boolean.parseBoolean(properties.getProperty("janala.traceTasks", "true"));
 
       String excludeInstStr = properties.getProperty("janala.excludes", null);
       if (excludeInstStr != null) {
@@ -58,5 +95,10 @@ class Config {
 
       instrumentationCacheDir = properties.getProperty("janala.instrumentationCacheDir");
 
+      fingerprint = "mode=" + mode + ";snoop=" + analysisClass +
+              ";heapLoad=" + instrumentHeapLoad + ";alloc=" + instrumentAlloc +
+              ";switchable=" + switchableProbes + ";minimize=" + minimizeProbes +
+              ";tasks=" + traceTasks;
+
   }
 }
@@ -1,53 +1,59 @@
 package janala.instrument;
 
-/** An object to keep track of (classId, methodId, instructionId) tuples during
- instrumentation. */
+import java.util.Arrays;
+
+/** An object to keep track of the method being instrumented, and to hand out
+ instruction IDs from the {@link ProbeRegistry}. A fresh instance is used for
+ each class, so that classes can be instrumented concurrently. */
 public class GlobalStateForInstrumentation {
-  public static GlobalStateForInstrumentation instance = new GlobalStateForInstrumentation();
-  private int iid = 0;
   private int mid = 0;
-  private int cid = 0;
-
-  // When one gets the id, she gets the result of merging all three ids.
-  // NOTE: Beaware of truncation errors.
-  private final static int CBITS = 10;  // CID occupies the upper 10 bits
-  private final static int MBITS = 10;  // MID occupies the next 10 bits
-  private final static int IBITS = 32 - CBITS - MBITS;  // MID occupies the remaining 12 bits
+  private int probeBound = 0;
+  // Triples of (slot, first source slot, end of source slots) for counts derived from other probes
+  private int[] derivedCounts = new int[0];
+  private int numDerivedCounts = 0;
 
+  /** Allocates a fresh instruction ID that is unique across all classes. */
   public int incAndGetId() {
-    iid++;
-    validate(iid, IBITS);
-    return getId();
+    return incAndGetIds(1);
   }
 
-  public int getId() {
-    return (cid << (32 - CBITS)) + (mid << (32 - CBITS - MBITS)) + iid;
+  /** Allocates {@code count} consecutive instruction IDs and returns the first one. */
+  public int incAndGetIds(int count) {
+    int first = ProbeRegistry.allocate(count);
+    probeBound = Math.max(probeBound, first + count);
+    return first;
   }
 
-  public int getMid() {
-    return mid;
+  /** Returns one more than the highest instruction ID allocated so far, or 0 if none. */
+  public int getProbeBound() {
+    return probeBound;
   }
 
-  public void incMid() {
-    this.mid++;
-    validate(mid, MBITS);
-    this.iid = 0;
+  /**
+   * Records that the count of a slot is the sum of the counts of a range of
+   * slots, instead of being incremented by a probe of its own. Derived counts
+   * must be added after the derived counts that they depend on.
+   */
+  public void addDerivedCount(int slot, int sourceStart, int sourceEnd) {
+    if (3 * numDerivedCounts == derivedCounts.length) {
+      derivedCounts = Arrays.copyOf(derivedCounts, Math.max(12, 2 * derivedCounts.length));
+    }
+    derivedCounts[3 * numDerivedCounts] = slot;
+    derivedCounts[3 * numDerivedCounts + 1] = sourceStart;
+    derivedCounts[3 * numDerivedCounts + 2] = sourceEnd;
+    numDerivedCounts++;
   }
 
-  public int getCid() {
-    return cid;
+  /** Returns the derived counts as (slot, first source slot, end of source slots) triples. */
+  public int[] getDerivedCounts() {
+    return Arrays.copyOf(derivedCounts, 3 * numDerivedCounts);
   }
 
-  public void setCid(int cid) {
-    cid = Math.abs(cid) % (1 << CBITS);
-    this.iid = 0;
-    this.mid = 0;
-    this.cid = cid;
+  public int getMid() {
+    return mid;
   }
 
-  private void validate(int id, int bits) {
-    if (id < 0 || id >= (1 << bits)) {
-      throw new IllegalArgumentException("Invalid instruction ID range");
-    }
+  public void incMid() {
+    this.mid++;
   }
 }
@@ -0,0 +1,374 @@
+package janala.instrument;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * A content-addressed cache of instrumented classes, which may be shared by
+ * concurrently running JVMs.
+ *
+ * <p>Entries are keyed by the SHA-256 hash of the instrumentation
+ * configuration and the original bytecode, so a lookup never needs to
+ * compare the original class. All instrumented classes are appended to a
+ * single pack file, and are located through an open-addressing hash table
+ * in a memory-mapped index file. Lookups do not take any locks; writers
+ * serialize on a file lock over the pack file.</p>
+ *
+ * <p>The pack file header also holds the next free probe ID, from which
+ * JVMs that share the cache reserve blocks of IDs, so that the IDs in cached
+ * classes are unique across all of them. The IDs of cached classes are
+ * never reused, so the coverage maps grow with the number of distinct
+ * classes that have been cached; deleting the cache directory starts the
+ * IDs afresh.</p>
+ */
+class InstrumentationCache implements ProbeRegistry.BlockSource {
+  static final String PACK_FILE = "classes.pack";
+  static final String INDEX_FILE = "classes.idx";
+
+  private static final int MAGIC = 0x4A514643;
+  private static final int VERSION = 1;
+
+  // Both files start with a header of HEADER_SIZE bytes:
+  //   pack:  magic, version, next free probe ID
+  //   index: magic, version, capacity, count, stale flag
+  private static final int HEADER_SIZE = 64;
+  private static final int NEXT_PROBE_OFFSET = 8;
+  private static final int CAPACITY_OFFSET = 8;
+  private static final int COUNT_OFFSET = 12;
+  private static final int STALE_OFFSET = 16;
+
+  // Keys are SHA-256 hashes, handled as four longs
+  private static final int KEY_LONGS = 4;
+  private static final int KEY_SIZE = KEY_LONGS * Long.BYTES;
+
+  // A pack record is the key, the probe bound and the length, followed by the bytecode
+  private static final int RECORD_HEADER_SIZE = KEY_SIZE + 2 * Integer.BYTES;
+
+  // An index slot is the key followed by the offset of its record; an offset of 0 marks an empty slot
+  private static final int SLOT_SIZE = KEY_SIZE + Long.BYTES;
+  private static final int INITIAL_CAPACITY = 1 << 14;
+
+  /** An instrumented class found in the cache. */
+  static class Entry {
+    final byte[] bytecode;
+    final int probeBound;
+
+    Entry(byte[] bytecode, int probeBound) {
+      this.bytecode = bytecode;
+      this.probeBound = probeBound;
+    }
+  }
+
+  /** A mapping of the index file; replaced when the index is grown. */
+  private static class Index {
+    final MappedByteBuffer buffer;
+    final int capacity;
+
+    Index(MappedByteBuffer buffer) {
+      this.buffer = buffer;
+      this.capacity = buffer.getInt(CAPACITY_OFFSET);
+    }
+
+    boolean isStale() {
+      return buffer.getInt(STALE_OFFSET) != 0;
+    }
+  }
+
+  private final File indexFile;
+  private final FileChannel pack;
+  private final byte[] fingerprint;
+
+  // File locks are held per JVM, so threads in this JVM synchronize on this object first
+  private final Object writeLock = new Object();
+  private volatile Index index;
+
+  private InstrumentationCache(File dir, FileChannel pack, String fingerprint) {
+    this.indexFile = new File(dir, INDEX_FILE);
+    this.pack = pack;
+    this.fingerprint = fingerprint.getBytes(StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Opens the cache in the given directory, creating it if needed.
+   *
+   * @param dir the cache directory
+   * @param fingerprint identifies the options that affect instrumented bytecode
+   * @return the cache
+   * @throws IOException if the cache cannot be opened
+   */
+  static InstrumentationCache open(File dir, String fingerprint) throws IOException {
+    dir.mkdirs();
+    FileChannel pack = FileChannel.open(new File(dir, PACK_FILE).toPath(),
+        StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    InstrumentationCache cache = new InstrumentationCache(dir, pack, fingerprint);
+    synchronized (cache.writeLock) {
+      try (FileLock lock = pack.lock()) {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        pack.read(header, 0);
+        if (pack.size() < HEADER_SIZE || header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+          // Empty, or written in a different format; start afresh
+          pack.truncate(0);
+          header.clear();
+          header.putInt(0, MAGIC).putInt(4, VERSION).putInt(NEXT_PROBE_OFFSET, 1);
+          pack.write(header, 0);
+          cache.createIndex(INITIAL_CAPACITY);
+        } else if (!cache.indexFile.exists()) {
+          cache.createIndex(INITIAL_CAPACITY);
+        }
+        cache.index = cache.mapIndex();
+      }
+    }
+    return cache;
+  }
+
+  /**
+   * Computes the key of a class.
+   *
+   * @param original the original bytecode
+   * @return the key under which the instrumented class is cached
+   */
+  long[] keyOf(byte[] original) {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new AssertionError("SHA-256 is always supported", e);
+    }
+    digest.update(fingerprint);
+    digest.update(original);
+    ByteBuffer hash = ByteBuffer.wrap(digest.digest());
+    long[] key = new long[KEY_LONGS];
+    for (int i = 0; i < KEY_LONGS; i++) {
+      key[i] = hash.getLong();
+    }
+    return key;
+  }
+
+  /**
+   * Looks up an instrumented class.
+   *
+   * @param key the key of the class
+   * @return the cached entry, or {@code null} if the class is not cached
+   * @throws IOException if the pack file cannot be read
+   */
+  Entry lookup(long[] key) throws IOException {
+    Index index = this.index;
+    long offset = find(index, key);
+    if (offset == 0 && index.isStale()) {
+      // Another JVM has grown the index
+      synchronized (writeLock) {
+        refreshIndex();
+      }
+      offset = find(this.index, key);
+    }
+    if (offset == 0) {
+      return null;
+    }
+
+    ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+    readFully(header, offset);
+    for (int i = 0; i < KEY_LONGS; i++) {
+      if (header.getLong(i * Long.BYTES) != key[i]) {
+        return null; // Torn index slot; treat as a miss
+      }
+    }
+    int probeBound = header.getInt(KEY_SIZE);
+    int length = header.getInt(KEY_SIZE + Integer.BYTES);
+    ByteBuffer bytecode = ByteBuffer.allocate(length);
+    readFully(bytecode, offset + RECORD_HEADER_SIZE);
+    return new Entry(bytecode.array(), probeBound);
+  }
+
+  /**
+   * Adds an instrumented class to the cache, unless it is already present.
+   *
+   * @param key the key of the class
+   * @param bytecode the instrumented bytecode
+   * @param probeBound one more than the highest probe ID in the class
+   * @throws IOException if the cache cannot be written
+   */
+  void store(long[] key, byte[] bytecode, int probeBound) throws IOException {
+    synchronized (writeLock) {
+      try (FileLock lock = pack.lock()) {
+        refreshIndex();
+        if (find(index, key) != 0) {
+          return; // Stored concurrently by another thread or JVM
+        }
+
+        // Append the record to the pack
+        long offset = pack.size();
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + bytecode.length);
+        for (long k : key) {
+          record.putLong(k);
+        }
+        record.putInt(probeBound).putInt(bytecode.length).put(bytecode);
+        record.flip();
+        while (record.hasRemaining()) {
+          pack.write(record, offset + record.position());
+        }
+
+        // Add it to the index, growing the index first if it is 70% full
+        int count = index.buffer.getInt(COUNT_OFFSET);
+        if ((count + 1) * 10L > index.capacity * 7L) {
+          growIndex();
+        }
+        insert(index, key, offset);
+        index.buffer.putInt(COUNT_OFFSET, count + 1);
+      }
+    }
+  }
+
+  @Override
+  public int reserve(int count, int atLeast) throws IOException {
+    synchronized (writeLock) {
+      try (FileLock lock = pack.lock()) {
+        ByteBuffer next = ByteBuffer.allocate(Integer.BYTES);
+        readFully(next, NEXT_PROBE_OFFSET);
+        int first = Math.max(next.getInt(0), Math.max(atLeast, 1));
+        if (first + count < 0) {
+          throw new IOException("Probe ID space of instrumentation cache exhausted");
+        }
+        next.clear();
+        next.putInt(0, first + count);
+        pack.write(next, NEXT_PROBE_OFFSET);
+        return first;
+      }
+    }
+  }
+
+  @Override
+  public void release(int first, int end) throws IOException {
+    synchronized (writeLock) {
+      try (FileLock lock = pack.lock()) {
+        ByteBuffer next = ByteBuffer.allocate(Integer.BYTES);
+        readFully(next, NEXT_PROBE_OFFSET);
+        if (next.getInt(0) != end) {
+          return; // Another JVM has reserved IDs after this block
+        }
+        next.clear();
+        next.putInt(0, first);
+        pack.write(next, NEXT_PROBE_OFFSET);
+      }
+    }
+  }
+
+  /** Returns the record offset of a key in the index, or 0 if it is not present. */
+  private static long find(Index index, long[] key) {
+    int mask = index.capacity - 1;
+    for (int i = 0, slot = (int) key[0] & mask; i < index.capacity; i++, slot = (slot + 1) & mask) {
+      int pos = HEADER_SIZE + slot * SLOT_SIZE;
+      // The offset is written last, so a non-zero offset means the key is complete
+      long offset = index.buffer.getLong(pos + KEY_SIZE);
+      if (offset == 0) {
+        return 0;
+      }
+      if (keyMatches(index.buffer, pos, key)) {
+        return offset;
+      }
+    }
+    return 0;
+  }
+
+  private static boolean keyMatches(MappedByteBuffer buffer, int pos, long[] key) {
+    for (int i = 0; i < KEY_LONGS; i++) {
+      if (buffer.getLong(pos + i * Long.BYTES) != key[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Inserts a key into the index, which must have a free slot. */
+  private static void insert(Index index, long[] key, long offset) {
+    int mask = index.capacity - 1;
+    int slot = (int) key[0] & mask;
+    while (index.buffer.getLong(HEADER_SIZE + slot * SLOT_SIZE + KEY_SIZE) != 0) {
+      slot = (slot + 1) & mask;
+    }
+    int pos = HEADER_SIZE + slot * SLOT_SIZE;
+    for (int i = 0; i < KEY_LONGS; i++) {
+      index.buffer.putLong(pos + i * Long.BYTES, key[i]);
+    }
+    index.buffer.putLong(pos + KEY_SIZE, offset);
+  }
+
+  /** Re-maps the index if it has been replaced; must hold the write lock. */
+  private void refreshIndex() throws IOException {
+    if (index.isStale()) {
+      index = mapIndex();
+    }
+  }
+
+  /** Replaces the index with one of twice the capacity; must hold the write lock and file lock. */
+  private void growIndex() throws IOException {
+    Index old = index;
+    File tmp = File.createTempFile(INDEX_FILE, ".tmp", indexFile.getParentFile());
+    try {
+      Index grown = new Index(createIndex(tmp, old.capacity * 2));
+      int count = 0;
+      for (int slot = 0; slot < old.capacity; slot++) {
+        int pos = HEADER_SIZE + slot * SLOT_SIZE;
+        long offset = old.buffer.getLong(pos + KEY_SIZE);
+        if (offset != 0) {
+          long[] key = new long[KEY_LONGS];
+          for (int i = 0; i < KEY_LONGS; i++) {
+            key[i] = old.buffer.getLong(pos + i * Long.BYTES);
+          }
+          insert(grown, key, offset);
+          count++;
+        }
+      }
+      grown.buffer.putInt(COUNT_OFFSET, count);
+      Files.move(tmp.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      // Tell other JVMs to re-map the index
+      old.buffer.putInt(STALE_OFFSET, 1);
+      index = grown;
+    } finally {
+      Files.deleteIfExists(tmp.toPath());
+    }
+  }
+
+  private void createIndex(int capacity) throws IOException {
+    Files.deleteIfExists(indexFile.toPath());
+    createIndex(indexFile, capacity);
+  }
+
+  private static MappedByteBuffer createIndex(File file, int capacity) throws IOException {
+    try (FileChannel channel = FileChannel.open(file.toPath(),
+        StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+          HEADER_SIZE + (long) capacity * SLOT_SIZE);
+      buffer.putInt(0, MAGIC).putInt(4, VERSION).putInt(CAPACITY_OFFSET, capacity);
+      return buffer;
+    }
+  }
+
+  private Index mapIndex() throws IOException {
+    try (FileChannel channel = FileChannel.open(indexFile.toPath(),
+        StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+      if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+        throw new IOException("Corrupt instrumentation cache index: " + indexFile);
+      }
+      return new Index(buffer);
+    }
+  }
+
+  private void readFully(ByteBuffer buffer, long position) throws IOException {
+    while (buffer.hasRemaining()) {
+      if (pack.read(buffer, position + buffer.position()) < 0) {
+        throw new IOException("Truncated instrumentation cache");
+      }
+    }
+  }
+}
@@ -0,0 +1,318 @@
+package janala.instrument;
+
+import java.util.Arrays;
+import java.util.function.Function;
+
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.InsnList;
+import org.objectweb.asm.tree.JumpInsnNode;
+import org.objectweb.asm.tree.LabelNode;
+import org.objectweb.asm.tree.LdcInsnNode;
+import org.objectweb.asm.tree.LookupSwitchInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.TableSwitchInsnNode;
+import org.objectweb.asm.tree.TryCatchBlockNode;
+
+/**
+ * Finds the branch-arm probes of a method whose counts can be inferred
+ * from other probes, so that they need not be instrumented.
+ *
+ * <p>The method is split into basic blocks. An arm of a conditional jump
+ * or switch is an edge to the block that starts at the arm's target. If that
+ * block has no other predecessor, and it flows into the next branch only
+ * through blocks that have no other predecessor and contain no instruction
+ * that may throw an exception, then every execution of the arm is followed
+ * by exactly one execution of the next branch, and vice versa. The arm's
+ * count is then the sum of the counts of the next branch's arms, so it does
+ * not need a probe of its own.</p>
+ *
+ * <p>A typical example is the chain of {@code else if} tests in a lexer,
+ * where the fall-through arm of each test leads straight to the next test.</p>
+ *
+ * <p>This is the only class of the instrumenter that uses the ASM tree API,
+ * so that it is not needed on the class path unless probes are minimized.</p>
+ */
+class ProbeMinimizer implements Opcodes {
+
+  /** Marks an arm that needs a probe. */
+  static final int PROBED = -1;
+
+  /** The maximum number of instructions to follow from an arm to the next branch. */
+  private static final int MAX_PATH_LENGTH = 64;
+
+  /** Used for instructions that have an unknown number of predecessors. */
+  private static final int MANY = Integer.MAX_VALUE / 2;
+
+  private ProbeMinimizer() {}
+
+  /**
+   * Returns a visitor that buffers a whole method, analyzes it, and then
+   * replays it into the visitor that {@code instrumenter} returns for the
+   * result of {@link #analyze}.
+   */
+  static MethodVisitor analyzeThen(int access, String name, String desc, String signature,
+      String[] exceptions, Function<int[][], MethodVisitor> instrumenter) {
+    return new MethodNode(ASM8, access, name, desc, signature, exceptions) {
+      @Override
+      public void visitEnd() {
+        accept(instrumenter.apply(analyze(this)));
+      }
+    };
+  }
+
+  /** Returns a visitor that buffers a method until it is passed to {@link #replay}. */
+  static MethodVisitor buffer(int access, String name, String desc, String signature,
+      String[] exceptions) {
+    return new MethodNode(ASM8, access, name, desc, signature, exceptions);
+  }
+
+  /** Replays the code of a method buffered by {@link #buffer}. */
+  static void replay(MethodVisitor buffered, MethodVisitor target) {
+    ((MethodNode) buffered).accept(target);
+  }
+
+  /**
+   * Analyzes a method.
+   *
+   * <p>Branches are numbered by the order of their conditional jump,
+   * TABLESWITCH or LOOKUPSWITCH instructions in the method. For branch
+   * {@code k}, the entry {@code [k][arm - minArm]} of the result is either
+   * {@link #PROBED}, or the number of the branch whose arms add up to the
+   * count of that arm.</p>
+   *
+   * @param method the method to analyze
+   * @return the source branch of each arm, or {@code null} if no probe can be omitted
+   */
+  static int[][] analyze(MethodNode method) {
+    InsnList insns = method.instructions;
+    int size = insns.size();
+
+    // Number the branches, and give up on subroutines
+    int[] branchNumbers = new int[size];
+    int branchCount = 0;
+    for (int i = 0; i < size; i++) {
+      AbstractInsnNode insn = insns.get(i);
+      int opcode = insn.getOpcode();
+      if (opcode == JSR || opcode == RET) {
+        return null;
+      }
+      branchNumbers[i] = isBranch(insn) ? branchCount++ : -1;
+    }
+    if (branchCount < 2) {
+      return null;
+    }
+
+    // Count the control-flow edges into each instruction
+    int[] preds = new int[size];
+    preds[realInsn(insns, 0)] = 1; // The method entry
+    for (TryCatchBlockNode handler : method.tryCatchBlocks) {
+      preds[realInsn(insns, insns.indexOf(handler.handler))] = MANY;
+    }
+    for (int i = 0; i < size; i++) {
+      AbstractInsnNode insn = insns.get(i);
+      if (insn.getOpcode() < 0) {
+        continue;
+      }
+      for (LabelNode target : targets(insn)) {
+        preds[realInsn(insns, insns.indexOf(target))]++;
+      }
+      if (fallsThrough(insn) && i + 1 < size) {
+        preds[realInsn(insns, i + 1)]++;
+      }
+    }
+
+    int[][] sources = new int[branchCount][];
+    boolean found = false;
+    for (int i = 0; i < size; i++) {
+      AbstractInsnNode insn = insns.get(i);
+      if (branchNumbers[i] < 0) {
+        continue;
+      }
+      LabelNode[] arms = arms(insn);
+      int[] armSources = new int[arms.length];
+      for (int a = 0; a < arms.length; a++) {
+        // The fall-through arm of a conditional jump has no label
+        int target = arms[a] == null ? realInsn(insns, i + 1) : realInsn(insns, insns.indexOf(arms[a]));
+        int next = nextBranch(insns, preds, target);
+        armSources[a] = next >= 0 && next != i ? branchNumbers[next] : PROBED;
+        found |= armSources[a] != PROBED;
+      }
+      sources[branchNumbers[i]] = armSources;
+    }
+    if (!found) {
+      return null;
+    }
+    // Unreachable code may form cycles, which must be broken for the counts to be computable
+    byte[] state = new byte[branchCount];
+    for (int k = 0; k < branchCount; k++) {
+      breakCycles(sources, state, k);
+    }
+    return sources;
+  }
+
+  /** Probes any arm whose count would (transitively) depend on itself. */
+  private static void breakCycles(int[][] sources, byte[] state, int branch) {
+    if (state[branch] != 0) {
+      return;
+    }
+    state[branch] = 1; // In progress
+    int[] armSources = sources[branch];
+    for (int a = 0; a < armSources.length; a++) {
+      int source = armSources[a];
+      if (source == PROBED) {
+        continue;
+      }
+      if (state[source] == 1) {
+        armSources[a] = PROBED;
+      } else {
+        breakCycles(sources, state, source);
+      }
+    }
+    state[branch] = 2; // Done
+  }
+
+  /**
+   * Follows the straight-line code from the target of an arm, and returns
+   * the index of the branch that it always reaches, or -1 if there is no
+   * such branch.
+   */
+  private static int nextBranch(InsnList insns, int[] preds, int target) {
+    int current = target;
+    for (int steps = 0; steps < MAX_PATH_LENGTH; steps++) {
+      if (current >= insns.size() || preds[current] != 1) {
+        return -1;
+      }
+      AbstractInsnNode insn = insns.get(current);
+      if (isBranch(insn)) {
+        return current;
+      } else if (insn.getOpcode() == GOTO) {
+        current = realInsn(insns, insns.indexOf(((JumpInsnNode) insn).label));
+      } else if (isSafe(insn)) {
+        current = realInsn(insns, current + 1);
+      } else {
+        return -1;
+      }
+    }
+    return -1;
+  }
+
+  /** Returns the index of the first real instruction at or after the given index. */
+  private static int realInsn(InsnList insns, int index) {
+    while (index < insns.size() && insns.get(index).getOpcode() < 0) {
+      index++;
+    }
+    return index;
+  }
+
+  private static boolean isBranch(AbstractInsnNode insn) {
+    switch (insn.getType()) {
+      case AbstractInsnNode.JUMP_INSN:
+        int opcode = insn.getOpcode();
+        return opcode != GOTO && opcode != JSR;
+      case AbstractInsnNode.TABLESWITCH_INSN:
+      case AbstractInsnNode.LOOKUPSWITCH_INSN:
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  /** Returns the targets of a branch's arms in order, with {@code null} for the fall-through. */
+  private static LabelNode[] arms(AbstractInsnNode insn) {
+    if (insn instanceof TableSwitchInsnNode) {
+      TableSwitchInsnNode s = (TableSwitchInsnNode) insn;
+      LabelNode[] arms = new LabelNode[s.labels.size() + 1];
+      arms[0] = s.dflt;
+      for (int i = 0; i < s.labels.size(); i++) {
+        arms[i + 1] = s.labels.get(i);
+      }
+      return arms;
+    } else if (insn instanceof LookupSwitchInsnNode) {
+      LookupSwitchInsnNode s = (LookupSwitchInsnNode) insn;
+      LabelNode[] arms = new LabelNode[s.labels.size() + 1];
+      arms[0] = s.dflt;
+      for (int i = 0; i < s.labels.size(); i++) {
+        arms[i + 1] = s.labels.get(i);
+      }
+      return arms;
+    } else {
+      // Arm 0 falls through, arm 1 jumps
+      return new LabelNode[] { null, ((JumpInsnNode) insn).label };
+    }
+  }
+
+  /** Returns the jump targets of an instruction, counting repeated targets once per edge. */
+  private static LabelNode[] targets(AbstractInsnNode insn) {
+    if (insn instanceof JumpInsnNode) {
+      return new LabelNode[] { ((JumpInsnNode) insn).label };
+    } else if (insn instanceof TableSwitchInsnNode || insn instanceof LookupSwitchInsnNode) {
+      return arms(insn);
+    } else {
+      return new LabelNode[0];
+    }
+  }
+
+  private static boolean fallsThrough(AbstractInsnNode insn) {
+    int opcode = insn.getOpcode();
+    if (opcode >= IRETURN && opcode <= RETURN) {
+      return false;
+    }
+    switch (opcode) {
+      case GOTO:
+      case JSR:
+      case RET:
+      case ATHROW:
+      case TABLESWITCH:
+      case LOOKUPSWITCH:
+        return false;
+      default:
+        return true;
+    }
+  }
+
+  /** Returns whether an instruction falls through to the next one without ever throwing. */
+  private static boolean isSafe(AbstractInsnNode insn) {
+    int opcode = insn.getOpcode();
+    switch (opcode) {
+      case IDIV:
+      case LDIV:
+      case IREM:
+      case LREM:
+        return false; // ArithmeticException
+      case LDC:
+        // Constants that need resolution may fail to load
+        Object cst = ((LdcInsnNode) insn).cst;
+        return cst instanceof Number || cst instanceof String;
+      default:
+        return Arrays.binarySearch(SAFE_OPCODES, opcode) >= 0;
+    }
+  }
+
+  /** Opcodes that only operate on constants, locals and the operand stack (sorted). */
+  private static final int[] SAFE_OPCODES;
+
+  static {
+    int[] ranges = {
+        NOP, DCONST_1,   // Constants
+        BIPUSH, SIPUSH,
+        ILOAD, ALOAD,    // Local variable loads
+        ISTORE, ASTORE,  // Local variable stores
+        POP, SWAP,       // Stack manipulation
+        IADD, DCMPG,     // Arithmetic, conversions and comparisons
+    };
+    int count = 0;
+    for (int r = 0; r < ranges.length; r += 2) {
+      count += ranges[r + 1] - ranges[r] + 1;
+    }
+    int[] opcodes = new int[count];
+    int i = 0;
+    for (int r = 0; r < ranges.length; r += 2) {
+      for (int op = ranges[r]; op <= ranges[r + 1]; op++) {
+        opcodes[i++] = op;
+      }
+    }
+    SAFE_OPCODES = opcodes;
+  }
+}
@@ -0,0 +1,183 @@
+package janala.instrument;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A global registry of probe IDs.
+ *
+ * <p>Every instrumented instruction is assigned a dense, sequential ID
+ * that is unique across all classes, so that coverage maps can be
+ * indexed directly by probe ID without hashing. A probe may reserve
+ * several consecutive IDs, one for each of its arms: a conditional
+ * branch with ID {@code i} owns IDs {@code i} and {@code i+1}, and a
+ * switch with ID {@code i} and {@code n} cases owns IDs {@code i-1}
+ * (the default arm) to {@code i+n-1}.</p>
+ *
+ * <p>ID 0 is never allocated, and is used as the slot for events that
+ * are not associated with an instrumented instruction.</p>
+ *
+ * <p>When instrumented classes are shared with other JVMs (e.g., via the
+ * instrumentation cache), IDs are drawn in blocks from a {@link BlockSource}
+ * that is shared by all of them, so that classes instrumented by different
+ * JVMs never use the same IDs. A JVM hands the unused tail of its last
+ * block back to the source when it exits (see {@link #releaseUnused()}),
+ * so that the IDs, and with them the coverage maps, only grow with the
+ * number of distinct classes that are instrumented.</p>
+ */
+public final class ProbeRegistry {
+
+  /** A source of ID blocks that are unique across JVMs. */
+  public interface BlockSource {
+    /**
+     * Reserves a block of consecutive IDs.
+     *
+     * @param count the number of IDs to reserve
+     * @param atLeast the lowest ID that may be returned
+     * @return the first ID of the reserved block
+     * @throws IOException if the shared state cannot be accessed
+     */
+    int reserve(int count, int atLeast) throws IOException;
+
+    /**
+     * Returns the unused tail of a reserved block. The IDs are reclaimed
+     * only if no IDs have been reserved after them in the meantime.
+     *
+     * @param first the first unused ID
+     * @param end one more than the last ID of the block
+     * @throws IOException if the shared state cannot be accessed
+     */
+    void release(int first, int end) throws IOException;
+  }
+
+  /** The number of IDs to reserve at once from a block source. */
+  private static final int BLOCK_SIZE = 1 << 12;
+
+  /** The next ID to allocate. */
+  private static final AtomicInteger next = new AtomicInteger(1);
+
+  /** The end of the block from which IDs are allocated. */
+  private static volatile int limit = Integer.MAX_VALUE;
+
+  /** One more than the highest ID used by any class in this JVM. */
+  private static final AtomicInteger bound = new AtomicInteger(1);
+
+  private static BlockSource blockSource = null;
+
+  private ProbeRegistry() {}
+
+  /**
+   * Allocates a block of consecutive probe IDs.
+   *
+   * @param count the number of IDs to allocate
+   * @return the first ID of the allocated block
+   */
+  public static int allocate(int count) {
+    if (count <= 0) {
+      throw new IllegalArgumentException("Invalid probe count: " + count);
+    }
+    while (true) {
+      int first = next.get();
+      int end = first + count;
+      if (end < 0) {
+        throw new IllegalStateException("Probe ID space exhausted");
+      }
+      if (end <= limit) {
+        if (next.compareAndSet(first, end)) {
+          bound.accumulateAndGet(end, Math::max);
+          return first;
+        }
+      } else {
+        refill(count);
+      }
+    }
+  }
+
+  private static synchronized void refill(int count) {
+    if (next.get() + count <= limit) {
+      return; // Another thread has already refilled
+    }
+    if (blockSource != null) {
+      int size = Math.max(count, BLOCK_SIZE);
+      try {
+        int first = blockSource.reserve(size, bound.get());
+        // Publish the new start before the new limit, so that concurrent
+        // allocations never see the new limit with the old start
+        next.set(first);
+        limit = first + size;
+        return;
+      } catch (IOException e) {
+        // Fall back to IDs that are only unique within this JVM
+        blockSource = null;
+      }
+    }
+    next.accumulateAndGet(bound.get(), Math::max);
+    limit = Integer.MAX_VALUE;
+  }
+
+  /**
+   * Draws all further IDs in blocks from the given source.
+   *
+   * @param source the shared source of ID blocks
+   */
+  public static synchronized void setBlockSource(BlockSource source) {
+    blockSource = source;
+    // Force the next allocation to reserve a block
+    limit = next.get();
+  }
+
+  /**
+   * Hands the IDs that remain in the current block back to the block
+   * source, so that the next JVM that shares it can use them. IDs that
+   * are allocated afterwards come from a new block.
+   */
+  public static synchronized void releaseUnused() {
+    if (blockSource == null) {
+      return;
+    }
+    int end = limit;
+    // Concurrent allocations fail their CAS and wait in refill()
+    int first = next.getAndSet(end);
+    if (first < end) {
+      try {
+        blockSource.release(first, end);
+      } catch (IOException e) {
+        // The IDs are lost, but they are still unique
+      }
+    }
+  }
+
+  /**
+   * Returns the number of probe slots in use, which is one more than the
+   * highest probe ID used by any class in this JVM.
+   *
+   * @return the size of a coverage map that can hold all probes seen so far
+   */
+  public static int size() {
+    return bound.get();
+  }
+
+  /**
+   * Records that IDs below the given bound are used by a class whose IDs
+   * were drawn from the current block source, e.g., a class loaded from
+   * the instrumentation cache. Such IDs can never be allocated again, so
+   * this only grows the {@link #size()}.
+   *
+   * @param used one more than the highest ID in use
+   */
+  public static void markUsed(int used) {
+    bound.accumulateAndGet(used, Math::max);
+  }
+
+  /**
+   * Records that IDs below the given bound are used by classes that
+   * were instrumented elsewhere (e.g., ahead of time), and makes
+   * sure that they are never allocated again by this JVM.
+   *
+   * @param used one more than the highest ID in use
+   */
+  public static void reserve(int used) {
+    bound.accumulateAndGet(used, Math::max);
+    next.accumulateAndGet(used, Math::max);
+  }
+}
@@ -1,4 +1,3 @@
-
 package janala.instrument;
 
 import org.objectweb.asm.ClassVisitor;
@@ -9,10 +8,35 @@ import org.objectweb.asm.Opcodes;
 public class SnoopInstructionClassAdapter extends ClassVisitor {
   private final String className;
   private String superName;
+  private boolean switchableProbes;
+  private final GlobalStateForInstrumentation instrumentationState;
+
+  // With minimized probes, the static initializer is emitted last, so that it can register the derived counts
+  private final boolean minimizeProbes;
+  private MethodVisitor staticInitializer = null;
+  private int staticInitializerAccess;
+  private String[] staticInitializerExceptions;
+  private static final String INLINE_COVERAGE_CLASS = "edu/berkeley/cs/jqf/instrument/tracing/InlineCoverage";
+
+  // Derived counts are passed as string constants, each of which must fit in the constant pool
+  private static final int DERIVED_COUNTS_PER_CONSTANT = 3 * 3000;
 
   public SnoopInstructionClassAdapter(ClassVisitor cv, String className) {
+    this(cv, className, new GlobalStateForInstrumentation());
+  }
+
+  public SnoopInstructionClassAdapter(ClassVisitor cv, String className,
+      GlobalStateForInstrumentation instrumentationState) {
+    this(cv, className, instrumentationState, Config.instance.minimizeProbes);
+  }
+
+  // Lets tests instrument the same class with and without minimized probes
+  SnoopInstructionClassAdapter(ClassVisitor cv, String className,
+      GlobalStateForInstrumentation instrumentationState, boolean minimizeProbes) {
     super(Opcodes.ASM8, cv);
     this.className = className;
+    this.instrumentationState = instrumentationState;
+    this.minimizeProbes = minimizeProbes;
   }
 
   @Override
@@ -24,17 +48,86 @@ public class SnoopInstructionClassAdapter extends ClassVisitor {
                     String[] interfaces) {
     assert name.equals(this.className);
     this.superName = superName;
+    // Switchable probes need invokedynamic, which requires class files of version 1.7 or later
+    this.switchableProbes = Config.instance.switchableProbes && (version & 0xFFFF) >= Opcodes.V1_7;
     cv.visit(version, access, name, signature, superName, interfaces);
   }
 
   @Override
   public MethodVisitor visitMethod(int access, String name, String desc, 
       String signature, String[] exceptions) {
+    if (minimizeProbes) {
+      if (name.equals("<clinit>")) {
+        staticInitializer = ProbeMinimizer.buffer(access, name, desc, signature, exceptions);
+        staticInitializerAccess = access;
+        staticInitializerExceptions = exceptions;
+        return staticInitializer;
+      }
+      MethodVisitor target = cv.visitMethod(access, name, desc, signature, exceptions);
+      if (target == null) {
+        return null;
+      }
+      // Analyze the whole method before instrumenting it
+      return ProbeMinimizer.analyzeThen(access, name, desc, signature, exceptions,
+          armSources -> new SnoopInstructionMethodAdapter(target, className, name, desc, superName,
+              instrumentationState, switchableProbes, armSources));
+    }
     MethodVisitor mv = cv.visitMethod(access, name, desc, signature, exceptions);
     if (mv != null) {
       return new SnoopInstructionMethodAdapter(mv, className, name, desc, superName,
-          GlobalStateForInstrumentation.instance);
+          instrumentationState, switchableProbes, null);
     }
     return null;
   }
+
+  @Override
+  public void visitEnd() {
+    if (minimizeProbes) {
+      addStaticInitializer();
+    }
+    cv.visitEnd();
+  }
+
+  /**
+   * Emits the static initializer, which first registers the counts that are
+   * derived from other probes of this class with InlineCoverage.
+   */
+  private void addStaticInitializer() {
+    int[] derivedCounts = instrumentationState.getDerivedCounts();
+    if (staticInitializer == null && derivedCounts.length == 0) {
+      return;
+    }
+    MethodVisitor mv;
+    if (staticInitializer != null) {
+      mv = cv.visitMethod(staticInitializerAccess, "<clinit>", "()V", null, staticInitializerExceptions);
+    } else {
+      mv = cv.visitMethod(Opcodes.ACC_STATIC, "<clinit>", "()V", null, null);
+    }
+    MethodVisitor registration = new MethodVisitor(Opcodes.ASM8, mv) {
+      @Override
+      public void visitCode() {
+        super.visitCode();
+        // Each int is encoded as two chars, high half first
+        for (int start = 0; start < derivedCounts.length; start += DERIVED_COUNTS_PER_CONSTANT) {
+          StringBuilder encoded = new StringBuilder();
+          int end = Math.min(derivedCounts.length, start + DERIVED_COUNTS_PER_CONSTANT);
+          for (int i = start; i < end; i++) {
+            encoded.append((char) (derivedCounts[i] >>> 16)).append((char) derivedCounts[i]);
+          }
+          mv.visitLdcInsn(encoded.toString());
+          mv.visitMethodInsn(Opcodes.INVOKESTATIC, INLINE_COVERAGE_CLASS, "addDerivedCounts",
+              "(Ljava/lang/String;)V", false);
+        }
+      }
+    };
+    if (staticInitializer != null) {
+      ProbeMinimizer.replay(staticInitializer, new SnoopInstructionMethodAdapter(registration,
+          className, "<clinit>", "()V", superName, instrumentationState, switchableProbes, null));
+    } else {
+      registration.visitCode();
+      registration.visitInsn(Opcodes.RETURN);
+      registration.visitMaxs(0, 0);
+      registration.visitEnd();
+    }
+  }
 }
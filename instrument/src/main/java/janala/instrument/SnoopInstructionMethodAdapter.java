@@ -1,8 +1,13 @@
 package janala.instrument;
 
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.LinkedList;
+import java.util.Set;
 
+import edu.berkeley.cs.jqf.instrument.tracing.InlineCoverage;
 import janala.logger.inst.SPECIAL;
+import org.objectweb.asm.Handle;
 import org.objectweb.asm.Label;
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
@@ -22,9 +27,33 @@ public class SnoopInstructionMethodAdapter extends MethodVisitor implements Opco
 
   private final GlobalStateForInstrumentation instrumentationState;
 
+  // In inline mode, probes increment a slot in InlineCoverage.chunks instead of calling the analysis class
+  private final boolean inlineProbes = Config.instance.inlineCoverage;
+  private static final String INLINE_COVERAGE_CLASS = "edu/berkeley/cs/jqf/instrument/tracing/InlineCoverage";
+
+  // If set, branch-arm probes are invokedynamic instructions that can be switched off at runtime
+  private final boolean switchableProbes;
+  private static final Handle SWITCHABLE_PROBE_BOOTSTRAP = new Handle(H_INVOKESTATIC,
+      "edu/berkeley/cs/jqf/instrument/tracing/SwitchableProbes", "bootstrap",
+      "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/invoke/MethodType;" +
+          "Ljava/lang/invoke/MethodHandle;IIIII)Ljava/lang/invoke/CallSite;", false);
+
+  // In inline mode, the arms whose counts are derived from those of other branches (see ProbeMinimizer)
+  private final int[][] armSources;
+  private int branchCount = 0;
+  private final int[] branchStarts;
+  private final int[] branchEnds;
+
   public SnoopInstructionMethodAdapter(MethodVisitor mv, String className,
       String methodName, String descriptor, String superName,
       GlobalStateForInstrumentation instrumentationState) {
+    this(mv, className, methodName, descriptor, superName, instrumentationState, false, null);
+  }
+
+  public SnoopInstructionMethodAdapter(MethodVisitor mv, String className,
+      String methodName, String descriptor, String superName,
+      GlobalStateForInstrumentation instrumentationState, boolean switchableProbes,
+      int[][] armSources) {
     super(ASM8, mv);
     this.isInit = methodName.equals("<init>");
     this.isSuperInitCalled = false;
@@ -35,11 +64,20 @@ public class SnoopInstructionMethodAdapter extends MethodVisitor implements Opco
     tryCatchBlocks = new LinkedList<>();
 
     this.instrumentationState = instrumentationState;
+    this.switchableProbes = switchableProbes;
+    this.armSources = armSources;
+    this.branchStarts = armSources != null ? new int[armSources.length] : null;
+    this.branchEnds = armSources != null ? new int[armSources.length] : null;
   }
 
   @Override
   public void visitCode() {
     instrumentationState.incMid();
+    if (inlineProbes) {
+      // No method entry/exit probes are needed without a call stack to track
+      mv.visitCode();
+      return;
+    }
     mv.visitLdcInsn(className);
     mv.visitLdcInsn(methodName);
     mv.visitLdcInsn(descriptor);
@@ -69,6 +107,10 @@ public class SnoopInstructionMethodAdapter extends MethodVisitor implements Opco
   }
 
   private void addInsn(MethodVisitor mv, String insn, int opcode) {
+    if (inlineProbes) {
+      mv.visitInsn(opcode);
+      return;
+    }
     addBipushInsn(mv, instrumentationState.incAndGetId());
     addBipushInsn(mv, lastLineNumber);
     mv.visitMethodInsn(INVOKESTATIC, Config.instance.analysisClass, insn, "(II)V", false);
@@ -725,6 +767,13 @@ public class SnoopInstructionMethodAdapter extends MethodVisitor implements Opco
 
   @Override
   public void visitMethodInsn(int opcode, String owner, String name, String desc, boolean itf) {
+    if (inlineProbes) {
+      // Count the call site; no try-catch wrapper is needed as there is no call stack to unwind
+      addInlineProbe(instrumentationState.incAndGetId());
+      mv.visitMethodInsn(opcode, owner, name, desc, itf);
+      return;
+    }
+
     if (opcode == INVOKESPECIAL && name.equals("<init>")) {
 
 
@@ -814,13 +863,84 @@ public class SnoopInstructionMethodAdapter extends MethodVisitor implements Opco
         addBipushInsn(mv, lastLineNumber);
         mv.visitMethodInsn(INVOKESTATIC, Config.instance.analysisClass, "HEAPLOAD2", "(Ljava/lang/Object;III)V", false);
       }
+      if (Config.instance.traceTasks) {
+        addTaskRegistration(opcode, owner, name, desc);
+      }
       addMethodWithTryCatch(opcode, owner, name, desc, itf);
     }
   }
 
+  /** The JDK executor types whose execute() and submit() calls have their tasks wrapped. */
+  private static final Set<String> EXECUTOR_TYPES = new HashSet<>(Arrays.asList(
+      "java/util/concurrent/Executor",
+      "java/util/concurrent/ExecutorService",
+      "java/util/concurrent/ScheduledExecutorService",
+      "java/util/concurrent/AbstractExecutorService",
+      "java/util/concurrent/ThreadPoolExecutor",
+      "java/util/concurrent/ScheduledThreadPoolExecutor",
+      "java/util/concurrent/ForkJoinPool"));
+
+  /**
+   * Wraps the task that is passed to a JDK executor (via execute() or submit())
+   * or to CompletableFuture.runAsync()/supplyAsync(), so that it is traced on
+   * whichever thread runs it. The task must be the last or second-last argument.
+   *
+   * <p>Only calls whose owner is one of {@link #EXECUTOR_TYPES} are rewritten,
+   * since any other class may have methods of the same name that rely on the
+   * identity of the task (see SingleSnoop.REGISTER_TASK).</p>
+   */
+  private void addTaskRegistration(int opcode, String owner, String name, String desc) {
+    String params = desc.substring(0, desc.indexOf(')') + 1);
+    String taskType;
+    boolean belowTop;
+    if (opcode == INVOKESTATIC) {
+      if (!owner.equals("java/util/concurrent/CompletableFuture") ||
+          !(name.equals("runAsync") || name.equals("supplyAsync"))) {
+        return;
+      }
+      taskType = params.substring(1, params.indexOf(';') + 1);
+      belowTop = params.endsWith("Ljava/util/concurrent/Executor;)");
+    } else if (opcode == INVOKEVIRTUAL || opcode == INVOKEINTERFACE) {
+      if (!EXECUTOR_TYPES.contains(owner)) {
+        return;
+      } else if (name.equals("execute") && params.equals("(Ljava/lang/Runnable;)")) {
+        taskType = "Ljava/lang/Runnable;";
+        belowTop = false;
+      } else if (name.equals("submit") && params.equals("(Ljava/lang/Runnable;)")) {
+        taskType = "Ljava/lang/Runnable;";
+        belowTop = false;
+      } else if (name.equals("submit") && params.equals("(Ljava/util/concurrent/Callable;)")) {
+        taskType = "Ljava/util/concurrent/Callable;";
+        belowTop = false;
+      } else if (name.equals("submit") && params.equals("(Ljava/lang/Runnable;Ljava/lang/Object;)")) {
+        taskType = "Ljava/lang/Runnable;";
+        belowTop = true;
+      } else {
+        return;
+      }
+    } else {
+      return;
+    }
+    if (!taskType.equals("Ljava/lang/Runnable;") && !taskType.equals("Ljava/util/function/Supplier;")
+        && !taskType.equals("Ljava/util/concurrent/Callable;")) {
+      return;
+    }
+    // Both the task and the argument above it are references, so they can be swapped
+    if (belowTop) {
+      mv.visitInsn(SWAP);
+    }
+    mv.visitMethodInsn(INVOKESTATIC, Config.instance.analysisClass, "REGISTER_TASK",
+        "(" + taskType + ")" + taskType, false);
+    if (belowTop) {
+      mv.visitInsn(SWAP);
+    }
+  }
+
   private void addConditionalJumpInstrumentation(int opcode, Label finalBranchTarget,
                                                  String instMethodName, String instMethodDesc) {
-    int iid = instrumentationState.incAndGetId();
+    // Reserve one probe ID for each arm
+    int iid = instrumentationState.incAndGetIds(2);
+    beginBranch(iid, 0, 1);
     Label intermediateBranchTarget = new Label();
     Label fallthrough = new Label();
 
@@ -829,6 +949,17 @@ public class SnoopInstructionMethodAdapter extends MethodVisitor implements Opco
     // If we did not jump, skip to the fallthrough
     mv.visitJumpInsn(GOTO, fallthrough);
 
+    if (Config.instance.coverageOnly) {
+      // The arm is known statically, so a single probe per arm suffices
+      mv.visitLabel(intermediateBranchTarget);
+      addBranchArmInsn(iid, 1, 0, 1);
+      mv.visitJumpInsn(GOTO, finalBranchTarget);
+
+      mv.visitLabel(fallthrough);
+      addBranchArmInsn(iid, 0, 0, 1);
+      return;
+    }
+
     // Now instrument the branch target
     mv.visitLabel(intermediateBranchTarget);
     addBipushInsn(mv, 1); // Mark branch as taken
@@ -853,9 +984,125 @@ public class SnoopInstructionMethodAdapter extends MethodVisitor implements Opco
     // continue with fall-through code visiting
   }
 
+  /**
+   * Add a probe for a branch arm that is resolved at instrumentation time. The
+   * branch's arms range from {@code minArm} to {@code maxArm}.
+   */
+  private void addBranchArmInsn(int iid, int arm, int minArm, int maxArm) {
+    if (armSources != null && armSources[branchCount - 1][arm - minArm] != ProbeMinimizer.PROBED) {
+      // The count of this arm is computed from the counts of the branch that it leads to
+      return;
+    }
+    if (inlineProbes) {
+      addInlineProbe(iid + arm);
+      return;
+    }
+    if (switchableProbes) {
+      // The arguments are constants of the call site, so a disabled probe needs no code at all
+      Handle probe = new Handle(H_INVOKESTATIC, Config.instance.analysisClass, "BRANCH", "(III)V", false);
+      mv.visitInvokeDynamicInsn("BRANCH", "()V", SWITCHABLE_PROBE_BOOTSTRAP, probe,
+          iid, lastLineNumber, arm, minArm, maxArm);
+      return;
+    }
+    addBipushInsn(mv, iid);
+    addBipushInsn(mv, lastLineNumber);
+    addBipushInsn(mv, arm);
+    mv.visitMethodInsn(INVOKESTATIC, Config.instance.analysisClass, "BRANCH", "(III)V", false);
+  }
+
+  /**
+   * Reserves probe IDs for a switch with the given number of cases. The default
+   * arm (-1) and each case arm get their own ID, so the switch's own ID is one
+   * past the first reserved ID.
+   */
+  private int incAndGetSwitchId(int cases) {
+    return instrumentationState.incAndGetIds(cases + 1) + 1;
+  }
+
+  /** Records the slots of the next branch, in the order in which ProbeMinimizer numbers branches. */
+  private void beginBranch(int iid, int minArm, int maxArm) {
+    if (armSources != null) {
+      branchStarts[branchCount] = iid + minArm;
+      branchEnds[branchCount] = iid + maxArm + 1;
+    }
+    branchCount++;
+  }
+
+  /**
+   * Registers the derived counts of a branch's arms, after those of the
+   * branches that they are derived from.
+   */
+  private void addDerivedCounts(int branch, boolean[] added) {
+    if (added[branch]) {
+      return;
+    }
+    added[branch] = true;
+    int[] sources = armSources[branch];
+    for (int a = 0; a < sources.length; a++) {
+      int source = sources[a];
+      if (source != ProbeMinimizer.PROBED) {
+        addDerivedCounts(source, added);
+        instrumentationState.addDerivedCount(branchStarts[branch] + a, branchStarts[source], branchEnds[source]);
+      }
+    }
+  }
+
+  @Override
+  public void visitEnd() {
+    if (armSources != null) {
+      if (branchCount != armSources.length) {
+        throw new RuntimeException("Expected " + armSources.length + " branches but found " + branchCount);
+      }
+      boolean[] added = new boolean[armSources.length];
+      for (int k = 0; k < armSources.length; k++) {
+        addDerivedCounts(k, added);
+      }
+    }
+    mv.visitEnd();
+  }
+
+  /** Add code that increments the given slot of the inline coverage map. */
+  private void addInlineProbe(int slot) {
+    mv.visitFieldInsn(GETSTATIC, INLINE_COVERAGE_CLASS, "chunks", "[[I");
+    addBipushInsn(mv, slot >> InlineCoverage.CHUNK_BITS);
+    mv.visitInsn(AALOAD);
+    addBipushInsn(mv, slot & (InlineCoverage.CHUNK_SIZE - 1));
+    mv.visitInsn(DUP2);
+    mv.visitInsn(IALOAD);
+    mv.visitInsn(ICONST_1);
+    mv.visitInsn(IADD);
+    mv.visitInsn(IASTORE);
+  }
+
+  /** Creates one fresh label per switch target, to be used as a trampoline. */
+  private static Label[] newTrampolines(int count) {
+    Label[] trampolines = new Label[count];
+    for (int i = 0; i < count; i++) {
+      trampolines[i] = new Label();
+    }
+    return trampolines;
+  }
+
+  /**
+   * Emits the trampolines for a switch. Each trampoline
+   * logs the index of its arm (-1 for the default) and then jumps to the
+   * original target, so the switch value and label tables are never logged.
+   */
+  private void addSwitchArmTrampolines(int iid, Label dflt, Label dfltTrampoline,
+                                       Label[] labels, Label[] trampolines) {
+    mv.visitLabel(dfltTrampoline);
+    addBranchArmInsn(iid, -1, -1, labels.length - 1);
+    mv.visitJumpInsn(GOTO, dflt);
+    for (int i = 0; i < labels.length; i++) {
+      mv.visitLabel(trampolines[i]);
+      addBranchArmInsn(iid, i, -1, labels.length - 1);
+      mv.visitJumpInsn(GOTO, labels[i]);
+    }
+  }
+
   @Override
   public void visitJumpInsn(int opcode, Label label) {
-    if (isInit && !isSuperInitCalled) {
+    if (isInit && !isSuperInitCalled && !inlineProbes) {
       // Jumps in a constructor before super() or this() mess up the analysis
       throw new RuntimeException("Cannot handle jumps before super/this");
     }
@@ -971,57 +1218,24 @@ public class SnoopInstructionMethodAdapter extends MethodVisitor implements Opco
 
   @Override
   public void visitTableSwitchInsn(int min, int max, Label dflt, Label... labels) {
-    // Save operand value
-    addValueReadInsn(mv, "I", "GETVALUE_");
-    // Log switch instruction
-    addBipushInsn(mv, instrumentationState.incAndGetId());
-    addBipushInsn(mv, lastLineNumber);
-    addBipushInsn(mv, min);
-    addBipushInsn(mv, max);
-    addBipushInsn(mv, getLabelNum(dflt));
-
-    addBipushInsn(mv, labels.length);
-    mv.visitIntInsn(NEWARRAY, T_INT);
-    for (int i = 0; i < labels.length; i++) {
-      mv.visitInsn(DUP);
-      addBipushInsn(mv, i);
-      addBipushInsn(mv, getLabelNum(labels[i]));
-      mv.visitInsn(IASTORE);
-    }
-
-    mv.visitMethodInsn(INVOKESTATIC, Config.instance.analysisClass, "TABLESWITCH", "(IIIII[I)V", false);
-    mv.visitTableSwitchInsn(min, max, dflt, labels);
+    // Log the arm taken via trampolines, instead of passing the keys and labels as fresh arrays
+    int iid = incAndGetSwitchId(labels.length);
+    beginBranch(iid, -1, labels.length - 1);
+    Label dfltTrampoline = new Label();
+    Label[] trampolines = newTrampolines(labels.length);
+    mv.visitTableSwitchInsn(min, max, dfltTrampoline, trampolines);
+    addSwitchArmTrampolines(iid, dflt, dfltTrampoline, labels, trampolines);
   }
 
   @Override
   public void visitLookupSwitchInsn(Label dflt, int[] keys, Label[] labels) {
-    // Save operand value
-    addValueReadInsn(mv, "I", "GETVALUE_");
-    // Log switch instruction
-    addBipushInsn(mv, instrumentationState.incAndGetId());
-    addBipushInsn(mv, lastLineNumber);
-    addBipushInsn(mv, getLabelNum(dflt));
-
-    addBipushInsn(mv, keys.length);
-    mv.visitIntInsn(NEWARRAY, T_INT);
-    for (int i = 0; i < keys.length; i++) {
-      mv.visitInsn(DUP);
-      addBipushInsn(mv, i);
-      addBipushInsn(mv, keys[i]);
-      mv.visitInsn(IASTORE);
-    }
-
-    addBipushInsn(mv, labels.length);
-    mv.visitIntInsn(NEWARRAY, T_INT);
-    for (int i = 0; i < labels.length; i++) {
-      mv.visitInsn(DUP);
-      addBipushInsn(mv, i);
-      addBipushInsn(mv, getLabelNum(labels[i]));
-      mv.visitInsn(IASTORE);
-    }
-
-    mv.visitMethodInsn(INVOKESTATIC, Config.instance.analysisClass, "LOOKUPSWITCH", "(III[I[I)V", false);
-    mv.visitLookupSwitchInsn(dflt, keys, labels);
+    // See visitTableSwitchInsn()
+    int iid = incAndGetSwitchId(labels.length);
+    beginBranch(iid, -1, labels.length - 1);
+    Label dfltTrampoline = new Label();
+    Label[] trampolines = newTrampolines(labels.length);
+    mv.visitLookupSwitchInsn(dfltTrampoline, keys, trampolines);
+    addSwitchArmTrampolines(iid, dflt, dfltTrampoline, labels, trampolines);
   }
 
   /*@Override
@@ -1038,6 +1252,14 @@ public class SnoopInstructionMethodAdapter extends MethodVisitor implements Opco
 
   @Override
   public void visitMaxs(int maxStack, int maxLocals) {
+    if (inlineProbes) {
+      for (TryCatchBlock b : tryCatchBlocks) {
+        b.visit(mv);
+      }
+      mv.visitMaxs(maxStack + 4, maxLocals);
+      return;
+    }
+
     // Wrap entire method body in a try-catch all; the methodBeginLabel is already added in visitCode()
     tryCatchBlocks.addLast(new TryCatchBlock(methodBeginLabel, methodEndLabel, methodEndLabel, null));
 
@@ -1,17 +1,18 @@
 package janala.instrument;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.lang.instrument.ClassFileTransformer;
 import java.lang.instrument.IllegalClassFormatException;
 import java.lang.instrument.Instrumentation;
-import java.nio.file.Files;
 import java.security.ProtectionDomain;
 import java.util.Arrays;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.TreeSet;
 
+import edu.berkeley.cs.jqf.instrument.InstrumentedClasspath;
+import edu.berkeley.cs.jqf.instrument.tracing.InlineCoverage;
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.ClassWriter;
@@ -20,11 +21,48 @@ import org.objectweb.asm.ClassWriter;
 public class SnoopInstructionTransformer implements ClassFileTransformer {
   private static final String instDir = Config.instance.instrumentationCacheDir;
   private static final boolean verbose = Config.instance.verbose;
+  private static final InstrumentationCache cache = openCache();
+
+  static {
+    if (Config.instance.inlineCoverage) {
+      InlineCoverage.enable();
+    }
+  }
+
+  private static InstrumentationCache openCache() {
+    if (instDir == null) {
+      return null;
+    }
+    try {
+      InstrumentationCache cache = InstrumentationCache.open(new File(instDir), Config.instance.fingerprint);
+      // Cached classes may come from other runs, so probe IDs must be unique across JVMs
+      ProbeRegistry.setBlockSource(cache);
+      // Let the next run use the IDs of this run's last block that were not needed
+      Runtime.getRuntime().addShutdownHook(new Thread(ProbeRegistry::releaseUnused));
+      return cache;
+    } catch (IOException e) {
+      println("[WARNING] Could not open instrumentation cache in " + instDir);
+      if (verbose) {
+        e.printStackTrace();
+      }
+      return null;
+    }
+  }
   private static String[] banned = {"[", "java/lang", "janala", "org/objectweb/asm", "sun", "jdk", "java/util/function"};
   private static String[] excludes = Config.instance.excludeInst;
   private static String[] includes = Config.instance.includeInst;
   public static void premain(String agentArgs, Instrumentation inst) throws ClassNotFoundException {
 
+    if (agentArgs != null && !agentArgs.isEmpty()) {
+      // The classpath was instrumented ahead of time into the given directory
+      try {
+        InstrumentedClasspath.activate(new File(agentArgs));
+      } catch (IOException e) {
+        throw new RuntimeException("Could not read instrumented classpath in " + agentArgs, e);
+      }
+      return;
+    }
+
     preloadClasses();
 
     inst.addTransformer(new SnoopInstructionTransformer(), true);
@@ -60,6 +98,27 @@ public class SnoopInstructionTransformer implements ClassFileTransformer {
     Class.forName("java.util.jar.JarFile");
   }
 
+  /**
+   * Returns a description of the options that affect instrumented bytecode,
+   * so that instrumented classes can be reused only if they match.
+   */
+  public static String getConfigFingerprint() {
+    return Config.instance.fingerprint;
+  }
+
+  /**
+   * Returns a description of the classes selected for instrumentation by
+   * {@code janala.includes} and {@code janala.excludes}, in which the order
+   * and repetition of the prefixes do not matter.
+   */
+  public static String getConfigScope() {
+    return "includes=" + normalize(includes) + ";excludes=" + normalize(excludes);
+  }
+
+  private static String normalize(String[] prefixes) {
+    return String.join(",", new TreeSet<>(Arrays.asList(prefixes)));
+  }
+
   /** packages that should be excluded from the instrumentation */
   private static boolean shouldExclude(String cname) {
     for (String e : banned) {
@@ -80,8 +139,13 @@ public class SnoopInstructionTransformer implements ClassFileTransformer {
     return false;
   }
 
+  /**
+   * Instruments a class. This method is thread-safe, as all instrumentation
+   * state is local to the class being instrumented, so classes may be
+   * transformed concurrently by multiple class-loading threads.
+   */
   @Override
-  synchronized public byte[] transform(ClassLoader loader, String cname, Class<?> classBeingRedefined,
+  public byte[] transform(ClassLoader loader, String cname, Class<?> classBeingRedefined,
       ProtectionDomain d, byte[] cbuf)
     throws IllegalClassFormatException {
 
@@ -97,32 +161,33 @@ public class SnoopInstructionTransformer implements ClassFileTransformer {
         print("* ");
       }
       print("Instrumenting: " + cname + "... ");
-      GlobalStateForInstrumentation.instance.setCid(cname.hashCode());
-
-      if (instDir != null) {
-        File cachedFile = new File(instDir + "/" + cname + ".instrumented.class");
-        File referenceFile = new File(instDir + "/" + cname + ".original.class");
-        if (cachedFile.exists() && referenceFile.exists()) {
-          try {
-            byte[] origBytes = Files.readAllBytes(referenceFile.toPath());
-            if (Arrays.equals(cbuf, origBytes)) {
-              byte[] instBytes = Files.readAllBytes(cachedFile.toPath());
-              println(" Found in disk-cache!");
-              return instBytes;
+
+      long[] cacheKey = null;
+      if (cache != null) {
+        cacheKey = cache.keyOf(cbuf);
+        try {
+          InstrumentationCache.Entry entry = cache.lookup(cacheKey);
+          if (entry != null) {
+            println(" Found in disk-cache!");
+            ProbeRegistry.markUsed(entry.probeBound);
+            if (Config.instance.inlineCoverage) {
+              InlineCoverage.ensureCapacity(ProbeRegistry.size());
             }
-          } catch (IOException e) {
-            print(" <cache error> ");
+            return entry.bytecode;
           }
+        } catch (IOException e) {
+          print(" <cache error> ");
         }
       }
 
       byte[] ret = cbuf;
+      GlobalStateForInstrumentation instrumentationState = new GlobalStateForInstrumentation();
       try {
 
         ClassReader cr = new ClassReader(cbuf);
         ClassWriter cw = new SafeClassWriter(cr,  loader,
                 ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS);
-        ClassVisitor cv = new SnoopInstructionClassAdapter(cw, cname);
+        ClassVisitor cv = new SnoopInstructionClassAdapter(cw, cname, instrumentationState);
 
         cr.accept(cv, 0);
 
@@ -137,18 +202,13 @@ public class SnoopInstructionTransformer implements ClassFileTransformer {
 
       println("Done!");
 
-      if (instDir != null) {
+      if (Config.instance.inlineCoverage) {
+        InlineCoverage.ensureCapacity(ProbeRegistry.size());
+      }
+
+      if (cache != null) {
         try {
-          File cachedFile = new File(instDir + "/" + cname + ".instrumented.class");
-          File referenceFile = new File(instDir + "/" + cname + ".original.class");
-          File parent = new File(cachedFile.getParent());
-          parent.mkdirs();
-          try(FileOutputStream out = new FileOutputStream(cachedFile)) {
-            out.write(ret);
-          }
-          try(FileOutputStream out = new FileOutputStream(referenceFile)) {
-            out.write(cbuf);
-          }
+          cache.store(cacheKey, ret, instrumentationState.getProbeBound());
         } catch(Exception e) {
           e.printStackTrace();
         }
@@ -45,6 +45,10 @@ public abstract class AbstractLogger implements Logger {
     log(new TABLESWITCH(iid, mid, min, max, dflt, labels));
   }
 
+  public void BRANCH(int iid, int mid, int arm) {
+    log(new BRANCH(iid, mid, arm));
+  }
+
   public void IFEQ(int iid, int mid, int label) {
     log(new IFEQ(iid, mid, label));
   }
@@ -21,6 +21,8 @@ public interface Logger {
 
   public void TABLESWITCH(int iid, int mid, int min, int max, int dflt, int[] labels);
 
+  public void BRANCH(int iid, int mid, int arm);
+
   public void IFEQ(int iid, int mid, int label);
 
   public void IFNE(int iid, int mid, int label);
@@ -0,0 +1,22 @@
+package janala.logger.inst;
+
+/** A probe for a single arm of a conditional jump or switch, whose
+  * arm index is known at instrumentation time.
+  */
+public class BRANCH extends Instruction {
+  public final int arm;
+
+  public BRANCH(int iid, int mid, int arm) {
+    super(iid, mid);
+    this.arm = arm;
+  }
+
+  public void visit(IVisitor visitor) {
+    visitor.visitBRANCH(this);
+  }
+
+  @Override
+  public String toString() {
+    return "BRANCH iid=" + iid + " mid=" + mid + " arm=" + arm;
+  }
+}
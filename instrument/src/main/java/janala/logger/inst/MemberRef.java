@@ -37,4 +37,13 @@ public interface MemberRef {
     String getName();
     String getDesc();
 
+    /**
+     * Returns the name of this member qualified with its owner
+     * and descriptor, in the form {@code owner.name:desc}.
+     *
+     * @return the qualified name of this member
+     */
+    default String getQualifiedName() {
+        return getOwner() + "." + getName() + ":" + getDesc();
+    }
 }
@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2017-2018 The Regents of the University of California
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.cs.jqf.instrument;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Properties;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class InstrumentedClasspathTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static void editManifest(File outputDir, String key, String value) throws IOException {
+        File file = new File(outputDir, InstrumentedClasspath.MANIFEST_FILE);
+        Properties manifest = new Properties();
+        try (Reader in = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            manifest.load(in);
+        }
+        manifest.setProperty(key, value);
+        try (Writer out = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            manifest.store(out, null);
+        }
+    }
+
+    private File instrument() throws IOException {
+        File classes = folder.newFolder();
+        File outputDir = new File(folder.getRoot(), "instrumented-" + classes.getName());
+        InstrumentedClasspath.create(new String[] { classes.getAbsolutePath() }, outputDir);
+        return outputDir;
+    }
+
+    @Test
+    public void activatesClasspathWithTheCurrentConfiguration() throws IOException {
+        Assert.assertEquals(1, InstrumentedClasspath.activate(instrument()).length);
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsClasspathInstrumentedWithOtherOptions() throws IOException {
+        File outputDir = instrument();
+        editManifest(outputDir, "fingerprint", "mode=other");
+        InstrumentedClasspath.activate(outputDir);
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsClasspathInstrumentedWithOtherClasses() throws IOException {
+        File outputDir = instrument();
+        editManifest(outputDir, "scope", "includes=;excludes=com.example");
+        InstrumentedClasspath.activate(outputDir);
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2017-2018 The Regents of the University of California
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.cs.jqf.instrument.tracing;
+
+import janala.instrument.ProbeRegistry;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class InlineCoverageTest {
+
+    private static String encode(int... values) {
+        StringBuilder encoded = new StringBuilder();
+        for (int value : values) {
+            encoded.append((char) (value >>> 16)).append((char) value);
+        }
+        return encoded.toString();
+    }
+
+    private static void increment(int slot, int count) {
+        InlineCoverage.chunks[slot >> InlineCoverage.CHUNK_BITS][slot & (InlineCoverage.CHUNK_SIZE - 1)] += count;
+    }
+
+    @Test
+    public void derivedCountsAreSumsOfSources() {
+        int base = ProbeRegistry.allocate(7);
+        InlineCoverage.ensureCapacity(ProbeRegistry.size());
+
+        // An else-if chain: the fall-through arm of each test leads to the next test,
+        // so base+2 = base+4 + base+5, and base = base+2 + base+3
+        InlineCoverage.addDerivedCounts(encode(base + 2, base + 4, base + 6, base, base + 2, base + 4));
+
+        increment(base + 1, 1);
+        increment(base + 3, 2);
+        increment(base + 4, 3);
+        increment(base + 5, 4);
+
+        int[] counts = InlineCoverage.getCounts();
+        Assert.assertEquals(7, counts[base + 2]);
+        Assert.assertEquals(9, counts[base]);
+        Assert.assertEquals(1, counts[base + 1]);
+
+        InlineCoverage.reset();
+        counts = InlineCoverage.getCounts();
+        Assert.assertEquals(0, counts[base]);
+    }
+
+    @Test
+    public void growingKeepsTheCountsOfExistingSlots() {
+        int slot = ProbeRegistry.allocate(1);
+        InlineCoverage.ensureCapacity(ProbeRegistry.size());
+        InlineCoverage.reset();
+        int[][] before = InlineCoverage.chunks;
+        increment(slot, 1);
+
+        // A thread that still holds the old chunks increments the same counts
+        InlineCoverage.ensureCapacity(ProbeRegistry.size() + 3 * InlineCoverage.CHUNK_SIZE);
+        before[slot >> InlineCoverage.CHUNK_BITS][slot & (InlineCoverage.CHUNK_SIZE - 1)]++;
+        Assert.assertEquals(2, InlineCoverage.getCounts()[slot]);
+    }
+}
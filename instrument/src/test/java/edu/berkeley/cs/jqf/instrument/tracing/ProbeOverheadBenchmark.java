@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2017-2018 The Regents of the University of California
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.cs.jqf.instrument.tracing;
+
+import java.util.function.Consumer;
+
+import edu.berkeley.cs.jqf.instrument.tracing.events.TraceEvent;
+
+/**
+ * A microbenchmark for the per-probe overhead of {@link SingleSnoop}.
+ *
+ * <p>This is not a unit test; run its {@code main} method with the test
+ * classpath of this module. It reports the best average time per probe for
+ * branch probes in a traced method, and for probes in a thread that is not
+ * traced, where only the re-entrancy guard is checked.</p>
+ */
+public class ProbeOverheadBenchmark {
+
+    private static final int PROBES = 10_000_000;
+    private static final int ROUNDS = 10;
+
+    private static volatile int sink;
+
+    /** Runs the given probes on a fresh traced thread, and returns the best time per probe. */
+    private static double measure(Runnable probes) throws InterruptedException {
+        double[] best = { Double.MAX_VALUE };
+        Consumer<TraceEvent> callback = (e) -> sink += e.getIid();
+        SingleSnoop.setCallbackGenerator((t) -> callback);
+        Thread driver = new Thread(() -> {
+            SingleSnoop.startSnooping("Driver#run");
+            SingleSnoop.METHOD_BEGIN("Driver", "run", "()V");
+            for (int round = 0; round < ROUNDS; round++) {
+                long start = System.nanoTime();
+                probes.run();
+                best[0] = Math.min(best[0], (System.nanoTime() - start) / (double) PROBES);
+            }
+            SingleSnoop.RETURN(1, 1);
+            TraceLogger.get().remove();
+        });
+        driver.start();
+        driver.join();
+        return best[0];
+    }
+
+    private static void branches() {
+        for (int i = 0; i < PROBES; i++) {
+            SingleSnoop.BRANCH(3, 2, i & 1);
+        }
+    }
+
+    private static void untracedBranches() {
+        // Probes on a thread that has not been unblocked only check the re-entrancy guard
+        Thread other = new Thread(ProbeOverheadBenchmark::branches);
+        other.start();
+        try {
+            other.join();
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        System.out.printf("Traced BRANCH probe:   %6.2f ns%n", measure(ProbeOverheadBenchmark::branches));
+        System.out.printf("Untraced BRANCH probe: %6.2f ns%n", measure(ProbeOverheadBenchmark::untracedBranches));
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright (c) 2017-2018 The Regents of the University of California
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.cs.jqf.instrument.tracing;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import edu.berkeley.cs.jqf.instrument.tracing.events.BranchEvent;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Type;
+
+@RunWith(JUnit4.class)
+public class SingleSnoopTest {
+
+    // The default MaxInlineSize of HotSpot, above which methods are only inlined at hot call sites
+    private static final int MAX_INLINE_SIZE = 35;
+
+    // Public methods that are not probes, or that run once per thread
+    private static final List<String> NOT_PROBES = Arrays.asList(
+            "setCallbackGenerator", "setEventMask", "startSnooping", "unblock", "REGISTER_THREAD",
+            "REGISTER_TASK", "flush");
+
+    @Test
+    public void probesAreSmallEnoughToInline() throws IOException {
+        Map<String, Integer> codeLengths = codeLengths(SingleSnoop.class);
+        int probes = 0;
+        for (Method method : SingleSnoop.class.getDeclaredMethods()) {
+            if (!Modifier.isPublic(method.getModifiers()) || NOT_PROBES.contains(method.getName())) {
+                continue;
+            }
+            int length = codeLengths.get(method.getName() + Type.getMethodDescriptor(method));
+            Assert.assertTrue(method + " has " + length + " bytes of bytecode", length <= MAX_INLINE_SIZE);
+            probes++;
+        }
+        Assert.assertTrue(probes > 100);
+    }
+
+    @Test
+    public void registeredTasksAreTracedOnPoolThreads() throws Exception {
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        AtomicInteger poolBranches = new AtomicInteger();
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        try {
+            // Start the pool thread before tracing begins
+            Thread poolThread = pool.submit(Thread::currentThread).get();
+            SingleSnoop.setCallbackGenerator((t) -> (e) -> {
+                if (e instanceof BranchEvent && t == poolThread) {
+                    poolBranches.incrementAndGet();
+                }
+            });
+            Runnable task = () -> {
+                SingleSnoop.METHOD_BEGIN("Task", "run", "()V");
+                SingleSnoop.BRANCH(5, 12, 0);
+                SingleSnoop.RETURN(11, 14);
+            };
+            Thread driver = new Thread(() -> {
+                try {
+                    SingleSnoop.startSnooping("Driver#run");
+                    SingleSnoop.METHOD_BEGIN("Driver", "run", "()V");
+                    pool.submit(task).get();
+                    pool.submit(SingleSnoop.REGISTER_TASK(task)).get();
+                    pool.execute(SingleSnoop.REGISTER_TASK(task));
+                    pool.submit(() -> {}).get();
+                } catch (Throwable e) {
+                    error.set(e);
+                } finally {
+                    TraceLogger.get().remove();
+                }
+            });
+            driver.start();
+            driver.join();
+            // Tasks that were not registered, or that are submitted by untraced threads, are not traced
+            pool.submit(SingleSnoop.REGISTER_TASK(task)).get();
+        } finally {
+            pool.shutdown();
+            SingleSnoop.setCallbackGenerator((t) -> (e) -> {});
+        }
+        Assert.assertNull(error.get());
+        Assert.assertEquals(2, poolBranches.get());
+    }
+
+    @Test
+    public void tasksOnShortLivedThreadsAreTraced() throws Exception {
+        final int tasks = 200;
+        AtomicInteger branches = new AtomicInteger();
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        SingleSnoop.setCallbackGenerator((t) -> (e) -> {
+            if (e instanceof BranchEvent) {
+                branches.incrementAndGet();
+            }
+        });
+        Runnable task = () -> {
+            SingleSnoop.METHOD_BEGIN("Task", "run", "()V");
+            SingleSnoop.BRANCH(5, 12, 0);
+            SingleSnoop.RETURN(11, 14);
+        };
+        Thread driver = new Thread(() -> {
+            try {
+                SingleSnoop.startSnooping("Driver#run");
+                SingleSnoop.METHOD_BEGIN("Driver", "run", "()V");
+                // Run each task on a thread of its own, a few at a time
+                Thread[] workers = new Thread[4];
+                for (int i = 0; i < tasks; i++) {
+                    int slot = i % workers.length;
+                    if (workers[slot] != null) {
+                        workers[slot].join();
+                    }
+                    workers[slot] = new Thread(SingleSnoop.REGISTER_TASK(task));
+                    workers[slot].start();
+                }
+                for (Thread worker : workers) {
+                    worker.join();
+                }
+            } catch (Throwable e) {
+                error.set(e);
+            } finally {
+                TraceLogger.get().remove();
+            }
+        });
+        try {
+            driver.start();
+            driver.join();
+        } finally {
+            SingleSnoop.setCallbackGenerator((t) -> (e) -> {});
+        }
+        Assert.assertNull(error.get());
+        Assert.assertEquals(tasks, branches.get());
+    }
+
+    /** Returns the length of the bytecode of each method of a class, keyed by name and descriptor. */
+    private static Map<String, Integer> codeLengths(Class<?> clazz) throws IOException {
+        ClassReader reader;
+        try (InputStream in = clazz.getResourceAsStream(clazz.getSimpleName() + ".class")) {
+            reader = new ClassReader(in);
+        }
+        char[] buffer = new char[reader.getMaxStringLength()];
+        // Skip the access flags, the class and super class, and the interfaces
+        int offset = reader.header + 6;
+        offset += 2 + 2 * reader.readUnsignedShort(offset);
+        // Skip the fields
+        int fieldCount = reader.readUnsignedShort(offset);
+        offset += 2;
+        for (int i = 0; i < fieldCount; i++) {
+            offset = skipAttributes(reader, offset + 6);
+        }
+        // Find the Code attribute of each method
+        Map<String, Integer> codeLengths = new HashMap<>();
+        int methodCount = reader.readUnsignedShort(offset);
+        offset += 2;
+        for (int i = 0; i < methodCount; i++) {
+            String key = reader.readUTF8(offset + 2, buffer) + reader.readUTF8(offset + 4, buffer);
+            int attributeCount = reader.readUnsignedShort(offset + 6);
+            offset += 8;
+            for (int a = 0; a < attributeCount; a++) {
+                if (reader.readUTF8(offset, buffer).equals("Code")) {
+                    // The code length follows the maximum stack size and the number of locals
+                    codeLengths.put(key, reader.readInt(offset + 10));
+                }
+                offset += 6 + reader.readInt(offset + 2);
+            }
+        }
+        return codeLengths;
+    }
+
+    private static int skipAttributes(ClassReader reader, int offset) {
+        int attributeCount = reader.readUnsignedShort(offset);
+        offset += 2;
+        for (int a = 0; a < attributeCount; a++) {
+            offset += 6 + reader.readInt(offset + 2);
+        }
+        return offset;
+    }
+}
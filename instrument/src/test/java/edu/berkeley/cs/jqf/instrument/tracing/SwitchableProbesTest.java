@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2017-2018 The Regents of the University of California
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.cs.jqf.instrument.tracing;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.List;
+
+import janala.instrument.ProbeRegistry;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class SwitchableProbesTest {
+
+    private static final List<Integer> hits = new ArrayList<>();
+
+    public static void record(int iid, int lineNumber, int arm) {
+        hits.add(iid + arm);
+    }
+
+    private static MethodHandle link(int iid, int arm) throws ReflectiveOperationException {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        MethodType probeType = MethodType.methodType(void.class, int.class, int.class, int.class);
+        MethodHandle probe = lookup.findStatic(SwitchableProbesTest.class, "record", probeType);
+        CallSite site = SwitchableProbes.bootstrap(lookup, "BRANCH", MethodType.methodType(void.class),
+                probe, iid, 42, arm, 0, 1);
+        return site.dynamicInvoker();
+    }
+
+    @Test
+    public void disabledProbesAreSkipped() throws Throwable {
+        hits.clear();
+        int iid = ProbeRegistry.allocate(2);
+        MethodHandle taken = link(iid, 1);
+        MethodHandle notTaken = link(iid, 0);
+        Assert.assertTrue(SwitchableProbes.isSwitchable(iid + 1));
+        Assert.assertEquals(iid, SwitchableProbes.getBranchStart(iid + 1));
+        Assert.assertEquals(iid + 2, SwitchableProbes.getBranchEnd(iid));
+
+        taken.invokeExact();
+        notTaken.invokeExact();
+        SwitchableProbes.disable(iid + 1);
+        taken.invokeExact();
+        notTaken.invokeExact();
+        SwitchableProbes.enable(iid + 1);
+        taken.invokeExact();
+
+        Assert.assertEquals(List.of(iid + 1, iid, iid, iid + 1), hits);
+    }
+
+    @Test
+    public void probesDisabledBeforeLinkingStartDisabled() throws Throwable {
+        hits.clear();
+        int iid = ProbeRegistry.allocate(2);
+        SwitchableProbes.disable(iid);
+        Assert.assertFalse(SwitchableProbes.isSwitchable(iid));
+        MethodHandle probe = link(iid, 0);
+        probe.invokeExact();
+
+        Assert.assertTrue(SwitchableProbes.isDisabled(iid));
+        Assert.assertTrue(hits.isEmpty());
+    }
+}
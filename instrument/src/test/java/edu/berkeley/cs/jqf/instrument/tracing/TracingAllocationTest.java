@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 2017-2018 The Regents of the University of California
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.cs.jqf.instrument.tracing;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+import edu.berkeley.cs.jqf.instrument.tracing.events.BranchEvent;
+import edu.berkeley.cs.jqf.instrument.tracing.events.CallEvent;
+import edu.berkeley.cs.jqf.instrument.tracing.events.TraceEvent;
+import edu.berkeley.cs.jqf.instrument.tracing.events.TraceEventVisitor;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Checks that tracing instrumented instructions into a map of hit counts
+ * does not allocate once the tracer has warmed up.
+ */
+@RunWith(JUnit4.class)
+public class TracingAllocationTest {
+
+    private static final int WARMUP_ITERATIONS = 200_000;
+    private static final int MEASURED_ITERATIONS = 1_000_000;
+
+    /** Counts the hits of each branch arm and call site, like a coverage map but without hashing. */
+    private static class HitCounter implements TraceEventVisitor {
+        private final int[] hits = new int[1024];
+
+        void hit(int slot) {
+            hits[slot & (hits.length - 1)]++;
+        }
+
+        @Override
+        public void visitBranchEvent(BranchEvent b) {
+            hit(b.getIid() + b.getArm());
+        }
+
+        @Override
+        public void visitCallEvent(CallEvent e) {
+            hit(e.getIid());
+        }
+
+        void handleBatch(TraceEventBatch batch) {
+            for (int i = 0; i < batch.size(); i++) {
+                switch (batch.getKind(i)) {
+                    case TraceEventBatch.BRANCH:
+                        hit(batch.getIid(i) + batch.getArm(i));
+                        break;
+                    case TraceEventBatch.CALL:
+                        hit(batch.getIid(i));
+                        break;
+                    default:
+                        // Returns are not counted
+                }
+            }
+        }
+
+        int getNonZeroCount() {
+            int count = 0;
+            for (int h : hits) {
+                if (h != 0) {
+                    count++;
+                }
+            }
+            return count;
+        }
+    }
+
+    /** Simulates the probes executed by an instrumented call to a method with a branch. */
+    private static void traceCall(int i) {
+        SingleSnoop.INVOKESTATIC(1, 10, "Driver", "callee", "(I)I");
+        SingleSnoop.METHOD_BEGIN("Driver", "callee", "(I)I");
+        SingleSnoop.GETVALUE_boolean(i % 2 == 0);
+        SingleSnoop.IFEQ(3, 11, 0);
+        SingleSnoop.BRANCH(5, 12, i % 3);
+        SingleSnoop.IRETURN(8, 13);
+        SingleSnoop.INVOKEMETHOD_END();
+    }
+
+    /** Traces simulated calls on a fresh thread and returns the bytes allocated in the steady state. */
+    private static long measureAllocation(Consumer<TraceEvent> callback) throws InterruptedException {
+        Assume.assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        AtomicLong allocated = new AtomicLong();
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        SingleSnoop.setCallbackGenerator((t) -> callback);
+        Thread driver = new Thread(() -> {
+            try {
+                SingleSnoop.startSnooping("Driver#run");
+                SingleSnoop.METHOD_BEGIN("Driver", "run", "()V");
+                for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+                    traceCall(i);
+                }
+                long id = Thread.currentThread().getId();
+                long before = threads.getThreadAllocatedBytes(id);
+                for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+                    traceCall(i);
+                }
+                allocated.set(threads.getThreadAllocatedBytes(id) - before);
+                SingleSnoop.RETURN(9, 14);
+            } catch (Throwable e) {
+                error.set(e);
+            } finally {
+                TraceLogger.get().remove();
+            }
+        });
+        try {
+            driver.start();
+            driver.join();
+        } finally {
+            SingleSnoop.setCallbackGenerator((t) -> (e) -> {});
+        }
+        Assert.assertNull(error.get());
+        return allocated.get();
+    }
+
+    @Test
+    public void steadyStateTracingDoesNotAllocate() throws InterruptedException {
+        HitCounter coverage = new HitCounter();
+        long allocated = measureAllocation((e) -> e.applyVisitor(coverage));
+
+        // Entry point, call site, both arms of the IFEQ and all three arms of the BRANCH
+        Assert.assertEquals(7, coverage.getNonZeroCount());
+        // Allow for a few bytes of incidental allocation, but nothing per instruction
+        Assert.assertTrue("Allocated " + allocated + " bytes", allocated < 1024);
+    }
+
+    @Test
+    public void steadyStateBatchedTracingDoesNotAllocate() throws InterruptedException {
+        HitCounter coverage = new HitCounter();
+        long allocated = measureAllocation(new TraceEventBatchConsumer() {
+            @Override
+            public void accept(TraceEvent e) {
+                e.applyVisitor(coverage);
+            }
+
+            @Override
+            public void acceptBatch(TraceEventBatch batch) {
+                coverage.handleBatch(batch);
+            }
+        });
+
+        Assert.assertEquals(7, coverage.getNonZeroCount());
+        Assert.assertTrue("Allocated " + allocated + " bytes", allocated < 1024);
+    }
+}
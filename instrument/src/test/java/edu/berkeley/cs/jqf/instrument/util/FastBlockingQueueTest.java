@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2017-2018 The Regents of the University of California
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.cs.jqf.instrument.util;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class FastBlockingQueueTest {
+
+    @Test
+    public void sizeIsRoundedUpToPowerOfTwo() {
+        FastBlockingQueue<Integer> queue = new FastBlockingQueue<>(5);
+        for (int i = 0; i < 8; i++) {
+            Assert.assertTrue(queue.offer(i));
+        }
+        Assert.assertTrue(queue.isFull());
+        Assert.assertFalse(queue.offer(8));
+        for (int i = 0; i < 8; i++) {
+            Assert.assertEquals(Integer.valueOf(i), queue.poll());
+        }
+        Assert.assertTrue(queue.isEmpty());
+        Assert.assertNull(queue.poll());
+        Assert.assertNull(queue.remove(100));
+    }
+
+    @Test
+    public void itemsArriveInOrderAcrossThreads() throws InterruptedException {
+        final int count = 1_000_000;
+        FastBlockingQueue<Integer> queue = new FastBlockingQueue<>(64);
+        AtomicReference<String> error = new AtomicReference<>();
+        Thread consumer = new Thread(() -> {
+            for (int i = 0; i < count; i++) {
+                Integer item = queue.remove(Long.MAX_VALUE);
+                if ((item == null || item != i) && error.get() == null) {
+                    error.set("Expected " + i + " but got " + item);
+                }
+            }
+        });
+        consumer.start();
+        for (int i = 0; i < count; i++) {
+            queue.put(i);
+        }
+        consumer.join();
+        Assert.assertNull(error.get());
+        Assert.assertTrue(queue.isEmpty());
+    }
+}
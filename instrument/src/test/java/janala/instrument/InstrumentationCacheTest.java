@@ -0,0 +1,53 @@
+package janala.instrument;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class InstrumentationCacheTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void releasedTailIsReservedAgain() throws IOException {
+    File dir = folder.newFolder();
+    InstrumentationCache first = InstrumentationCache.open(dir, "test");
+    int block = first.reserve(100, 1);
+    first.release(block + 10, block + 100);
+
+    // Another JVM opening the same cache continues after the IDs in use
+    InstrumentationCache second = InstrumentationCache.open(dir, "test");
+    Assert.assertEquals(block + 10, second.reserve(100, 1));
+  }
+
+  @Test
+  public void tailIsKeptAfterLaterReservations() throws IOException {
+    File dir = folder.newFolder();
+    InstrumentationCache first = InstrumentationCache.open(dir, "test");
+    InstrumentationCache second = InstrumentationCache.open(dir, "test");
+    int block = first.reserve(100, 1);
+    int other = second.reserve(100, 1);
+    Assert.assertEquals(block + 100, other);
+
+    // The tail of the first block is not at the end, so it cannot be reclaimed
+    first.release(block + 10, block + 100);
+    Assert.assertEquals(other + 100, second.reserve(100, 1));
+  }
+
+  @Test
+  public void reservationsRespectTheLowerBound() throws IOException {
+    InstrumentationCache cache = InstrumentationCache.open(folder.newFolder(), "test");
+    int block = cache.reserve(100, 5000);
+    Assert.assertEquals(5000, block);
+    cache.release(block, block + 100);
+    Assert.assertEquals(5000, cache.reserve(10, 1));
+  }
+}
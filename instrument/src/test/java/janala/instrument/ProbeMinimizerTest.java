@@ -0,0 +1,207 @@
+package janala.instrument;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+
+import edu.berkeley.cs.jqf.instrument.tracing.InlineCoverage;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+@RunWith(JUnit4.class)
+public class ProbeMinimizerTest {
+
+  /** The code to instrument, with else-if chains, switches, loops and try/catch regions. */
+  public static class Fixture {
+    public static int lex(String s) {
+      int tokens = 0;
+      for (int i = 0; i < s.length(); i++) {
+        char c = s.charAt(i);
+        if (c == ' ') {
+          continue;
+        } else if (c == '(') {
+          tokens += 1;
+        } else if (c == ')') {
+          tokens += 2;
+        } else if (c >= '0' && c <= '9') {
+          tokens += 3;
+        } else if (c == '+' || c == '-') {
+          tokens += 4;
+        } else {
+          tokens += 5;
+        }
+      }
+      return tokens;
+    }
+
+    public static int classify(int x) {
+      int result;
+      switch (x) {
+        case 0: result = 10; break;
+        case 1: result = 11; break;
+        case 2:
+        case 3: result = 12; break;
+        default:
+          switch (x) {
+            case 100: result = 20; break;
+            case 1000: result = 21; break;
+            default: result = x < 0 ? -1 : 0;
+          }
+      }
+      if (result > 15) {
+        result++;
+      } else if (result > 10) {
+        result--;
+      }
+      return result;
+    }
+
+    public static int parse(String s) {
+      try {
+        int v = Integer.parseInt(s);
+        if (v < 0) {
+          return -1;
+        } else if (v == 0) {
+          return 0;
+        }
+        return 100 / (v - 5);
+      } catch (NumberFormatException e) {
+        if (s.isEmpty()) {
+          return -2;
+        } else if (s.charAt(0) == 'x') {
+          return -3;
+        }
+        return -4;
+      } catch (ArithmeticException e) {
+        return -5;
+      }
+    }
+
+    public static int loop(int n) {
+      int sum = 0;
+      while (n > 0) {
+        if ((n & 1) == 0) {
+          sum += n;
+        } else if (n % 3 == 0) {
+          sum -= n;
+        }
+        n--;
+      }
+      do {
+        sum++;
+      } while (sum < 0);
+      return sum;
+    }
+  }
+
+  private static final String FIXTURE = Fixture.class.getName();
+
+  private static final String[] STRINGS = {
+      "( 1 + 2 ) - x", "", "abc", "42", "-7", "5", "0", "x1", "((9))", "   "
+  };
+
+  /** A class instrumented in one way, and the slots allocated for it. */
+  private static class Instrumented {
+    final byte[] bytecode;
+    final int firstSlot;
+    final int endSlot;
+
+    Instrumented(byte[] bytecode, int firstSlot, int endSlot) {
+      this.bytecode = bytecode;
+      this.firstSlot = firstSlot;
+      this.endSlot = endSlot;
+    }
+  }
+
+  @Before
+  public void checkMode() {
+    Assert.assertTrue("Tests must run with janala.mode=inline", Config.instance.inlineCoverage);
+    InlineCoverage.enable();
+  }
+
+  private static Instrumented instrument(boolean minimizeProbes) throws IOException {
+    byte[] original;
+    try (InputStream in = ProbeMinimizerTest.class.getResourceAsStream(
+        "/" + FIXTURE.replace('.', '/') + ".class")) {
+      original = in.readAllBytes();
+    }
+    int firstSlot = ProbeRegistry.size();
+    ClassReader cr = new ClassReader(original);
+    ClassWriter cw = new SafeClassWriter(cr, ProbeMinimizerTest.class.getClassLoader(),
+        ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS);
+    cr.accept(new SnoopInstructionClassAdapter(cw, FIXTURE.replace('.', '/'),
+        new GlobalStateForInstrumentation(), minimizeProbes), 0);
+    int endSlot = ProbeRegistry.size();
+    InlineCoverage.ensureCapacity(endSlot);
+    return new Instrumented(cw.toByteArray(), firstSlot, endSlot);
+  }
+
+  /** Runs the instrumented fixture on every input, and returns the counts of its slots. */
+  private static int[] run(Instrumented instrumented) throws ReflectiveOperationException {
+    Class<?> fixture = new ClassLoader(ProbeMinimizerTest.class.getClassLoader()) {
+      Class<?> define() {
+        return defineClass(FIXTURE, instrumented.bytecode, 0, instrumented.bytecode.length);
+      }
+    }.define();
+    Method lex = fixture.getMethod("lex", String.class);
+    Method parse = fixture.getMethod("parse", String.class);
+    Method classify = fixture.getMethod("classify", int.class);
+    Method loop = fixture.getMethod("loop", int.class);
+
+    InlineCoverage.reset();
+    for (String s : STRINGS) {
+      lex.invoke(null, s);
+      parse.invoke(null, s);
+    }
+    for (int x = -3; x <= 1001; x++) {
+      classify.invoke(null, x);
+    }
+    for (int n = 0; n < 20; n++) {
+      loop.invoke(null, n);
+    }
+    return Arrays.copyOfRange(InlineCoverage.getCounts(), instrumented.firstSlot, instrumented.endSlot);
+  }
+
+  /** Counts the places where the instrumented code loads the inline counts. */
+  private static int countProbes(byte[] bytecode) {
+    int[] probes = { 0 };
+    new ClassReader(bytecode).accept(new ClassVisitor(Opcodes.ASM8) {
+      @Override
+      public MethodVisitor visitMethod(int access, String name, String desc, String signature,
+          String[] exceptions) {
+        return new MethodVisitor(Opcodes.ASM8) {
+          @Override
+          public void visitFieldInsn(int opcode, String owner, String field, String fieldDesc) {
+            if (opcode == Opcodes.GETSTATIC && field.equals("chunks") &&
+                owner.equals("edu/berkeley/cs/jqf/instrument/tracing/InlineCoverage")) {
+              probes[0]++;
+            }
+          }
+        };
+      }
+    }, 0);
+    return probes[0];
+  }
+
+  @Test
+  public void minimizedProbesGiveTheSameCounts() throws Exception {
+    Instrumented plain = instrument(false);
+    Instrumented minimized = instrument(true);
+    Assert.assertEquals(plain.endSlot - plain.firstSlot, minimized.endSlot - minimized.firstSlot);
+    Assert.assertTrue(countProbes(minimized.bytecode) < countProbes(plain.bytecode));
+
+    int[] expected = run(plain);
+    int[] actual = run(minimized);
+    Assert.assertTrue(Arrays.stream(expected).filter(c -> c > 0).count() > expected.length / 2);
+    Assert.assertArrayEquals(expected, actual);
+  }
+}
@@ -44,6 +44,7 @@ import edu.berkeley.cs.jqf.fuzz.ei.ExecutionIndexingGuidance;
 import edu.berkeley.cs.jqf.fuzz.ei.ZestGuidance;
 import edu.berkeley.cs.jqf.fuzz.guidance.GuidanceException;
 import edu.berkeley.cs.jqf.fuzz.junit.GuidedFuzzing;
+import edu.berkeley.cs.jqf.instrument.InstrumentedClasspath;
 import edu.berkeley.cs.jqf.instrument.InstrumentingClassLoader;
 import org.apache.maven.artifact.DependencyResolutionRequiredException;
 import org.apache.maven.plugin.AbstractMojo;
@@ -123,6 +124,44 @@ public class FuzzGoal extends AbstractMojo {
     @Parameter(property="includes")
     private String includes;
 
+    /**
+     * The instrumentation mode used to collect coverage.
+     *
+     * <p>The default mode, <code>full</code>, logs every instrumented
+     * instruction, including values read by branches and switches. The
+     * <code>coverage</code> mode emits only the probes needed for branch
+     * and call coverage (plus returns, to keep the call stack consistent),
+     * which is considerably cheaper and sufficient for Zest. The
+     * <code>inline</code> mode increments coverage counters directly in
+     * the instrumented code, without producing any trace events.</p>
+     */
+    @Parameter(property="instrumentationMode")
+    private String instrumentationMode;
+
+    /**
+     * Whether to instrument all classes on the test classpath up front,
+     * in parallel, instead of one at a time as they are loaded.
+     *
+     * <p>This can considerably reduce the startup time for large targets
+     * on machines with many cores, at the cost of instrumenting classes
+     * that may never be loaded.</p>
+     */
+    @Parameter(property="preInstrument")
+    private boolean preInstrument;
+
+    /**
+     * A directory containing the test classpath instrumented
+     * by the goal <code>jqf:instrument</code>.
+     *
+     * <p>If set, classes are loaded from this directory and are
+     * not instrumented again. The instrumentation options given
+     * to <code>jqf:instrument</code> apply, and the options
+     * <code>excludes</code>, <code>includes</code> and
+     * <code>instrumentationMode</code> of this goal are ignored.</p>
+     */
+    @Parameter(property="instrumentedDirectory")
+    private File instrumentedDirectory;
+
     /**
      * The duration of time for which to run fuzzing.
      *
@@ -301,6 +340,9 @@ public class FuzzGoal extends AbstractMojo {
         if (includes != null) {
             System.setProperty("janala.includes", includes);
         }
+        if (instrumentationMode != null) {
+            System.setProperty("janala.mode", instrumentationMode);
+        }
 
         // Configure Zest Guidance
         if (saveAll) {
@@ -343,13 +385,24 @@ public class FuzzGoal extends AbstractMojo {
                         stringsToUrls(classpathElements.toArray(new String[0])),
                         getClass().getClassLoader());
 
+            } else if (instrumentedDirectory != null) {
+                loader = new URLClassLoader(
+                        InstrumentedClasspath.activate(instrumentedDirectory),
+                        getClass().getClassLoader());
             } else {
-                loader = new InstrumentingClassLoader(
+                InstrumentingClassLoader instrumentingLoader = new InstrumentingClassLoader(
                         classpathElements.toArray(new String[0]),
                         getClass().getClassLoader());
+                if (preInstrument) {
+                    int count = instrumentingLoader.preInstrument();
+                    log.debug("Pre-instrumented " + count + " classes");
+                }
+                loader = instrumentingLoader;
             }
         } catch (DependencyResolutionRequiredException|MalformedURLException e) {
             throw new MojoExecutionException("Could not get project classpath", e);
+        } catch (IOException e) {
+            throw new MojoExecutionException("Could not read project classpath", e);
         }
 
         File resultsDir = new File(target, outputDirectory);
@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2017-2018 The Regents of the University of California
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.cs.jqf.plugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.List;
+
+import edu.berkeley.cs.jqf.instrument.InstrumentedClasspath;
+import org.apache.maven.artifact.DependencyResolutionRequiredException;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.plugins.annotations.ResolutionScope;
+import org.apache.maven.project.MavenProject;
+
+/**
+ * Maven plugin for instrumenting the test classpath ahead of time.
+ *
+ * <p>The instrumented classpath can be passed to <code>jqf:fuzz</code> and
+ * <code>jqf:repro</code> via their <code>instrumentedDirectory</code>
+ * parameter, which avoids instrumenting classes on every run. The
+ * instrumented copy is only rebuilt when the classpath or the
+ * instrumentation options change.</p>
+ */
+@Mojo(name="instrument",
+        requiresDependencyResolution=ResolutionScope.TEST,
+        defaultPhase=LifecyclePhase.PROCESS_TEST_CLASSES)
+public class InstrumentGoal extends AbstractMojo {
+
+    @Parameter(defaultValue="${project}", required=true, readonly=true)
+    MavenProject project;
+
+    /**
+     * The directory in which to write the instrumented classpath.
+     *
+     * <p>This directory is owned by JQF; its contents are replaced
+     * whenever the classpath needs to be instrumented again.</p>
+     */
+    @Parameter(property="instrumentedDirectory",
+            defaultValue="${project.build.directory}/jqf-instrumented")
+    private File instrumentedDirectory;
+
+    /**
+     * Comma-separated list of FQN prefixes to exclude from
+     * coverage instrumentation.
+     *
+     * <p>The semantics are the same as the similarly named
+     * property in the goal <code>jqf:fuzz</code>.</p>
+     */
+    @Parameter(property="excludes")
+    private String excludes;
+
+    /**
+     * Comma-separated list of FQN prefixes to forcibly include,
+     * even if they match an exclude.
+     *
+     * <p>The semantics are the same as the similarly named
+     * property in the goal <code>jqf:fuzz</code>.</p>
+     */
+    @Parameter(property="includes")
+    private String includes;
+
+    /**
+     * The instrumentation mode used to collect coverage.
+     *
+     * <p>The semantics are the same as the similarly named
+     * property in the goal <code>jqf:fuzz</code>.</p>
+     */
+    @Parameter(property="instrumentationMode")
+    private String instrumentationMode;
+
+    @Override
+    public void execute() throws MojoExecutionException, MojoFailureException {
+        // Configure classes to instrument
+        if (excludes != null) {
+            System.setProperty("janala.excludes", excludes);
+        }
+        if (includes != null) {
+            System.setProperty("janala.includes", includes);
+        }
+        if (instrumentationMode != null) {
+            System.setProperty("janala.mode", instrumentationMode);
+        }
+
+        try {
+            List<String> classpathElements = project.getTestClasspathElements();
+            URL[] urls = InstrumentedClasspath.create(
+                    classpathElements.toArray(new String[0]), instrumentedDirectory);
+            getLog().info("Instrumented classpath (" + urls.length + " entries) is in " + instrumentedDirectory);
+        } catch (DependencyResolutionRequiredException e) {
+            throw new MojoExecutionException("Could not get project classpath", e);
+        } catch (IOException e) {
+            throw new MojoExecutionException("Could not instrument project classpath", e);
+        }
+    }
+}
@@ -34,6 +34,7 @@ import java.io.IOException;
 import java.io.PrintStream;
 import java.io.PrintWriter;
 import java.net.MalformedURLException;
+import java.net.URLClassLoader;
 import java.util.List;
 import java.util.Set;
 import java.util.SortedSet;
@@ -41,6 +42,7 @@ import java.util.TreeSet;
 
 import edu.berkeley.cs.jqf.fuzz.junit.GuidedFuzzing;
 import edu.berkeley.cs.jqf.fuzz.repro.ReproGuidance;
+import edu.berkeley.cs.jqf.instrument.InstrumentedClasspath;
 import edu.berkeley.cs.jqf.instrument.InstrumentingClassLoader;
 import org.apache.maven.artifact.DependencyResolutionRequiredException;
 import org.apache.maven.plugin.AbstractMojo;
@@ -139,6 +141,17 @@ public class ReproGoal extends AbstractMojo {
     @Parameter(property="includes")
     private String includes;
 
+    /**
+     * A directory containing the test classpath instrumented
+     * by the goal <code>jqf:instrument</code>.
+     *
+     * <p>If set, classes are loaded from this directory and are
+     * not instrumented again; the options <code>excludes</code>
+     * and <code>includes</code> are then ignored.</p>
+     */
+    @Parameter(property="instrumentedDirectory")
+    private File instrumentedDirectory;
+
     /**
      * Whether to print the args to each test case.
      *
@@ -188,13 +201,21 @@ public class ReproGoal extends AbstractMojo {
         }
 
         try {
-            List<String> classpathElements = project.getTestClasspathElements();
+            if (instrumentedDirectory != null) {
+                loader = new URLClassLoader(
+                        InstrumentedClasspath.activate(instrumentedDirectory),
+                        getClass().getClassLoader());
+            } else {
+                List<String> classpathElements = project.getTestClasspathElements();
 
-            loader = new InstrumentingClassLoader(
-                    classpathElements.toArray(new String[0]),
-                    getClass().getClassLoader());
+                loader = new InstrumentingClassLoader(
+                        classpathElements.toArray(new String[0]),
+                        getClass().getClassLoader());
+            }
         } catch (DependencyResolutionRequiredException|MalformedURLException e) {
             throw new MojoExecutionException("Could not get project classpath", e);
+        } catch (IOException e) {
+            throw new MojoExecutionException("Could not read instrumented classpath", e);
         }
 
         // If a coverage dump file was provided, enable logging via system property
@@ -19,7 +19,7 @@ INST_JAR="${INST_DIR}/$project-instrument-$version.jar"
 
 # Compute classpaths (the /classes are only for development; 
 #   if empty the JARs will have whatever is needed)
-INST_CLASSPATH="${INST_DIR}/classes:${INST_JAR}:${INST_DIR}/dependency/asm-9.1.jar"
+INST_CLASSPATH="${INST_DIR}/classes:${INST_JAR}:${INST_DIR}/dependency/asm-9.1.jar:${INST_DIR}/dependency/asm-tree-9.1.jar"
 FUZZ_CLASSPATH="${FUZZ_DIR}/classes:${FUZZ_JAR}"
 
 # If user-defined classpath is not set, default to '.'
@@ -29,7 +29,15 @@ fi
 
 # Java Agent config (can be turned off using env var)
 if [ -z "$JQF_DISABLE_INSTRUMENTATION" ]; then
-  JAVAAGENT="-javaagent:${INST_JAR}"
+  if [ -n "$JQF_INSTRUMENTED_DIR" ]; then
+    # Use a classpath instrumented ahead of time by jqf-instrument; the
+    #   instrumented copies shadow the originals, and any entries that were
+    #   not instrumented (e.g. new directories or jars) still run, uninstrumented
+    CLASSPATH="`cat "${JQF_INSTRUMENTED_DIR}/classpath.txt"`:${CLASSPATH}"
+    JAVAAGENT="-javaagent:${INST_JAR}=${JQF_INSTRUMENTED_DIR}"
+  else
+    JAVAAGENT="-javaagent:${INST_JAR}"
+  fi
 fi
 
 # Run Java